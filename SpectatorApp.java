@@ -0,0 +1,68 @@
+import javafx.application.Application;
+import javafx.stage.Stage;
+import model.AutoPilot;
+import model.TetrisModel;
+import server.GameSession;
+import server.SessionHost;
+import views.SpectatorView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs a batch of computer-played games on a SessionHost and shows them all in a SpectatorView
+ *
+ * Usage: java SpectatorApp [games] [rate] [maxFps] [workers]
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class SpectatorApp extends Application {
+    SessionHost host;
+
+    /**
+     * Main method
+     *
+     * @param args number of games, gravity rate, frame rate cap and worker threads, all optional
+     */
+    public static void main(String[] args) {
+        launch(args);
+    }
+
+    /**
+     * Start method. Opens the games, then the view.
+     *
+     * @param primaryStage stage upon which to show the games
+     */
+    @Override
+    public void start(Stage primaryStage) {
+        List<String> args = getParameters().getRaw();
+        int games = args.size() > 0 ? Integer.parseInt(args.get(0)) : 200;
+        double rate = args.size() > 1 ? Double.parseDouble(args.get(1)) : 3.0;
+        int maxFps = args.size() > 2 ? Integer.parseInt(args.get(2)) : 30;
+        int workers = args.size() > 3 ? Integer.parseInt(args.get(3)) : Runtime.getRuntime().availableProcessors();
+
+        Random random = new Random(207);
+        this.host = new SessionHost(workers, 1, games, games);
+        List<GameSession> sessions = new ArrayList<>(games);
+        for (int i = 0; i < games; i++) {
+            long seed = random.nextLong();
+            TetrisModel model = new TetrisModel();
+            model.setPilot(new AutoPilot(seed));
+            model.setAutoPilotMode();
+            model.startGame(seed);
+            GameSession session = host.open(model, rate);
+            session.setAutoRestart(true);
+            sessions.add(session);
+        }
+        new SpectatorView(primaryStage, sessions, TetrisModel.WIDTH, TetrisModel.HEIGHT + TetrisModel.BUFFERZONE, maxFps);
+    }
+
+    /**
+     * Stop method. Shuts the host down when the window closes.
+     */
+    @Override
+    public void stop() {
+        host.close();
+    }
+}
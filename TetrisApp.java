@@ -1,14 +1,21 @@
 import javafx.application.Application;
 import javafx.stage.Stage;
+import model.CheckpointLog;
 import model.TetrisModel;
 import views.TetrisView;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /** 
  * A Tetris Application, in JavaFX
  * 
  * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
  */
 public class TetrisApp extends Application {
+    static final Path AUTOSAVE = Paths.get("boards", "autosave.ckpt"); //where the game in progress is checkpointed
     TetrisModel model;
     TetrisView view;
 
@@ -28,9 +35,33 @@ public class TetrisApp extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
-        this.model = new TetrisModel(); // create a model
+        this.model = recoverAutosave(); //pick up a game a crash interrupted
+        if (this.model == null) {
+            this.model = new TetrisModel(); // create a model
+            this.model.startGame(); //begin, before the view hands the model to its simulation thread
+        }
         this.view = new TetrisView(model, primaryStage); //tie the model to the view
-        this.model.startGame(); //begin
+        try {
+            Files.createDirectories(AUTOSAVE.getParent());
+            this.view.setAutosave(new CheckpointLog(AUTOSAVE));
+        } catch (IOException e) {
+            e.printStackTrace(); //play on without autosave
+        }
+    }
+
+    /**
+     * Load the game in progress from the autosave checkpoints, if there is one
+     *
+     * @return the recovered game, or null if there is no unfinished game to recover
+     */
+    private TetrisModel recoverAutosave() {
+        try {
+            TetrisModel recovered = CheckpointLog.recover(AUTOSAVE);
+            if (recovered != null && recovered.isGameOn()) return recovered;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 
 }
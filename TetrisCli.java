@@ -0,0 +1,242 @@
+import model.AutoPilot;
+import model.ReplayReader;
+import model.TetrisBoard;
+import model.TetrisModel;
+import model.TetrisPilot;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.nio.file.Paths;
+
+/**
+ * Runs games from the command line, without JavaFX or a display. Only the model package is
+ * used, so batch jobs don't pay for starting a toolkit.
+ *
+ * Usage: java TetrisCli command [arguments]
+ * <pre>
+ * simulate [games] [seed] [pilot]             play seeded games and print the totals
+ * replay file [tick]                          show a recorded game at a tick, or at its end
+ * benchmark [seconds] [seed] [pilot]          play games back to back, and print ticks and pieces per second
+ * tune [candidates] [games] [seed] [pilot]    find the pilot seed with the best mean score over the same games
+ * </pre>
+ * pilot is a TetrisPilot class name (model.AutoPilot by default), made with its (long)
+ * constructor if it has one.
+ *
+ * Startup: this class avoids lambdas, String.format and string concatenation with +, which
+ * each cost the JVM a bootstrap on first use. Short jobs start faster still from a class
+ * data sharing archive, made once with a training run. The archive needs the classes in a
+ * jar, not a directory:
+ * <pre>
+ * javac -d out model/*.java TetrisCli.java
+ * jar cf tetris-cli.jar -C out .
+ * java -XX:ArchiveClassesAtExit=tetris-cli.jsa -cp tetris-cli.jar TetrisCli simulate 20
+ * java -XX:SharedArchiveFile=tetris-cli.jsa -XX:TieredStopAtLevel=1 -cp tetris-cli.jar TetrisCli simulate 100
+ * </pre>
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class TetrisCli {
+
+    static final int MAX_TICKS = 1_000_000; //longest game played
+    static final PrintStream out = System.out;
+
+    /**
+     * Main method
+     *
+     * @param args command, then its arguments
+     */
+    public static void main(String[] args) throws IOException, ReflectiveOperationException {
+        String command = args.length > 0 ? args[0] : "help";
+        switch (command) {
+            case "simulate": simulate(args); break;
+            case "replay": replay(args); break;
+            case "benchmark": benchmark(args); break;
+            case "tune": tune(args); break;
+            default:
+                out.println("Usage: java TetrisCli simulate|replay|benchmark|tune [arguments]");
+                out.println("  simulate [games] [seed] [pilot]");
+                out.println("  replay file [tick]");
+                out.println("  benchmark [seconds] [seed] [pilot]");
+                out.println("  tune [candidates] [games] [seed] [pilot]");
+                if (!command.equals("help")) System.exit(2);
+        }
+    }
+
+    /**
+     * Play seeded games one after another and print the totals
+     */
+    static void simulate(String[] args) throws ReflectiveOperationException {
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Constructor<? extends TetrisPilot> pilot = pilotConstructor(args.length > 3 ? args[3] : null);
+
+        long start = System.nanoTime();
+        long ticks = 0, pieces = 0, score = 0;
+        int best = 0;
+        for (int g = 0; g < games; g++) {
+            TetrisModel model = newGame(seed + g, pilot);
+            ticks += play(model, MAX_TICKS);
+            pieces += model.getCount();
+            score += model.getScore();
+            best = Math.max(best, model.getScore());
+        }
+        long nanos = System.nanoTime() - start;
+        out.println(new StringBuilder().append(games).append(" games, ").append(ticks).append(" ticks, ")
+                .append(pieces).append(" pieces in ").append(millis(nanos)).append("ms"));
+        out.println(new StringBuilder().append("mean score ").append(twoPlaces(games == 0 ? 0 : (double) score / games))
+                .append(", best ").append(best));
+    }
+
+    /**
+     * Show the game in a replay at a tick
+     */
+    static void replay(String[] args) throws IOException {
+        if (args.length < 2) throw new IllegalArgumentException("replay needs a file");
+        try (ReplayReader reader = new ReplayReader(Paths.get(args[1]))) {
+            long tick = args.length > 2 ? Long.parseLong(args[2]) : reader.getTicks();
+            TetrisModel model = reader.seek(tick);
+            out.println(new StringBuilder().append("tick ").append(Math.min(tick, reader.getTicks())).append(" of ")
+                    .append(reader.getTicks()).append(": score ").append(model.getScore()).append(", pieces ")
+                    .append(model.getCount()).append(model.isGameOn() ? "" : ", game over"));
+            printBoard(model.getBoard());
+        }
+    }
+
+    /**
+     * Play seeded games back to back for a while, and print the rates
+     */
+    static void benchmark(String[] args) throws ReflectiveOperationException {
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Constructor<? extends TetrisPilot> pilot = pilotConstructor(args.length > 3 ? args[3] : null);
+
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long ticks = 0, pieces = 0;
+        int games = 0;
+        while (System.nanoTime() < end) {
+            TetrisModel model = newGame(seed + games, pilot);
+            ticks += play(model, MAX_TICKS);
+            pieces += model.getCount();
+            games++;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        out.println(new StringBuilder().append(games).append(" games in ").append(millis(System.nanoTime() - start))
+                .append("ms: ").append(Math.round(ticks / elapsed)).append(" ticks/s, ")
+                .append(Math.round(pieces / elapsed)).append(" pieces/s, ")
+                .append(Math.round(games / elapsed)).append(" games/s"));
+    }
+
+    /**
+     * Try pilots made from different seeds on the same games, and print the best. A pilot's
+     * seed is the only setting an AutoPilot has; other pilots may have more to choose from.
+     */
+    static void tune(String[] args) throws ReflectiveOperationException {
+        int candidates = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int games = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        Constructor<? extends TetrisPilot> pilot = pilotConstructor(args.length > 4 ? args[4] : null);
+
+        long bestSeed = 0;
+        double bestScore = -1;
+        for (long candidate = 0; candidate < candidates; candidate++) {
+            long score = 0;
+            for (int g = 0; g < games; g++) {
+                TetrisModel model = new TetrisModel();
+                model.setPilot(newPilot(pilot, candidate));
+                model.setAutoPilotMode();
+                model.startGame(seed + g);
+                play(model, MAX_TICKS);
+                score += model.getScore();
+            }
+            double mean = games == 0 ? 0 : (double) score / games;
+            out.println(new StringBuilder().append("pilot seed ").append(candidate).append(": mean score ").append(twoPlaces(mean)));
+            if (mean > bestScore) {
+                bestScore = mean;
+                bestSeed = candidate;
+            }
+        }
+        out.println(new StringBuilder().append("best pilot seed ").append(bestSeed).append(", mean score ").append(twoPlaces(bestScore)));
+    }
+
+    /**
+     * Play a game until it ends
+     *
+     * @return ticks played
+     */
+    static long play(TetrisModel model, long maxTicks) {
+        long ticks = 0;
+        while (model.isGameOn() && ticks < maxTicks) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+            ticks++;
+        }
+        return ticks;
+    }
+
+    /**
+     * Start a seeded computer game
+     */
+    static TetrisModel newGame(long seed, Constructor<? extends TetrisPilot> pilot) throws ReflectiveOperationException {
+        TetrisModel model = new TetrisModel();
+        model.setPilot(newPilot(pilot, seed));
+        model.setAutoPilotMode();
+        model.startGame(seed);
+        return model;
+    }
+
+    /**
+     * The constructor to make pilots of a class with: its (long) constructor if it has one,
+     * or else its no-argument constructor
+     *
+     * @param className pilot class, or null for AutoPilot
+     *
+     * @return the constructor, or null for AutoPilot, which is made directly
+     */
+    static Constructor<? extends TetrisPilot> pilotConstructor(String className) throws ReflectiveOperationException {
+        if (className == null) return null;
+        Class<? extends TetrisPilot> type = Class.forName(className).asSubclass(TetrisPilot.class);
+        try {
+            return type.getConstructor(long.class);
+        } catch (NoSuchMethodException e) {
+            return type.getConstructor();
+        }
+    }
+
+    /**
+     * Make a pilot
+     */
+    static TetrisPilot newPilot(Constructor<? extends TetrisPilot> pilot, long seed) throws ReflectiveOperationException {
+        if (pilot == null) return new AutoPilot(seed);
+        return pilot.getParameterCount() == 1 ? pilot.newInstance(seed) : pilot.newInstance();
+    }
+
+    /**
+     * Print a board, top row first, as it looks in the game (column 0 on the right)
+     */
+    static void printBoard(TetrisBoard board) {
+        StringBuilder row = new StringBuilder(board.getWidth() + 2);
+        for (int y = board.getHeight() - 1; y >= 0; y--) {
+            row.setLength(0);
+            row.append('|');
+            for (int x = board.getWidth() - 1; x >= 0; x--) {
+                row.append(board.getGrid(x, y) ? '#' : ' ');
+            }
+            out.println(row.append('|'));
+        }
+    }
+
+    /**
+     * A number rounded to two decimal places, for printing
+     */
+    static double twoPlaces(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Nanoseconds as whole milliseconds
+     */
+    static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+}
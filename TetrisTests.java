@@ -1,9 +1,59 @@
+import model.AutoPilot;
+import model.BoardSnapshot;
+import model.CheckpointLog;
+import model.DatasetReader;
+import model.DatasetWriter;
+import model.GameEvent;
+import model.GameEventBus;
+import model.GameMetrics;
+import model.LatencyHistogram;
+import model.LatencyRecorder;
+import model.MetricsRegistry;
+import model.PerformanceProbes;
+import model.Perft;
+import model.ReplayReader;
+import model.ReplayWriter;
+import model.SaveCatalog;
+import model.SaveFormat;
+import model.SaveWriter;
 import model.TetrisPiece;
 import model.TetrisBoard;
+import model.TetrisModel;
+import model.TetrisSimulation;
+import model.VersusMatch;
+import model.VersusModel;
+import server.GameSession;
+import server.SessionHost;
+import server.TimingWheel;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
 public class TetrisTests {
 
     //Piece tests
@@ -105,5 +155,1087 @@ public class TetrisTests {
         assertEquals(2, rcleared);
     }
 
+    @Test
+    void testClearRowsOnTallBoard() {
+        TetrisBoard board = new TetrisBoard(10, 5000); board.newGame();
+        TetrisPiece stick = new TetrisPiece(TetrisPiece.STICK_STR);
+        TetrisPiece flat = stick.computeNextRotation();
+
+        //a tower in column 0, and one full row at the very top of it
+        for (int y = 0; y < 40; y += 4) {
+            board.placePiece(stick, 0, y); board.commit();
+        }
+        board.placePiece(flat, 1, 39); board.commit();
+        board.placePiece(flat, 5, 39); board.commit();
+        int retval = board.placePiece(stick, 9, 39);
+        assertEquals(TetrisBoard.ADD_ROW_FILLED, retval);
+
+        assertEquals(1, board.clearRows());
+        assertEquals(1, board.getRowWidth(39));
+        assertEquals(false, board.getGrid(5, 39));
+
+        board.undo(); //back before the last piece
+        assertEquals(9, board.getRowWidth(39));
+        assertEquals(40, board.getColumnHeight(1));
+        assertEquals(0, board.getColumnHeight(9));
+        assertEquals(false, board.getGrid(9, 39));
+    }
+
+    @Test
+    void testTallBoardMemoryFollowsTheStack() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        TetrisBoard board = new TetrisBoard(10, 1_000_000);
+        board.newGame();
+        TetrisPiece stick = new TetrisPiece(TetrisPiece.STICK_STR);
+        for (int i = 0; i < 30; i++) { //a tower 120 rows tall, in column 0
+            board.placePiece(stick, 0, board.placementHeight(stick, 0));
+            board.commit();
+        }
+        board.insertRows(2, 5);
+        board.commit();
+        board.newGame();
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated < 200_000, "Error: a board a million rows tall took " + allocated + " bytes for 122 rows");
+        assertEquals(0, board.getMaxHeight());
+        assertEquals(0, board.getRowWidth(999_999));
+        assertFalse(board.getGrid(0, 100));
+    }
+
+    @Test
+    void testSnapshotCopiesTheStack() {
+        TetrisModel model = new TetrisModel();
+        model.startGame(3);
+        BoardSnapshot empty = new BoardSnapshot(model, 1);
+        while (model.getCount() < 2) {
+            model.modelTick(TetrisModel.MoveType.DROP);
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        BoardSnapshot snapshot = new BoardSnapshot(model, 2);
+        TetrisBoard board = model.getBoard();
+        int top = board.getMaxHeight();
+        assertTrue(top > 0);
+        for (int y = 0; y < snapshot.getHeight(); y++) {
+            for (int x = 0; x < snapshot.getWidth(); x++) {
+                if (y < top) assertEquals(board.getGrid(x, y), snapshot.getGrid(x, y));
+                else assertFalse(snapshot.getGrid(x, y));
+            }
+        }
+        assertTrue(snapshot.rowChanged(empty, 0), "Error: the landed piece wasn't seen as a change");
+        BoardSnapshot again = new BoardSnapshot(model, 3);
+        for (int y = 0; y < snapshot.getHeight(); y++) {
+            assertFalse(again.rowChanged(snapshot, y), "Error: row " + y + " changed without a move");
+        }
+    }
+
+    @Test
+    void testClearRowsMovesRowsAbove() {
+        TetrisBoard board = new TetrisBoard(10, 24);
+        boolean[] cells = new boolean[10 * 24];
+        for (int x = 0; x < 10; x++) {
+            cells[x] = true; //row 0 full
+            cells[10 + x] = x == 3; //row 1 one cell
+            cells[20 + x] = true; //row 2 full
+            cells[30 + x] = x < 5; //row 3 half
+        }
+        board.setCells(cells);
+        long version = board.getVersion();
+
+        board.placePiece(new TetrisPiece(TetrisPiece.SQUARE_STR), 0, 4);
+        assertEquals(2, board.clearRows());
+        assertEquals(1, board.getRowWidth(0));
+        assertEquals(true, board.getGrid(3, 0));
+        assertEquals(5, board.getRowWidth(1));
+        assertEquals(2, board.getRowWidth(2));
+        assertEquals(2, board.getRowWidth(3));
+        assertEquals(0, board.getRowWidth(4));
+        assertTrue(board.getRowVersion(0) > version, "Error when tracking moved rows");
+
+        board.undo();
+        for (int y = 0; y < 24; y++) {
+            for (int x = 0; x < 10; x++) {
+                assertEquals(cells[y * 10 + x], board.getGrid(x, y));
+            }
+        }
+        assertEquals(10, board.getRowWidth(2));
+        assertEquals(4, board.getColumnHeight(0));
+    }
+
+    //Simulation tests
+    @Test
+    void testSimulationPausesGravityButNotInput() throws InterruptedException {
+        TetrisModel model = new TetrisModel();
+        model.startGame(3);
+        TetrisSimulation simulation = new TetrisSimulation(model);
+        simulation.setRate(1000);
+        simulation.setPaused(true);
+        for (int i = 0; i < 4; i++) { //lock four pieces
+            assertTrue(simulation.submitMove(TetrisModel.MoveType.DROP), "Error when queueing a move");
+            assertTrue(simulation.submitMove(TetrisModel.MoveType.DOWN), "Error when queueing a move");
+        }
+        for (int i = 8; i < TetrisSimulation.INPUT_CAPACITY; i++) {
+            assertTrue(simulation.submitMove(TetrisModel.MoveType.LEFT), "Error when queueing a move");
+        }
+        assertFalse(simulation.submitMove(TetrisModel.MoveType.DOWN), "Error: the input queue grew past its capacity");
+
+        simulation.start();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (simulation.getSnapshot().getCount() < 4) {
+            assertTrue(System.nanoTime() < deadline, "Error: queued moves weren't played while paused");
+            Thread.sleep(1);
+        }
+        Thread.sleep(50); //200 ticks' worth at this rate
+        assertEquals(0L, simulation.getTicks());
+
+        simulation.setPaused(false);
+        while (simulation.getTicks() == 0) {
+            assertTrue(System.nanoTime() < deadline, "Error: gravity didn't resume");
+            Thread.sleep(1);
+        }
+        simulation.stop();
+    }
+
+    @Test
+    void testSimulationTicksAtAFixedRate() throws InterruptedException {
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(2));
+        model.setAutoPilotMode();
+        model.startGame(2);
+        TetrisSimulation simulation = new TetrisSimulation(model);
+        simulation.setRate(40); //a tick every 6.25ms
+        long start = System.nanoTime();
+        simulation.start();
+        Thread.sleep(250);
+        simulation.stop();
+        long elapsed = System.nanoTime() - start;
+        long step = TetrisSimulation.STEP_NANOS / 40;
+        assertTrue(simulation.getTicks() <= elapsed / step + 1, "Error: ran ahead of the clock with " + simulation.getTicks() + " ticks");
+        assertTrue(simulation.getTicks() >= 10, "Error: only " + simulation.getTicks() + " ticks ran");
+    }
+
+    //Event bus tests
+    @Test
+    void testEventBusDelivers() {
+        GameEventBus bus = new GameEventBus(8, GameEventBus.OverflowPolicy.OVERWRITE_OLDEST);
+        List<GameEvent.Type> seen = new ArrayList<>();
+        GameEventBus.Subscription sub = bus.subscribe((event, endOfBatch) -> seen.add(event.getType()));
+
+        TetrisModel model = new TetrisModel();
+        model.setEventBus(bus);
+        model.startGame();
+        for (int i = 0; i < 200 && model.isGameOn(); i++) {
+            model.modelTick(TetrisModel.MoveType.DROP);
+            model.modelTick(TetrisModel.MoveType.DOWN);
+            sub.poll();
+        }
+        assertFalse(model.isGameOn(), "Error when playing a game to the end");
+        assertEquals(GameEvent.Type.PIECE_SPAWNED, seen.get(0));
+        assertTrue(seen.contains(GameEvent.Type.PIECE_LOCKED), "Error when publishing locked pieces");
+        assertEquals(GameEvent.Type.GAME_OVER, seen.get(seen.size() - 1));
+        assertEquals(0, sub.getLost());
+    }
+
+    @Test
+    void testEventBusOverflow() {
+        GameEventBus dropping = new GameEventBus(4, GameEventBus.OverflowPolicy.DROP_NEWEST);
+        GameEventBus.Subscription slow = dropping.subscribe((event, endOfBatch) -> { });
+        for (int i = 0; i < 10; i++) dropping.gameOver(i, i);
+        assertEquals(6, dropping.getDropped());
+        assertEquals(4, slow.poll());
+
+        GameEventBus overwriting = new GameEventBus(4, GameEventBus.OverflowPolicy.OVERWRITE_OLDEST);
+        int[] scores = new int[10];
+        int[] n = {0};
+        GameEventBus.Subscription lapped = overwriting.subscribe((event, endOfBatch) -> scores[n[0]++] = event.getScore());
+        for (int i = 0; i < 10; i++) overwriting.gameOver(i, i);
+        assertEquals(4, lapped.poll());
+        assertEquals(6, lapped.getLost());
+        assertEquals(6, scores[0]);
+        assertEquals(9, scores[3]);
+    }
+
+    //Session host tests
+    @Test
+    void testTimingWheelFiresOnTime() {
+        TimingWheel<TimingWheel.Entry> wheel = new TimingWheel<>();
+        long[] deadlines = {1, 5, 63, 64, 65, 200, 4095, 4096, 4097, 300_000}; //the last ones cascade through every level
+        TimingWheel.Entry[] entries = new TimingWheel.Entry[deadlines.length];
+        for (int i = 0; i < deadlines.length; i++) {
+            entries[i] = new TimingWheel.Entry();
+            wheel.schedule(entries[i], deadlines[i]);
+        }
+        assertEquals(deadlines.length, wheel.size());
+
+        Map<TimingWheel.Entry, Long> fired = new IdentityHashMap<>();
+        assertEquals(4, wheel.advance(64, e -> fired.put(e, wheel.getNow())));
+        assertEquals(deadlines.length, wheel.advance(300_000, e -> fired.put(e, wheel.getNow())) + 4);
+        for (int i = 0; i < deadlines.length; i++) {
+            assertEquals(deadlines[i], (long) fired.get(entries[i]));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testTimingWheelReschedules() {
+        TimingWheel<TimingWheel.Entry> wheel = new TimingWheel<>();
+        wheel.advance(100, e -> { });
+        TimingWheel.Entry late = new TimingWheel.Entry();
+        wheel.schedule(late, 90); //in the past: due on the next tick
+        TimingWheel.Entry repeating = new TimingWheel.Entry();
+        wheel.schedule(repeating, 107);
+
+        List<Long> firings = new ArrayList<>();
+        int fired = wheel.advance(1000, e -> {
+            firings.add(wheel.getNow());
+            if (e == repeating) wheel.schedule(e, wheel.getNow() + 7); //as SessionHost does
+        });
+        assertEquals(1 + 128, fired);
+        assertEquals(101L, (long) firings.get(0));
+        assertEquals(107L, (long) firings.get(1));
+        assertEquals(996L, (long) firings.get(firings.size() - 1));
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void testSessionCloseStopsTicks() throws InterruptedException {
+        try (SessionHost host = new SessionHost(1, 1, 16, 4)) {
+            TetrisModel model = new TetrisModel();
+            model.startGame(5);
+            GameSession session = host.open(model, 100);
+            session.setAutoRestart(true);
+            assertEquals(1, host.getSessionCount());
+            awaitTicks(session, 3);
+
+            session.close();
+            assertTrue(session.isClosed());
+            assertFalse(session.submitMove(TetrisModel.MoveType.LEFT), "Error: a closed session took a move");
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (host.getSessionCount() > 0) {
+                assertTrue(System.nanoTime() < deadline, "Error: the host kept a closed session");
+                Thread.sleep(1);
+            }
+            long ticks = session.getTicks();
+            Thread.sleep(20);
+            assertEquals(ticks, session.getTicks());
+        }
+    }
+
+    @Test
+    void testSessionCountsMissedTicksOnce() throws InterruptedException {
+        try (SessionHost host = new SessionHost(1, 1, 16, 4)) {
+            TetrisModel model = new TetrisModel();
+            model.startGame(5);
+            long opened = System.nanoTime();
+            GameSession session = host.open(model, 2500); //a tick due every 0.1ms, faster than the 1ms wheel
+            session.setAutoRestart(true);
+            Thread.sleep(200);
+            session.close();
+            long due = (System.nanoTime() - opened) / session.getIntervalNanos();
+            long counted = session.getTicks() + session.getSkipped();
+            assertTrue(counted >= due / 2, "Error: ticks missed between wheel ticks weren't counted: " + counted + " of " + due);
+            assertTrue(counted <= due + 1, "Error: more ticks counted than were due: " + counted + " of " + due);
+        }
+    }
+
+    @Test
+    void testSessionEndsOrRestartsGames() throws InterruptedException {
+        try (SessionHost host = new SessionHost(2, 1, 16, 4)) {
+            TetrisModel first = new TetrisModel();
+            first.startGame(6);
+            TetrisModel second = new TetrisModel();
+            second.startGame(6); //the same game
+            GameSession ending = host.open(first, 400);
+            GameSession restarting = host.open(second, 400);
+            restarting.setAutoRestart(true);
+
+            long deadline = System.nanoTime() + 20_000_000_000L;
+            while (!ending.isClosed()) {
+                assertTrue(System.nanoTime() < deadline, "Error: the game never ended");
+                Thread.sleep(1);
+            }
+            awaitTicks(restarting, ending.getTicks() * 2);
+            assertFalse(restarting.isClosed(), "Error: the session closed instead of starting a new game");
+        }
+    }
+
+    @Test
+    void testSessionPublishesOnlyAfterRead() throws InterruptedException {
+        try (SessionHost host = new SessionHost(1, 1, 16, 4)) {
+            TetrisModel model = new TetrisModel();
+            model.startGame(4);
+            GameSession session = host.open(model, 100);
+            session.setAutoRestart(true);
+            session.setPublishing(true);
+            awaitTicks(session, 10);
+            assertEquals(1L, session.getSnapshot().getSequence()); //nobody read it, so no more copies were made
+            long read = session.getTicks();
+            awaitTicks(session, read + 10);
+            long sequence = session.getSnapshot().getSequence();
+            assertTrue(sequence > read && sequence <= read + 2, "Error: snapshot " + sequence + " wasn't the one after tick " + read);
+        }
+    }
+
+    /**
+     * Wait, for up to five seconds, until a hosted session has run a number of ticks
+     */
+    private static void awaitTicks(GameSession session, long ticks) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (session.getTicks() < ticks) {
+            assertTrue(System.nanoTime() < deadline, "Error: the session stopped ticking at " + session.getTicks());
+            Thread.sleep(1);
+        }
+    }
+
+    //Snapshot tests
+    @Test
+    void testSnapshotRestore() {
+        TetrisModel.MoveType[] moves = {TetrisModel.MoveType.LEFT, TetrisModel.MoveType.DOWN,
+                TetrisModel.MoveType.ROTATE, TetrisModel.MoveType.DOWN, TetrisModel.MoveType.DROP,
+                TetrisModel.MoveType.DOWN, TetrisModel.MoveType.RIGHT, TetrisModel.MoveType.DOWN};
+        TetrisModel model = new TetrisModel();
+        model.startGame(42);
+        for (int i = 0; i < 40; i++) model.modelTick(moves[i % moves.length]);
+
+        int[] buffer = new int[model.snapshotSize()];
+        model.snapshot(buffer);
+        for (int i = 0; i < 60; i++) model.modelTick(moves[i % moves.length]);
+        String board = model.getBoard().toString();
+        int score = model.getScore();
+        int count = model.getCount();
+
+        TetrisModel copy = new TetrisModel();
+        copy.restore(buffer);
+        for (int i = 0; i < 60; i++) copy.modelTick(moves[i % moves.length]);
+        assertEquals(board, copy.getBoard().toString(), "Error when restoring a snapshot");
+        assertEquals(score, copy.getScore());
+        assertEquals(count, copy.getCount());
+    }
+
+    //Versus tests
+    @Test
+    void testInsertRows() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece pieceA = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        board.placePiece(pieceA, 0,0); board.commit();
+
+        int retval = board.insertRows(3, 4);
+        assertEquals(TetrisBoard.ADD_OK, retval);
+        for (int y = 0; y < 3; y++) {
+            assertEquals(9, board.getRowWidth(y));
+            assertFalse(board.getGrid(4, y), "Error when leaving a hole in garbage");
+        }
+        assertTrue(board.getGrid(0, 3), "Error when pushing blocks up");
+        assertTrue(board.getGrid(1, 4), "Error when pushing blocks up");
+        assertFalse(board.getGrid(0, 5), "Error when pushing blocks up");
+        assertEquals(5, board.getColumnHeight(0));
+        assertEquals(0, board.getColumnHeight(4));
+        assertEquals(3, board.getColumnHeight(9));
+        assertEquals(TetrisBoard.ADD_OUT_BOUNDS, board.insertRows(20, 4));
+    }
+
+    @Test
+    void testVersusGarbageThatEndsTheGameIsCommitted() {
+        VersusModel player = new VersusModel();
+        player.startGame(3);
+        int height = player.getBoard().getHeight();
+        player.receiveGarbage(height - 2, 0);
+        for (int i = 0; i < 200 && player.isGameOn(); i++) {
+            player.modelTick(TetrisModel.MoveType.DROP);
+            player.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        assertFalse(player.isGameOn(), "Error: the garbage should have ended the game");
+        TetrisBoard board = player.getBoard();
+        String after = board.toString();
+        board.undo();
+        assertEquals(after, board.toString(), "Error: the garbage was left out of the board's backup");
+        assertFalse(board.getGrid(0, 0), "Error: the garbage was lost");
+        assertEquals(board.getWidth() - 1, board.getRowWidth(0));
+    }
+
+    @Test
+    void testVersusNewGameDropsPendingGarbage() {
+        VersusModel player = new VersusModel();
+        player.startGame(3);
+        player.receiveGarbage(4, 2);
+        player.newGame();
+        for (int i = 0; i < 200 && player.getCount() < 2; i++) {
+            player.modelTick(TetrisModel.MoveType.DROP);
+            player.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        assertTrue(player.getCount() >= 2, "Error when playing the first piece");
+        for (int y = 0; y < 4; y++) {
+            assertFalse(player.getBoard().getRowWidth(y) == player.getBoard().getWidth() - 1
+                    && !player.getBoard().getGrid(2, y), "Error: old garbage landed on the new game");
+        }
+    }
+
+    @Test
+    void testVersusMatchIsDeterministic() {
+        VersusMatch first = new VersusMatch(7, new AutoPilot(1), new AutoPilot(2), new AutoPilot(3));
+        VersusMatch second = new VersusMatch(7, new AutoPilot(1), new AutoPilot(2), new AutoPilot(3));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        int winner = first.play();
+        assertEquals(winner, second.play(executor));
+        executor.shutdown();
+        assertEquals(first.getRounds(), second.getRounds());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(first.getPlayer(i).getScore(), second.getPlayer(i).getScore());
+            assertEquals(first.getPlayer(i).getBoard().toString(), second.getPlayer(i).getBoard().toString());
+        }
+    }
+
+    //Save format tests
+    @Test
+    void testSaveFormatRoundTrip() throws IOException {
+        TetrisModel model = new TetrisModel();
+        model.startGame(11);
+        for (int i = 0; i < 50; i++) {
+            model.modelTick(i % 3 == 0 ? TetrisModel.MoveType.LEFT : TetrisModel.MoveType.DOWN);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SaveFormat.encodedSize(model));
+        SaveFormat.encode(model, buffer);
+        assertEquals(67, buffer.position());
+        buffer.flip();
+
+        TetrisModel loaded = SaveFormat.decode(buffer.duplicate());
+        assertEquals(model.getBoard().toString(), loaded.getBoard().toString(), "Error when loading a save");
+        assertEquals(model.getScore(), loaded.getScore());
+        assertEquals(model.getCount(), loaded.getCount());
+        for (int i = 0; i < 50; i++) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+            loaded.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        assertEquals(model.getBoard().toString(), loaded.getBoard().toString(), "Error when playing on from a save");
+
+        buffer.put(40, (byte) (buffer.get(40) ^ 1));
+        assertThrows(IOException.class, () -> SaveFormat.decode(buffer));
+    }
+
+    //a game saved with Java serialization by the original version: three pieces played, the fourth in play
+    private static final String ORIGINAL_SAVE =
+            "H4sIAAAAAAACA8VXTUwTQRR+M9tWKFRQIGA0QQ8awFgSY0wMB4MYsVh+AkagGxKXdkMXt92y3dJy0Bi8mqgX/y7owZsHox6MF+9y" +
+            "NR48mngxMdF49eDMbHfp7C7bBUQmme3Mmzfv53tv3nRe/oBwUYcDOS0jq/GrsqErxVE6Hvt8eWpq7cMwhv0piEklQ5tQVM2gawkI" +
+            "p7VS3khAQ7qk63LemNkYzqYgsiDl5PF8AkJ5uTxj/sySTcW0pstJCM9rkp4xoC3JlPabSi9Q4kASmqtyJhQ5LTuZGJEwNRCJbLwE" +
+            "twCLECnQSdGAdtGTP1ygtrulESJZjehSPqPlDDiYXJSWpf6Soaj9k4w2UCkAaQLpIdLbkDWgRCduzIXO22vPXt25O42hMQWNaS2X" +
+            "UwxDziQgkpWVhSwBLVxWMkZWhJZ5KX2jVBjS1CGKJrEeiwkRoiZ5WCdcIIhiyuac1MomJ/W6QaTSVZ6gOziiBjOMyqKURtObLtKj" +
+            "JZ2qG31//cTy99cvMABbi4LZqJ/Y0aF2TLZT29LdncfWnx7psPczsanpe0fPtb+b+2qRu2CTVqJmtVAOVJ8D1eMAtHMZAbTAnmtp" +
+            "qnJEqn1Xmq3JKyk6avpGUuyWbah6BnnbYizhthKXPcsxtEUOLwzQf8sxZ2FjZTR2eDX2fPHbJQxhj2IWmtcyK+76qyl5Y0CEJlUr" +
+            "k/I8e01SzdKUpJdCxWDlm1UImj8CKR6WgHitgO6e40+aK5/fWOUk5DKQsvWeT30a/6L+woATgCqkr9iigak9VZ0he4a4GYPZTmLB" +
+            "Wrf391SpmPGcZJbUSsKcJH7Ga9k4Kpjj7rGhcGvwkMJp530Ezg/gdvj54ScXubDDLj+AEvrYxyOc7D7uXco8WBrpG7LCuc82KmQH" +
+            "wM8oNxA81IJtFB86dnl7SBfc4G0CAB+6kPPc0IWRLSLs5wzyzBSomyl1XeBPwzYzBblsRT46+UzBgfwAn7OKfc6UUFNTESXO0M9g" +
+            "IH3Bcn9z3FAg3MCvAvnghqw0M3YEXr1ygbZZLurpdJcLFp5VzpntqHHg6V2V7v/jBIAdHJxgCYC8EyBQAUCBjybyjD0KFHscKPbe" +
+            "Vx6L/SNyl7eYd8Sg9cgc/Phn/e1vfIhdEGS9lT7L4vRZFjefZWdPPzxz5Wd0SgAhBe1ZaVkeI/8maB+WSsWiIuUvQmveQRohpsty" +
+            "xnwDVdvNxyNz2UrlL8w3orkGDwAA";
+
+    @Test
+    void testLoadOriginalSave() throws IOException {
+        Path file = Files.createTempFile("tetris", ".ser");
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(ORIGINAL_SAVE)))) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        TetrisModel model = TetrisModel.loadModel(file.toFile());
+        assertEquals(3, model.getCount());
+        assertEquals(3, model.getScore());
+        assertTrue(model.isGameOn());
+
+        for (int i = 0; i < 3; i++) {
+            model.modelTick(TetrisModel.MoveType.DROP);
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        //as the original version plays on from the same save, pieces included
+        assertEquals(6, model.getCount());
+        assertEquals(
+                "|     +    |\n" +
+                "|     +    |\n" +
+                "|    ++    |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|          |\n" +
+                "|   ++     |\n" +
+                "|    ++    |\n" +
+                "|    +     |\n" +
+                "|   +++    |\n" +
+                "|    +++   |\n" +
+                "|  +++++++ |\n" +
+                "| ++ ++ ++ |\n" +
+                "------------", model.getBoard().toString());
+
+        Files.write(file, new byte[] {(byte) 0xAC, (byte) 0xED, 0, 5, 0x74, 0, 1, 0x78}); //a serialized String
+        assertThrows(IOException.class, () -> TetrisModel.loadModel(file.toFile()));
+    }
+
+    //Save catalog tests
+    @Test
+    void testSaveCatalogListing() throws IOException {
+        Path dir = Files.createTempDirectory("tetris");
+        SaveCatalog catalog = new SaveCatalog(dir);
+        Files.createFile(dir.resolve("a.ser")); //only saves that are still there are listed
+        Files.createFile(dir.resolve("b.ser"));
+        TetrisModel model = new TetrisModel();
+        model.startGame(3);
+        catalog.append(model, "a.ser", 100);
+        catalog.append(model, "b.ser", 200);
+        for (int i = 0; i < 30; i++) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        catalog.append(model, "a.ser", 300); //saved again, replaces the first record
+
+        SaveCatalog.Page page = catalog.list(null, SaveCatalog.NEWEST_FIRST, 0, 10);
+        assertEquals(2, page.getTotal());
+        assertEquals("a.ser", page.getEntries().get(0).getName());
+        assertEquals(model.getCount(), page.getEntries().get(0).getCount());
+        assertEquals(1, catalog.list(entry -> entry.getName().startsWith("b"), SaveCatalog.BY_NAME, 0, 10).getTotal());
+        assertEquals(2, catalog.list(null, SaveCatalog.BY_NAME, 0, 1).getPageCount());
+
+        try (FileChannel channel = FileChannel.open(catalog.getFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), SaveCatalog.HEADER_SIZE + 2L * SaveCatalog.RECORD_SIZE + 70);
+        }
+        page = catalog.list(null, SaveCatalog.NEWEST_FIRST, 0, 10);
+        assertEquals(100, page.getEntries().get(1).getTimestamp(), "Error when skipping a corrupt record");
+    }
+
+    @Test
+    void testSaveCatalogIndexesExistingSaves() throws IOException {
+        Path dir = Files.createTempDirectory("tetris");
+        TetrisModel model = new TetrisModel();
+        model.startGame(4);
+        for (int i = 0; i < 30; i++) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        model.saveModel(dir.resolve("old.ser").toFile());
+        model.saveModel(dir.resolve("gone.ser").toFile());
+        Files.delete(dir.resolve(SaveCatalog.FILE_NAME)); //as if saved before there was a catalog
+        Files.write(dir.resolve("junk.ser"), new byte[] {1, 2, 3});
+
+        SaveCatalog catalog = new SaveCatalog(dir);
+        SaveCatalog.Page page = catalog.list(null, SaveCatalog.BY_NAME, 0, 10);
+        assertEquals(2, page.getTotal());
+        assertEquals("gone.ser", page.getEntries().get(0).getName());
+        assertEquals(model.getCount(), page.getEntries().get(1).getCount());
+
+        Files.delete(dir.resolve("gone.ser"));
+        page = catalog.list(null, SaveCatalog.BY_NAME, 0, 10);
+        assertEquals(1, page.getTotal(), "Error: a deleted save was still listed");
+        assertEquals("old.ser", page.getEntries().get(0).getName());
+    }
+
+    @Test
+    void testSaveCatalogIndexesExistingSavesAfterASave() throws IOException {
+        Path dir = Files.createTempDirectory("tetris");
+        TetrisModel model = new TetrisModel();
+        model.startGame(4);
+        model.saveModel(dir.resolve("old.ser").toFile());
+        model.saveModel(dir.resolve("older.ser").toFile());
+        Files.delete(dir.resolve(SaveCatalog.FILE_NAME)); //as if saved before there was a catalog
+
+        model.saveModel(dir.resolve("new.ser").toFile()); //saved before the saves are ever listed
+        SaveCatalog.Page page = new SaveCatalog(dir).list(null, SaveCatalog.BY_NAME, 0, 10);
+        assertEquals(3, page.getTotal(), "Error: the saves from before the catalog weren't listed");
+        assertEquals("new.ser", page.getEntries().get(0).getName());
+        assertEquals("older.ser", page.getEntries().get(2).getName());
+
+        long size = Files.size(dir.resolve(SaveCatalog.FILE_NAME));
+        assertEquals(3, new SaveCatalog(dir).list(null, SaveCatalog.BY_NAME, 0, 10).getTotal());
+        assertEquals(size, Files.size(dir.resolve(SaveCatalog.FILE_NAME)), "Error: the saves were indexed twice");
+    }
+
+    @Test
+    void testSaveCatalogAppendsFromManyThreads() throws Exception {
+        Path dir = Files.createTempDirectory("tetris");
+        TetrisModel model = new TetrisModel();
+        model.startGame(4);
+        int threads = 8, saves = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> appends = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            appends.add(executor.submit(() -> {
+                for (int i = 0; i < saves; i++) {
+                    String name = thread + "-" + i + ".ser";
+                    Files.createFile(dir.resolve(name));
+                    new SaveCatalog(dir).append(SaveCatalog.record(model, name, i)); //a new catalog per save, as SaveWriter does
+                }
+                return null;
+            }));
+        }
+        for (Future<?> append : appends) {
+            append.get();
+        }
+        executor.shutdown();
+        assertEquals(SaveCatalog.HEADER_SIZE + (long) threads * saves * SaveCatalog.RECORD_SIZE,
+                Files.size(dir.resolve(SaveCatalog.FILE_NAME)));
+        assertEquals(threads * saves, new SaveCatalog(dir).list(null, SaveCatalog.BY_NAME, 0, 10).getTotal());
+    }
+
+    @Test
+    void testSaveCatalogRejectsLongNames() {
+        TetrisModel model = new TetrisModel();
+        model.startGame(4);
+        String name = "\u00e9".repeat(30) + ".ser"; //two bytes a character in UTF-8
+        assertFalse(SaveCatalog.isValidName(name));
+        assertTrue(SaveCatalog.isValidName("\u00e9".repeat(29) + ".ser"));
+        assertThrows(IllegalArgumentException.class, () -> SaveCatalog.record(model, name, 0));
+    }
+
+    @Test
+    void testSaveWriterReplacesAtomically() throws IOException {
+        Path dir = Files.createTempDirectory("tetris");
+        File file = dir.resolve("game.ser").toFile();
+        TetrisModel model = new TetrisModel();
+        model.startGame(5);
+        model.saveModel(file); //an older save to replace
+        for (int i = 0; i < 40; i++) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        }
+
+        SaveWriter writer = new SaveWriter();
+        AtomicReference<String> result = new AtomicReference<>();
+        writer.save(model, file, new SaveWriter.Listener() {
+            @Override
+            public void saved(File saved) {
+                result.set("saved");
+            }
+
+            @Override
+            public void failed(File saved, IOException e) {
+                result.set("failed");
+            }
+        });
+        assertTrue(writer.shutdown(5000));
+        assertEquals("saved", result.get());
+        assertFalse(new File(file.getPath() + SaveWriter.TEMP_SUFFIX).exists());
+        assertEquals(model.getBoard().toString(), TetrisModel.loadModel(file).getBoard().toString());
+        assertEquals(model.getCount(), new SaveCatalog(dir).list(null, SaveCatalog.NEWEST_FIRST, 0, 10)
+                .getEntries().get(0).getCount());
+    }
+
+    //Replay tests
+    @Test
+    void testReplaySeek() throws IOException {
+        Path file = Files.createTempFile("tetris", ".replay");
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(4));
+        model.setAutoPilotMode();
+        model.startGame(4);
+        long[] ticks = {0, 1, 2500, ReplayWriter.KEYFRAME_INTERVAL, 9000, 12000};
+        String[] boards = new String[ticks.length];
+        int[] scores = new int[ticks.length];
+        try (ReplayWriter writer = new ReplayWriter(file)) {
+            model.setReplayWriter(writer);
+            for (long t = 0, i = 0; t <= ticks[ticks.length - 1]; t++) {
+                if (!model.isGameOn()) model.newGame(); //a discontinuity the replay must keyframe
+                if (t == ticks[(int) i]) {
+                    boards[(int) i] = model.getBoard().toString();
+                    scores[(int) i++] = model.getScore();
+                }
+                model.modelTick(TetrisModel.MoveType.DOWN);
+            }
+        }
+
+        try (ReplayReader reader = new ReplayReader(file)) {
+            assertEquals(ticks[ticks.length - 1] + 1, reader.getTicks());
+            assertTrue(reader.getBlocks() > 2);
+            for (int i = ticks.length - 1; i >= 0; i--) {
+                TetrisModel replayed = reader.seek(ticks[i]);
+                assertEquals(boards[i], replayed.getBoard().toString(), "Error when seeking to tick " + ticks[i]);
+                assertEquals(scores[i], replayed.getScore());
+            }
+            int[] placements = new int[1];
+            reader.forEachPlacement((tick, pieceId, x, y) -> placements[0]++);
+            assertTrue(placements[0] > 0);
+        }
+    }
+
+    //Dataset tests
+    @Test
+    void testDatasetExport() throws IOException {
+        Path file = Files.createTempFile("tetris", ".dataset");
+        TetrisModel plain = new TetrisModel();
+        TetrisModel exported = new TetrisModel();
+        plain.setPilot(new AutoPilot(8));
+        exported.setPilot(new AutoPilot(8));
+        plain.setAutoPilotMode();
+        exported.setAutoPilotMode();
+        plain.startGame(8);
+        exported.startGame(8);
+        try (DatasetWriter writer = new DatasetWriter(file)) {
+            exported.setPlacementListener(writer);
+            while (exported.isGameOn()) {
+                plain.modelTick(TetrisModel.MoveType.DOWN);
+                exported.modelTick(TetrisModel.MoveType.DOWN);
+            }
+            assertEquals(plain.getBoard().toString(), exported.getBoard().toString(), "Error: exporting changed the game");
+        }
+
+        try (DatasetReader reader = new DatasetReader(file)) {
+            assertTrue(reader.getRows() > 0);
+            DatasetReader.Chunk chunk = reader.getChunk(0);
+            for (int row = 0; row < chunk.getRows(); row++) {
+                int first = chunk.get(DatasetWriter.FIRST_CANDIDATE, row);
+                int chosen = chunk.get(DatasetWriter.CHOSEN, row);
+                assertTrue(chunk.get(DatasetWriter.CANDIDATES, row) > 0);
+                if (chosen >= 0) {
+                    assertEquals(chunk.get(DatasetWriter.X, row), chunk.getCandidate(DatasetWriter.CANDIDATE_X, first + chosen));
+                    assertEquals(chunk.get(DatasetWriter.Y, row), chunk.getCandidate(DatasetWriter.CANDIDATE_Y, first + chosen));
+                }
+            }
+        }
+    }
+
+    //Checkpoint tests
+    @Test
+    void testCheckpointRecovery() throws IOException {
+        Path file = Files.createTempDirectory("tetris").resolve("autosave.ckpt");
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(6));
+        model.setAutoPilotMode();
+        model.startGame(6);
+        String saved = null;
+        int savedScore = 0;
+        try (CheckpointLog log = new CheckpointLog(file)) {
+            for (int i = 0; i < CheckpointLog.COMPACT_EVERY + 100; i++) { //long enough to compact once
+                if (!model.isGameOn()) model.newGame();
+                model.modelTick(TetrisModel.MoveType.DOWN);
+                if (log.checkpoint(model)) {
+                    saved = model.getBoard().toString();
+                    savedScore = model.getScore();
+                }
+            }
+        }
+        TetrisModel recovered = CheckpointLog.recover(file);
+        assertEquals(saved, recovered.getBoard().toString(), "Error when recovering from checkpoints");
+        assertEquals(savedScore, recovered.getScore());
+        assertTrue(recovered.getAutoPilotMode());
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {2, 0, 0}), channel.size()); //the start of a torn record
+        }
+        assertEquals(saved, CheckpointLog.recover(file).getBoard().toString(), "Error when skipping a torn checkpoint");
+    }
+
+    @Test
+    void testLastCheckpointWaitsForTheWriter() throws IOException {
+        Path file = Files.createTempDirectory("tetris").resolve("autosave.ckpt");
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(9));
+        model.setAutoPilotMode();
+        model.startGame(9);
+        try (CheckpointLog log = new CheckpointLog(file)) {
+            for (int i = 0; i < 200; i++) { //faster than the writer can keep up with
+                if (!model.isGameOn()) model.newGame();
+                model.modelTick(TetrisModel.MoveType.DOWN);
+                log.checkpoint(model);
+            }
+            assertTrue(log.awaitCheckpoint(model), "Error when waiting for the checkpoint writer");
+        }
+        TetrisModel recovered = CheckpointLog.recover(file);
+        assertEquals(model.getBoard().toString(), recovered.getBoard().toString(), "Error: the last checkpoint was lost");
+        assertEquals(model.getScore(), recovered.getScore());
+    }
+
+    @Test
+    void testRowVersionsTrackChanges() {
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(12));
+        model.setAutoPilotMode();
+        model.startGame(12);
+        TetrisBoard board = model.getBoard();
+        boolean[][] before = new boolean[board.getHeight()][board.getWidth()];
+        for (int tick = 0; tick < 3000; tick++) {
+            if (!model.isGameOn()) model.newGame();
+            long version = board.getVersion();
+            for (int y = 0; y < board.getHeight(); y++) {
+                for (int x = 0; x < board.getWidth(); x++) {
+                    before[y][x] = board.getGrid(x, y);
+                }
+            }
+            model.modelTick(TetrisModel.MoveType.DOWN);
+            for (int y = 0; y < board.getHeight(); y++) {
+                for (int x = 0; x < board.getWidth(); x++) {
+                    if (before[y][x] != board.getGrid(x, y)) {
+                        assertTrue(board.getRowVersion(y) > version, "Error: row " + y + " changed without a new version");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCustomBoardSize() {
+        TetrisModel model = new TetrisModel(64, 100);
+        assertEquals(64.0, model.getWidth());
+        assertEquals(100.0 + TetrisModel.BUFFERZONE, model.getHeight());
+        model.setPilot(new AutoPilot(5));
+        model.setAutoPilotMode();
+        model.startGame(5);
+        for (int tick = 0; tick < 2000 && model.isGameOn(); tick++) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        assertEquals(64, model.getBoard().getWidth());
+        assertTrue(model.getCount() > 0, "Error: no pieces were placed on a wide board");
+    }
+
+    @Test
+    void testTurboRunsManyTicksPerSnapshot() throws InterruptedException {
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(8));
+        model.setAutoPilotMode();
+        model.startGame(8);
+        TetrisSimulation simulation = new TetrisSimulation(model);
+        simulation.setTurbo(TetrisSimulation.UNLIMITED);
+        simulation.start();
+        Thread.sleep(300);
+        simulation.stop();
+        assertTrue(simulation.getTicks() > 100, "Error: turbo ran only " + simulation.getTicks() + " ticks");
+        assertTrue(simulation.getSnapshot().getSequence() < simulation.getTicks(), "Error: a snapshot was published for every tick");
+        assertEquals(model.getCount(), simulation.getSnapshot().getCount());
+    }
+
+    @Test
+    void testStopRunsQueuedCommands() {
+        for (int run = 0; run < 50; run++) {
+            TetrisModel model = new TetrisModel();
+            model.startGame(run);
+            TetrisSimulation simulation = new TetrisSimulation(model);
+            simulation.start();
+            int[] ran = {0};
+            simulation.execute(m -> ran[0]++); //e.g. a save sent as the window closes
+            simulation.stop();
+            assertEquals(1, ran[0], "Error: a command sent before stop() never ran");
+        }
+    }
+
+    @Test
+    void testLatencyRecorderSwapsWithoutLosingValues() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v * 1000);
+        }
+        long p50 = histogram.getValueAtPercentile(50);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.04, "Error: p50 was " + p50);
+        assertTrue(p99 >= 990_000 && p99 <= 990_000 * 1.04, "Error: p99 was " + p99);
+        assertEquals(1_000_000L, histogram.getMax());
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        int threads = 4, values = 200_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < values; i++) {
+                    recorder.record(i % 5000);
+                }
+            });
+        }
+        pool.shutdown();
+        long total = 0;
+        LatencyHistogram interval = new LatencyHistogram();
+        while (!pool.isTerminated()) {
+            recorder.swap(interval);
+            total += interval.getCount();
+        }
+        recorder.swap(interval);
+        total += interval.getCount();
+        assertEquals((long) threads * values, total);
+    }
+
+    @Test
+    void testMetricsCountGames() {
+        MetricsRegistry.Snapshot before = GameMetrics.REGISTRY.snapshot();
+        GameMetrics.setTiming(true);
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(11));
+        model.setAutoPilotMode();
+        model.startGame(11);
+        int ticks = 0;
+        while (model.isGameOn() && ticks < 100_000) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+            ticks++;
+        }
+        GameMetrics.setTiming(false);
+        MetricsRegistry.Snapshot after = GameMetrics.REGISTRY.snapshot();
+
+        assertEquals((long) ticks, after.getCounter("tetris_ticks_total") - before.getCounter("tetris_ticks_total"));
+        assertEquals(1L, after.getCounter("tetris_game_overs_total") - before.getCounter("tetris_game_overs_total"));
+        long pieces = after.getCounter("tetris_pieces_total") - before.getCounter("tetris_pieces_total");
+        assertTrue(pieces > 0 && Math.abs(pieces - model.getCount()) <= 1, "Error: counted " + pieces + " pieces");
+        long decisions = after.getTimer("tetris_pilot_decision_nanos").getCount() - before.getTimer("tetris_pilot_decision_nanos").getCount();
+        assertTrue(decisions == ticks || decisions == ticks - 1, "Error: timed " + decisions + " decisions in " + ticks + " ticks"); //none after the game ends
+        assertTrue(after.toText().contains("tetris_clears_total{rows=\"1\"}"), "Error: clears by size missing from the text");
+
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Timer timer = registry.timer("t");
+        for (long v = 1; v <= 1000; v++) {
+            timer.record(v);
+        }
+        MetricsRegistry.TimerSnapshot snapshot = registry.snapshot().getTimer("t");
+        assertEquals(1000L, snapshot.getCount());
+        assertEquals(503L, snapshot.getValueAtPercentile(50)); //500 is in the bucket 496-503
+        assertEquals(500500L, snapshot.getSum());
+        assertEquals(1000L, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    void testProbesAndMetricsShareOneTiming() {
+        LatencyHistogram probed = new LatencyHistogram();
+        PerformanceProbes.BEST_MOVE.swap(probed); //forget anything recorded before
+        MetricsRegistry.TimerSnapshot before = GameMetrics.REGISTRY.snapshot().getTimer("tetris_pilot_decision_nanos");
+        PerformanceProbes.setEnabled(true);
+        GameMetrics.setTiming(true);
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(13));
+        model.setAutoPilotMode();
+        model.startGame(13);
+        for (int i = 0; i < 200 && model.isGameOn(); i++) {
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        GameMetrics.setTiming(false);
+        PerformanceProbes.setEnabled(false);
+        MetricsRegistry.Snapshot after = GameMetrics.REGISTRY.snapshot();
+        PerformanceProbes.BEST_MOVE.swap(probed);
+
+        MetricsRegistry.TimerSnapshot timed = after.getTimer("tetris_pilot_decision_nanos");
+        assertTrue(probed.getCount() > 0, "Error: nothing was probed");
+        assertEquals(probed.getCount(), timed.getCount() - before.getCount());
+        assertEquals(probed.getSum(), timed.getSum() - before.getSum(), "Error: the probe and the metric timed the pilot separately");
+        String text = after.toText();
+        assertTrue(text.contains("tetris_pilot_decision_nanos_bucket{le=\"+Inf\"} " + timed.getCount()), "Error: histogram total missing from the text");
+        assertFalse(text.contains("tetris_pilot_decision_nanos_bucket{le=\"1000\"}"), "Error: buckets should end at powers of two");
+    }
+
+    @Test
+    void testFlightEventsRecordTheGameLoop() throws IOException {
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(12));
+        model.setAutoPilotMode();
+        model.startGame(12);
+        Path file = Files.createTempFile("tetris", ".jfr");
+        int ticks = 0;
+        try (Recording recording = new Recording()) {
+            recording.enable("tetris.ModelTick");
+            recording.enable("tetris.PilotDecision");
+            recording.start();
+            while (model.isGameOn() && ticks < 500) {
+                model.modelTick(TetrisModel.MoveType.DOWN);
+                ticks++;
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        int tickEvents = 0, decisions = 0, spawned = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            switch (event.getEventType().getName()) {
+                case "tetris.ModelTick": tickEvents++; break;
+                case "tetris.PilotDecision":
+                    decisions++;
+                    assertEquals(0, event.getInt("searchDepth")); //AutoPilot doesn't search
+                    break;
+                case "tetris.PieceSpawned": spawned++; break; //not enabled
+                default: break;
+            }
+        }
+        Files.delete(file);
+        assertEquals(ticks, tickEvents);
+        assertTrue(decisions >= ticks - 1, "Error: only " + decisions + " pilot decisions recorded");
+        assertEquals(0, spawned);
+    }
+
+    @Test
+    void testHotPathsStayWithinAllocationBudgets() {
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        int[] next = {0};
+
+        TetrisBoard board = new TetrisBoard(TetrisModel.WIDTH, TetrisModel.HEIGHT + TetrisModel.BUFFERZONE);
+        assertAllocationBudget("placePiece/undo", 0, () -> {
+            TetrisPiece piece = pieces[next[0]++ % pieces.length];
+            board.placePiece(piece, 3, board.placementHeight(piece, 3));
+            board.undo();
+        });
+        assertAllocationBudget("getMaxHeight", 0, board::getMaxHeight);
+
+        TetrisBoard full = new TetrisBoard(TetrisModel.WIDTH, TetrisModel.HEIGHT + TetrisModel.BUFFERZONE);
+        full.insertRows(2, 4);
+        full.insertRows(2, -1); //two full rows under two with holes
+        full.commit();
+        assertEquals(2, full.clearRows());
+        full.undo();
+        assertAllocationBudget("clearRows/undo", 0, () -> {
+            full.clearRows();
+            full.undo();
+        });
+
+        AutoPilot pilot = new AutoPilot(13);
+        assertAllocationBudget("bestMove", 0, () -> pilot.bestMove(board, pieces[0], 3, 10));
+
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(13));
+        model.setAutoPilotMode();
+        model.startGame(13);
+        int[] start = new int[model.snapshotSize()];
+        model.snapshot(start);
+        assertAllocationBudget("modelTick", 0, () -> {
+            if (!model.isGameOn()) model.restore(start); //newGame() would make a new generator
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        });
+    }
+
+    /**
+     * Fail if an operation allocates more than a budget per call, once warmed up. It is run
+     * in rounds, and every round after the warm-up must be within the budget. The warm-up is
+     * long enough for the JIT to finish swapping in compiled code, which allocates as it does.
+     *
+     * @param name what is being measured, for the message
+     * @param budget most bytes per call allowed
+     * @param operation one call of the path
+     */
+    private static void assertAllocationBudget(String name, double budget, Runnable operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "Error: allocations can't be measured on this JVM");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        int calls = 100_000;
+        int warmups = 10; //rounds run before measuring, so the JIT is done compiling (and scalar-replacing) the operation
+        double worst = 0;
+        for (int round = 0; round < warmups + 4; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < calls; i++) {
+                operation.run();
+            }
+            double perCall = (threads.getCurrentThreadAllocatedBytes() - before) / (double) calls;
+            if (round >= warmups) worst = Math.max(worst, perCall);
+        }
+        assertTrue(worst <= budget, "Error: " + name + " allocated " + worst + " bytes per call, over its budget of " + budget);
+    }
+
+    @Test
+    void testPerftCountsLocks() throws InterruptedException {
+        TetrisBoard board = new TetrisBoard(TetrisModel.WIDTH, TetrisModel.HEIGHT + TetrisModel.BUFFERZONE);
+        Perft perft = new Perft(board);
+        //on an empty board every rotation locks on the floor in every column it fits
+        long[] expected = {17, 34, 34, 17, 17, 9, 34};
+        for (int shape = 0; shape < Perft.shapes(); shape++) {
+            assertEquals(expected[shape], perft.perft(new int[]{shape}, 1), "Error: wrong count for " + Perft.shapeName(shape));
+        }
+        int[] sequence = {0, 5, 6};
+        long serial = perft.perft(sequence, 3);
+        assertEquals(serial, Perft.parallelPerft(board, sequence, 3, 3));
+        long divided = 0;
+        for (String line : perft.divide(sequence, 3)) {
+            divided += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertEquals(serial, divided);
+        assertEquals(serial, perft.perft(sequence, 3)); //the board was put back
+    }
 
 }
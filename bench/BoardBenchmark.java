@@ -0,0 +1,224 @@
+package bench;
+
+import model.TetrisBoard;
+import model.TetrisPiece;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** JMH benchmarks for the TetrisBoard and TetrisPiece operations the game and pilots lean on.
+ *
+ * Boards come from seeded games (see BoardFixtures), FIXTURES per stack height, and each
+ * call takes the next one, so results average over realistic shapes rather than one board.
+ * Operations that change the board are followed by undo(), which is part of the measurement:
+ * placePiece() backs the grid up and undo() copies it back, and one can't be run without the
+ * other. main() runs everything with the GC profiler, so the results include the allocation
+ * rate (gc.alloc.rate.norm is bytes per operation), and writes them as JSON.
+ *
+ * Build with jmh-core and jmh-generator-annprocess (1.37) on the class and processor paths:
+ * <pre>
+ * javac -cp jmh-core.jar -processorpath jmh-generator-annprocess.jar:jmh-core.jar -d out model/*.java bench/*.java
+ * java -cp out:jmh-core.jar:jopt-simple.jar:commons-math3.jar bench.BoardBenchmark [JMH options]
+ * </pre>
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    public static final int FIXTURES = 64; //boards per stack height
+
+    /** Boards with stacks of one height, and a piece and column to drop on each */
+    @State(Scope.Thread)
+    public static class Boards {
+        @Param({"0", "4", "8", "12", "16"})
+        public int stackHeight;
+
+        TetrisBoard[] boards;
+        TetrisPiece[] pieces; //every rotation of every piece
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            boards = load(stackHeight, 0);
+            pieces = allRotations();
+        }
+
+        /**
+         * The next board to work on
+         */
+        TetrisBoard board() {
+            next++;
+            return boards[next % boards.length];
+        }
+
+        /**
+         * The piece to drop on the board last returned by board()
+         */
+        TetrisPiece piece() {
+            return pieces[next % pieces.length];
+        }
+    }
+
+    /** Boards with full rows at the bottom for clearRows() to remove */
+    @State(Scope.Thread)
+    public static class FullRows {
+        @Param({"0", "4", "8", "12", "16"})
+        public int stackHeight; //height of the stack above the full rows
+
+        @Param({"0", "1", "2", "3", "4"})
+        public int rows;
+
+        TetrisBoard[] boards;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            boards = load(stackHeight, rows);
+        }
+
+        TetrisBoard board() {
+            next++;
+            return boards[next % boards.length];
+        }
+    }
+
+    /** One piece, by name */
+    @State(Scope.Thread)
+    public static class Pieces {
+        @Param({"STICK", "L1", "L2", "S1", "S2", "SQUARE", "PYRAMID"})
+        public String piece;
+
+        String points;
+        TetrisPiece root;
+
+        @Setup(Level.Trial)
+        public void setUp() throws ReflectiveOperationException {
+            points = (String) TetrisPiece.class.getField(piece + "_STR").get(null);
+            root = new TetrisPiece(points);
+        }
+    }
+
+    @Benchmark
+    public int placePieceAndUndo(Boards state) {
+        TetrisBoard board = state.board();
+        TetrisPiece piece = state.piece();
+        int x = state.next % (board.getWidth() - piece.getWidth() + 1);
+        int result = board.placePiece(piece, x, board.placementHeight(piece, x));
+        board.undo();
+        return result;
+    }
+
+    @Benchmark
+    public int clearRowsAndUndo(FullRows state) {
+        TetrisBoard board = state.board();
+        int cleared = board.clearRows();
+        board.undo();
+        return cleared;
+    }
+
+    @Benchmark
+    public int placementHeight(Boards state) {
+        TetrisBoard board = state.board();
+        TetrisPiece piece = state.piece();
+        int sum = 0;
+        for (int x = 0; x + piece.getWidth() <= board.getWidth(); x++) {
+            sum += board.placementHeight(piece, x);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int getMaxHeight(Boards state) {
+        return state.board().getMaxHeight();
+    }
+
+    @Benchmark
+    public TetrisPiece newPiece(Pieces state) {
+        return new TetrisPiece(state.points);
+    }
+
+    @Benchmark
+    public TetrisPiece makeFastRotations(Pieces state) {
+        return TetrisPiece.makeFastRotations(state.root);
+    }
+
+    /**
+     * Fixture boards for a stack height, with full rows added under them
+     */
+    static TetrisBoard[] load(int stackHeight, int fullRows) {
+        List<TetrisBoard> found = BoardFixtures.atHeight(stackHeight, FIXTURES, BoardFixtures.SEED);
+        if (found.isEmpty()) throw new IllegalStateException("No boards with a stack of height " + stackHeight);
+        TetrisBoard[] boards = new TetrisBoard[found.size()];
+        for (int i = 0; i < boards.length; i++) {
+            boards[i] = fullRows > 0 ? BoardFixtures.withFullRows(found.get(i), fullRows) : found.get(i);
+        }
+        return boards;
+    }
+
+    /**
+     * Every rotation of every piece
+     */
+    static TetrisPiece[] allRotations() {
+        int n = 0;
+        for (TetrisPiece piece : TetrisPiece.getPieces()) {
+            TetrisPiece rotation = piece;
+            do {
+                n++;
+                rotation = rotation.fastRotation();
+            } while (rotation != piece);
+        }
+        TetrisPiece[] rotations = new TetrisPiece[n];
+        n = 0;
+        for (TetrisPiece piece : TetrisPiece.getPieces()) {
+            TetrisPiece rotation = piece;
+            do {
+                rotations[n++] = rotation;
+                rotation = rotation.fastRotation();
+            } while (rotation != piece);
+        }
+        return rotations;
+    }
+
+    /**
+     * Run the benchmarks with the GC profiler and write the results to board-benchmark.json.
+     * Any JMH command line options are passed on (e.g. a benchmark name to run only that one).
+     *
+     * @param args JMH options
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(BoardBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("board-benchmark.json")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,123 @@
+package bench;
+
+import model.AutoPilot;
+import model.BoardFeatures;
+import model.PlacementListener;
+import model.TetrisBoard;
+import model.TetrisModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Boards for benchmarks, taken from seeded games so they look like boards in real play.
+ *
+ * The same seed always gives the same boards, so runs can be compared with each other.
+ * Boards are handed out as copies, committed, and with tallies worked out from the grid.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public final class BoardFixtures {
+
+    public static final long SEED = 207; //default seed for the games boards are taken from
+    private static final int MAX_TICKS = 1_000_000; //give up looking after this many ticks
+
+    private BoardFixtures() {
+    }
+
+    /**
+     * Boards from seeded computer games whose stacks are a given height: the boards pieces
+     * were dropped onto, taken each time a piece came to rest on a stack of that height
+     *
+     * @param stackHeight height of the tallest column
+     * @param count number of boards wanted
+     * @param seed seed of the first game
+     *
+     * @return the boards; fewer than count if the games never got that many at that height
+     */
+    public static List<TetrisBoard> atHeight(int stackHeight, int count, long seed) {
+        List<TetrisBoard> boards = new ArrayList<>(count);
+        if (stackHeight == 0) { //the empty board is the only one
+            while (boards.size() < count) boards.add(new TetrisBoard(TetrisModel.WIDTH, TetrisModel.HEIGHT + TetrisModel.BUFFERZONE));
+            return boards;
+        }
+        int[] heights = new int[TetrisModel.WIDTH];
+        PlacementListener collector = (model, piece, x, y) -> {
+            TetrisBoard board = model.getBoard();
+            board.undo(); //back to the board before the piece
+            BoardFeatures.columnHeights(board, heights);
+            int max = 0;
+            for (int h : heights) max = Math.max(max, h);
+            if (max == stackHeight && boards.size() < count) boards.add(recount(board));
+            board.placePiece(piece, x, y); //leave the board as we found it
+        };
+        TetrisModel model = newGame(seed);
+        model.setPlacementListener(collector);
+        for (int tick = 0; tick < MAX_TICKS && boards.size() < count; tick++) {
+            if (!model.isGameOn()) {
+                model = newGame(++seed);
+                model.setPlacementListener(collector);
+            }
+            model.modelTick(TetrisModel.MoveType.DOWN);
+        }
+        return boards;
+    }
+
+    /**
+     * A copy of a board with some full rows pushed in under it, so the stack is that much
+     * taller and clearRows() has that many rows to remove
+     *
+     * @param board board to start from
+     * @param fullRows full rows to add at the bottom
+     */
+    public static TetrisBoard withFullRows(TetrisBoard board, int fullRows) {
+        int width = board.getWidth();
+        boolean[] cells = new boolean[width * board.getHeight()];
+        for (int y = 0; y < board.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                cells[y * width + x] = y < fullRows || board.getGrid(x, y - fullRows);
+            }
+        }
+        TetrisBoard copy = new TetrisBoard(width, board.getHeight());
+        copy.setCells(cells);
+        return copy;
+    }
+
+    /**
+     * A committed copy of a board, with its backup, so it can be undone as the original could
+     *
+     * @param board board to copy
+     */
+    public static TetrisBoard copy(TetrisBoard board) {
+        int[] state = new int[board.stateSize()];
+        board.writeState(state, 0);
+        TetrisBoard copy = new TetrisBoard(board.getWidth(), board.getHeight());
+        copy.readState(state, 0);
+        return copy;
+    }
+
+    /**
+     * Start a seeded computer game
+     */
+    static TetrisModel newGame(long seed) {
+        TetrisModel model = new TetrisModel();
+        model.setPilot(new AutoPilot(seed));
+        model.setAutoPilotMode();
+        model.startGame(seed);
+        return model;
+    }
+
+    /**
+     * A committed copy of a board with its tallies worked out from the grid
+     */
+    private static TetrisBoard recount(TetrisBoard board) {
+        boolean[] cells = new boolean[board.getWidth() * board.getHeight()];
+        for (int y = 0; y < board.getHeight(); y++) {
+            for (int x = 0; x < board.getWidth(); x++) {
+                cells[y * board.getWidth() + x] = board.getGrid(x, y);
+            }
+        }
+        TetrisBoard copy = new TetrisBoard(board.getWidth(), board.getHeight());
+        copy.setCells(cells);
+        return copy;
+    }
+}
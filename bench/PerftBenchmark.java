@@ -0,0 +1,51 @@
+package bench;
+
+import model.Perft;
+import model.TetrisBoard;
+import model.TetrisModel;
+
+/** Runs Perft on an empty board, depth by depth, and prints the counts and nodes per second.
+ * With "divide", prints the counts under each lock of the first piece at the last depth
+ * instead, for finding where two move generators disagree.
+ *
+ * Usage: java bench.PerftBenchmark [depth] [threads] [pieces] [divide]
+ * where pieces is a comma-separated sequence of shape names, e.g. STICK,L1,SQUARE
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class PerftBenchmark {
+
+    /**
+     * Main method
+     *
+     * @param args depth, threads, piece sequence and "divide", all optional
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String[] names = (args.length > 2 ? args[2] : "STICK,L1,L2,S1,S2,SQUARE,PYRAMID").split(",");
+        boolean divide = args.length > 3 && args[3].equals("divide");
+
+        int[] sequence = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            sequence[i] = Perft.shapeForName(names[i].trim());
+        }
+        TetrisBoard board = new TetrisBoard(TetrisModel.WIDTH, TetrisModel.HEIGHT + TetrisModel.BUFFERZONE);
+
+        if (divide) {
+            long total = 0;
+            for (String line : new Perft(board).divide(sequence, depth)) {
+                System.out.println(line);
+                total += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+            }
+            System.out.println("Total: " + total);
+            return;
+        }
+        for (int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long nodes = Perft.parallelPerft(board, sequence, d, threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("depth %d  nodes %d  %.3fs  %.0f nodes/s%n", d, nodes, seconds, nodes / seconds);
+        }
+    }
+}
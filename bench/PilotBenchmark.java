@@ -0,0 +1,370 @@
+package bench;
+
+import model.BoardFeatures;
+import model.LatencyHistogram;
+import model.TetrisBoard;
+import model.TetrisModel;
+import model.TetrisPiece;
+import model.TetrisPilot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/** Measures what TetrisPilot implementations cost: how long bestMove() takes and how much it
+ * allocates, and how many games a second a pilot plays.
+ *
+ * Decisions are timed over a corpus of positions recorded from seeded games: the board as
+ * the pilot saw it (piece in play, uncommitted), the piece and where it was. Each position is
+ * given to the pilot on a fresh copy of the board, and the call is timed with System.nanoTime()
+ * and its allocations counted with the thread's allocation counter. Latencies go into
+ * LatencyHistograms, overall and by stack height and piece. Games are then played from fixed
+ * seeds, start to finish, to get games and pieces per second.
+ *
+ * Results are printed, and written as JSON so runs can be compared over time.
+ *
+ * Usage: java bench.PilotBenchmark [out.json] [games] [passes] [pilot class ...]
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class PilotBenchmark {
+
+    public static final int FORMAT_VERSION = 1; //of the JSON written
+    public static final int MAX_POSITIONS = 20_000; //positions in the corpus
+    public static final int BAND = 4; //rows per stack height group
+    public static final int BANDS = 6; //groups; the last takes every taller stack
+    public static final String[] SHAPES = {"STICK", "L1", "L2", "S1", "S2", "SQUARE", "PYRAMID"}; //in TetrisPiece.getPieces() order
+    private static final int MAX_TICKS = 100_000; //longest game played
+
+    private final long seed;
+    private final List<Position> corpus = new ArrayList<>();
+    private final com.sun.management.ThreadMXBean threads;
+
+    /** A decision recorded from a game */
+    static final class Position {
+        final int[] board; //TetrisBoard.writeState() of the board the pilot was given
+        final int width, height;
+        final TetrisPiece piece;
+        final int x, y;
+        final int stackHeight; //without the piece in play
+        final int shape; //index in SHAPES
+
+        Position(int[] board, int width, int height, TetrisPiece piece, int x, int y, int stackHeight, int shape) {
+            this.board = board;
+            this.width = width;
+            this.height = height;
+            this.piece = piece;
+            this.x = x;
+            this.y = y;
+            this.stackHeight = stackHeight;
+            this.shape = shape;
+        }
+    }
+
+    /** Figures for one pilot */
+    public static final class Result {
+        final String pilot;
+        final LatencyHistogram all = new LatencyHistogram();
+        final LatencyHistogram[][] groups = new LatencyHistogram[BANDS][SHAPES.length];
+        final long[][] groupBytes = new long[BANDS][SHAPES.length];
+        long bytes; //allocated by the decisions timed
+        int games;
+        long pieces, ticks, totalScore;
+        double gameSeconds;
+
+        Result(String pilot) {
+            this.pilot = pilot;
+            for (LatencyHistogram[] band : groups) {
+                for (int s = 0; s < SHAPES.length; s++) {
+                    band[s] = new LatencyHistogram();
+                }
+            }
+        }
+
+        /**
+         * Getter for mean bytes allocated per decision
+         */
+        public double getBytesPerDecision() {
+            return all.getCount() == 0 ? 0 : (double) bytes / all.getCount();
+        }
+
+        /**
+         * Getter for games played per second
+         */
+        public double getGamesPerSecond() {
+            return gameSeconds == 0 ? 0 : games / gameSeconds;
+        }
+
+        /**
+         * Getter for the decision latencies, over the whole corpus
+         */
+        public LatencyHistogram getLatencies() {
+            return all;
+        }
+    }
+
+    /**
+     * Constructor. Records the corpus by playing seeded games with the given pilot.
+     *
+     * @param seed seed of the first game
+     * @param recorder pilot to play the corpus games, made from a seed
+     */
+    public PilotBenchmark(long seed, LongFunction<TetrisPilot> recorder) {
+        this.seed = seed;
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (threads.isThreadAllocatedMemorySupported()) threads.setThreadAllocatedMemoryEnabled(true);
+        record(recorder);
+    }
+
+    /**
+     * Getter for number of positions in the corpus
+     */
+    public int getPositions() {
+        return corpus.size();
+    }
+
+    /**
+     * Measure a pilot
+     *
+     * @param name name to report the pilot under
+     * @param pilots makes the pilot from a seed; a new one is made for each game
+     * @param passes times to run through the corpus; the first is a warm-up and isn't counted
+     * @param games games to play, from fixed seeds
+     */
+    public Result run(String name, LongFunction<TetrisPilot> pilots, int passes, int games) {
+        Result result = new Result(name);
+        TetrisPilot pilot = pilots.apply(seed);
+        long overhead = allocationOverhead();
+        for (int pass = 0; pass < Math.max(2, passes); pass++) {
+            boolean counted = pass > 0;
+            for (Position position : corpus) {
+                TetrisBoard board = new TetrisBoard(position.width, position.height);
+                board.readState(position.board, 0);
+
+                long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                pilot.bestMove(board, position.piece, position.x, position.y);
+                long nanos = System.nanoTime() - start;
+                long bytes = Math.max(0, threads.getCurrentThreadAllocatedBytes() - bytesBefore - overhead);
+
+                if (counted) {
+                    int band = Math.min(position.stackHeight / BAND, BANDS - 1);
+                    result.all.record(nanos);
+                    result.groups[band][position.shape].record(nanos);
+                    result.bytes += bytes;
+                    result.groupBytes[band][position.shape] += bytes;
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int g = 0; g < games; g++) {
+            TetrisModel model = newGame(seed + g, pilots);
+            for (int tick = 0; tick < MAX_TICKS && model.isGameOn(); tick++) {
+                model.modelTick(TetrisModel.MoveType.DOWN);
+                result.ticks++;
+            }
+            result.pieces += model.getCount();
+            result.totalScore += model.getScore();
+        }
+        result.gameSeconds = (System.nanoTime() - start) / 1e9;
+        result.games = games;
+        return result;
+    }
+
+    /**
+     * Print a result as a table
+     *
+     * @param result result to print
+     * @param out where to print it
+     */
+    public static void print(Result result, Appendable out) throws IOException {
+        LatencyHistogram all = result.all;
+        out.append(String.format("%s: %d decisions  p50 %dns  p99 %dns  p99.9 %dns  max %dns  %.0f bytes/decision%n",
+                result.pilot, all.getCount(), all.getValueAtPercentile(50), all.getValueAtPercentile(99),
+                all.getValueAtPercentile(99.9), all.getMax(), result.getBytesPerDecision()));
+        out.append(String.format("  %d games in %.2fs: %.1f games/s, %.0f pieces/s, mean score %.1f%n",
+                result.games, result.gameSeconds, result.getGamesPerSecond(),
+                result.gameSeconds == 0 ? 0 : result.pieces / result.gameSeconds,
+                result.games == 0 ? 0 : (double) result.totalScore / result.games));
+        out.append(String.format("  %-8s%-9s%10s%10s%10s%10s%n", "stack", "piece", "decisions", "p50", "p99", "p99.9"));
+        for (int band = 0; band < BANDS; band++) {
+            for (int s = 0; s < SHAPES.length; s++) {
+                LatencyHistogram group = result.groups[band][s];
+                if (group.getCount() == 0) continue;
+                out.append(String.format("  %-8s%-9s%10d%10d%10d%10d%n", bandName(band), SHAPES[s], group.getCount(),
+                        group.getValueAtPercentile(50), group.getValueAtPercentile(99), group.getValueAtPercentile(99.9)));
+            }
+        }
+    }
+
+    /**
+     * Write results as JSON
+     *
+     * @param results results, one per pilot
+     * @param out where to write them
+     */
+    public void writeJson(List<Result> results, Writer out) throws IOException {
+        out.write("{\n");
+        out.write("  \"format\": " + FORMAT_VERSION + ",\n");
+        out.write("  \"timestamp\": \"" + Instant.now() + "\",\n");
+        out.write("  \"java\": \"" + System.getProperty("java.version") + "\",\n");
+        out.write("  \"seed\": " + seed + ",\n");
+        out.write("  \"positions\": " + corpus.size() + ",\n");
+        out.write("  \"pilots\": [");
+        for (int r = 0; r < results.size(); r++) {
+            Result result = results.get(r);
+            out.write(r == 0 ? "\n" : ",\n");
+            out.write("    {\"pilot\": \"" + result.pilot + "\", " + latencyFields(result.all, result.bytes));
+            out.write(String.format(", \"games\": %d, \"gameSeconds\": %.6f, \"gamesPerSecond\": %.3f, \"pieces\": %d, \"ticks\": %d, \"totalScore\": %d,%n",
+                    result.games, result.gameSeconds, result.getGamesPerSecond(), result.pieces, result.ticks, result.totalScore));
+            out.write("     \"groups\": [");
+            boolean first = true;
+            for (int band = 0; band < BANDS; band++) {
+                for (int s = 0; s < SHAPES.length; s++) {
+                    LatencyHistogram group = result.groups[band][s];
+                    if (group.getCount() == 0) continue;
+                    out.write(first ? "\n" : ",\n");
+                    first = false;
+                    out.write("       {\"stack\": \"" + bandName(band) + "\", \"piece\": \"" + SHAPES[s] + "\", "
+                            + latencyFields(group, result.groupBytes[band][s]) + "}");
+                }
+            }
+            out.write("]}");
+        }
+        out.write("\n  ]\n}\n");
+    }
+
+    /**
+     * The JSON fields for a histogram and the bytes allocated in the decisions it holds
+     */
+    private static String latencyFields(LatencyHistogram histogram, long bytes) {
+        long n = histogram.getCount();
+        return String.format("\"decisions\": %d, \"p50Nanos\": %d, \"p99Nanos\": %d, \"p999Nanos\": %d, \"maxNanos\": %d, \"meanNanos\": %.1f, \"bytesPerDecision\": %.1f",
+                n, histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+                histogram.getMax(), histogram.getMean(), n == 0 ? 0.0 : (double) bytes / n);
+    }
+
+    /**
+     * Name of a stack height group, e.g. "4-7"
+     */
+    static String bandName(int band) {
+        return band == BANDS - 1 ? (band * BAND) + "+" : (band * BAND) + "-" + (band * BAND + BAND - 1);
+    }
+
+    /**
+     * Play seeded games, recording every decision the pilot is asked for
+     */
+    private void record(LongFunction<TetrisPilot> recorder) {
+        int[] heights = new int[TetrisModel.WIDTH];
+        for (long game = seed; corpus.size() < MAX_POSITIONS; game++) {
+            TetrisModel model = newGame(game, recorder);
+            TetrisPilot pilot = recorder.apply(game);
+            model.setPilot((board, piece, x, y) -> {
+                if (corpus.size() < MAX_POSITIONS) {
+                    int[] state = new int[board.stateSize()];
+                    board.writeState(state, 0);
+                    TetrisBoard without = new TetrisBoard(board.getWidth(), board.getHeight());
+                    without.readState(state, 0);
+                    without.undo(); //the stack, without the piece in play
+                    BoardFeatures.columnHeights(without, heights);
+                    int stack = 0;
+                    for (int i = 0; i < board.getWidth(); i++) stack = Math.max(stack, heights[i]);
+                    corpus.add(new Position(state, board.getWidth(), board.getHeight(), piece, x, y, stack,
+                            model.pieceId(piece) / TetrisModel.MAX_ROTATIONS));
+                }
+                return pilot.bestMove(board, piece, x, y);
+            });
+            for (int tick = 0; tick < MAX_TICKS && model.isGameOn() && corpus.size() < MAX_POSITIONS; tick++) {
+                model.modelTick(TetrisModel.MoveType.DOWN);
+            }
+        }
+    }
+
+    /**
+     * Start a seeded computer game
+     */
+    private static TetrisModel newGame(long seed, LongFunction<TetrisPilot> pilots) {
+        TetrisModel model = new TetrisModel();
+        model.setPilot(pilots.apply(seed));
+        model.setAutoPilotMode();
+        model.startGame(seed);
+        return model;
+    }
+
+    /**
+     * Bytes the allocation counter itself seems to allocate between two reads
+     */
+    private long allocationOverhead() {
+        long least = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            least = Math.min(least, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        return least;
+    }
+
+    /**
+     * Make pilots of a class from a seed, with its (long) constructor if it has one,
+     * or else its no-argument constructor
+     *
+     * @param className pilot class
+     */
+    static LongFunction<TetrisPilot> pilotFactory(String className) throws ReflectiveOperationException {
+        Class<? extends TetrisPilot> type = Class.forName(className).asSubclass(TetrisPilot.class);
+        try {
+            var seeded = type.getConstructor(long.class);
+            return s -> {
+                try {
+                    return seeded.newInstance(s);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Could not make a " + className, e);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            var plain = type.getConstructor();
+            return s -> {
+                try {
+                    return plain.newInstance();
+                } catch (ReflectiveOperationException ex) {
+                    throw new IllegalStateException("Could not make a " + className, ex);
+                }
+            };
+        }
+    }
+
+    /**
+     * Measure the pilots named on the command line (model.AutoPilot if none)
+     *
+     * @param args output file, games to play, passes over the corpus, then pilot class names
+     */
+    public static void main(String[] args) throws IOException, ReflectiveOperationException {
+        Path out = Paths.get(args.length > 0 ? args[0] : "pilot-benchmark.json");
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        List<String> names = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) names.add(args[i]);
+        if (names.isEmpty()) names.add("model.AutoPilot");
+
+        PilotBenchmark benchmark = new PilotBenchmark(BoardFixtures.SEED, pilotFactory(names.get(0)));
+        System.out.printf("Corpus: %d positions from seed %d%n", benchmark.getPositions(), BoardFixtures.SEED);
+        List<Result> results = new ArrayList<>();
+        for (String name : names) {
+            Result result = benchmark.run(name, pilotFactory(name), passes, games);
+            print(result, System.out);
+            results.add(result);
+        }
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            benchmark.writeJson(results, writer);
+        }
+        System.out.println("Results written to " + out);
+    }
+}
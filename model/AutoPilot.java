@@ -7,6 +7,35 @@ import java.io.Serializable;
  */
 public class AutoPilot implements TetrisPilot, Serializable {
 
+    private static final TetrisModel.MoveType[] MOVES = TetrisModel.MoveType.values(); //values() copies the array each call
+
+    private final GameRandom random; //where the random moves come from
+
+    /**
+     * Constructor for a pilot with an arbitrary seed
+     */
+    public AutoPilot() {
+        this(new GameRandom());
+    }
+
+    /**
+     * Constructor for a pilot that makes the same moves every time it is given the same seed
+     *
+     * @param seed seed for the move generator
+     */
+    public AutoPilot(long seed) {
+        this(new GameRandom(seed));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param random generator to pick moves with
+     */
+    private AutoPilot(GameRandom random) {
+        this.random = random;
+    }
+
     /**
      * Given a piece and a board, return a move object that represents
      * the best move for that piece. Note that if the move returned is
@@ -23,8 +52,8 @@ public class AutoPilot implements TetrisPilot, Serializable {
 
         //The current strategy is to pick a random move from among the options: Left, Right, and Rotate
         //Why not try to improve on this!
-        int index = (int) Math.round(Math.random()*(TetrisModel.MoveType.values().length - 3));
-        return TetrisModel.MoveType.values()[index];
+        int index = (int) Math.round(random.nextDouble()*(MOVES.length - 3));
+        return MOVES[index];
 
     }
 
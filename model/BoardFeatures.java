@@ -0,0 +1,107 @@
+package model;
+
+/** The numbers that describe a board to an evaluator, as used by the DatasetWriter.
+ *
+ * Column heights are worked out from the grid itself, since the board's tallies can be too
+ * high after rows are cleared. The grid is read a row at a time up to the tallest column,
+ * skipping the storage of empty rows. Nothing is allocated after
+ * construction; one instance can be reused for any number of boards of the same width.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class BoardFeatures {
+
+    public static final int MAX_HEIGHT = 0; //height of the tallest column
+    public static final int AGGREGATE_HEIGHT = 1; //sum of the column heights
+    public static final int HOLES = 2; //empty cells with a filled cell somewhere above them
+    public static final int BUMPINESS = 3; //sum of the height differences between neighbouring columns
+    public static final int ROWS_CLEARED = 4; //rows the placement cleared (0 for a board on its own)
+    public static final int WELLS = 5; //sum of the depths of columns lower than both neighbours
+    public static final int ROW_TRANSITIONS = 6; //filled/empty changes along each row, walls counting as filled
+    public static final int COLUMN_TRANSITIONS = 7; //filled/empty changes up each column to its top, the floor counting as filled
+    public static final int COUNT = 8;
+
+    private final int[] heights;
+    private final boolean[] below; //cell below the current row, in each column
+
+    /**
+     * Constructor
+     *
+     * @param width width of the boards to describe
+     */
+    public BoardFeatures(int width) {
+        this.heights = new int[width];
+        this.below = new boolean[width];
+    }
+
+    /**
+     * Work out the height of every column of the board, looking down from the board's tally
+     *
+     * @param board board to measure
+     * @param heights where to put the heights, one per column
+     */
+    public static void columnHeights(TetrisBoard board, int[] heights) {
+        for (int x = 0; x < board.getWidth(); x++) {
+            int y = board.getColumnHeight(x); //never lower than the column
+            while (y > 0) {
+                boolean[] row = board.row(y - 1);
+                if (row != null && row[x]) break;
+                y--;
+            }
+            heights[x] = y;
+        }
+    }
+
+    /**
+     * Describe a board
+     *
+     * @param board board to describe
+     * @param cleared rows cleared by the placement that produced this board, or 0
+     * @param out where to put the COUNT features
+     * @param offset index in out of the first feature
+     */
+    public void compute(TetrisBoard board, int cleared, int[] out, int offset) {
+        int width = board.getWidth();
+        int height = board.getHeight();
+        columnHeights(board, heights);
+
+        int max = 0, aggregate = 0, holes = 0, bumpiness = 0, wells = 0, columnTransitions = 0, rowTransitions = 0;
+        for (int x = 0; x < width; x++) {
+            max = Math.max(max, heights[x]);
+        }
+        for (int x = 0; x < width; x++) {
+            int h = heights[x];
+            aggregate += h;
+            if (x > 0) bumpiness += Math.abs(h - heights[x - 1]);
+            int leftHeight = x > 0 ? heights[x - 1] : height;
+            int rightHeight = x < width - 1 ? heights[x + 1] : height;
+            if (h < leftHeight && h < rightHeight) wells += Math.min(leftHeight, rightHeight) - h;
+            below[x] = true; //the floor
+        }
+        //one pass along each row, up to the tallest column
+        for (int y = 0; y < max; y++) {
+            boolean[] row = board.row(y);
+            boolean left = true; //the left wall
+            for (int x = 0; x < width; x++) {
+                boolean filled = row != null && row[x];
+                if (filled != left) rowTransitions++;
+                left = filled;
+                if (y < heights[x]) {
+                    if (!filled) holes++;
+                    if (filled != below[x]) columnTransitions++;
+                    below[x] = filled;
+                }
+            }
+            if (!left) rowTransitions++; //the right wall
+        }
+
+        out[offset + MAX_HEIGHT] = max;
+        out[offset + AGGREGATE_HEIGHT] = aggregate;
+        out[offset + HOLES] = holes;
+        out[offset + BUMPINESS] = bumpiness;
+        out[offset + ROWS_CLEARED] = cleared;
+        out[offset + WELLS] = wells;
+        out[offset + ROW_TRANSITIONS] = rowTransitions;
+        out[offset + COLUMN_TRANSITIONS] = columnTransitions;
+    }
+}
@@ -0,0 +1,139 @@
+package model;
+
+/** An immutable copy of the visible state of a TetrisModel.
+ * Snapshots are built by the simulation thread and handed to the view,
+ * so nothing in here may change once the constructor has returned.
+ * Only the rows up to the top of the stack are copied; every row above is empty.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public final class BoardSnapshot {
+
+    private final int width; //board width and height, in blocks
+    private final int height;
+    private final int rows; //rows copied: the height of the tallest column
+    private final boolean[] cells; //grid cells of those rows, stored row by row (index = y * width + x)
+    private final int[] columnHeights; //column heights, as reported by the board
+    private final long boardId; //which board this is a copy of
+    private final long[] rowVersions; //version of each row copied (see TetrisBoard.getRowVersion)
+    private final int score;
+    private final int count;
+    private final boolean gameOn;
+    private final long sequence; //increases by one for every snapshot a simulation publishes
+
+    /**
+     * Constructor. Copies the board, score and piece count out of the model.
+     * Must be called from the thread that owns the model.
+     *
+     * @param model model to copy
+     * @param sequence sequence number of this snapshot
+     */
+    public BoardSnapshot(TetrisModel model, long sequence) {
+        TetrisBoard board = model.getBoard();
+        this.width = board.getWidth();
+        this.height = board.getHeight();
+        this.rows = board.getMaxHeight();
+        this.cells = new boolean[width * rows];
+        this.columnHeights = new int[width];
+        this.boardId = board.getId();
+        this.rowVersions = new long[rows];
+        for (int x = 0; x < width; x++) {
+            columnHeights[x] = board.getColumnHeight(x);
+        }
+        for (int y = 0; y < rows; y++) {
+            rowVersions[y] = board.getRowVersion(y);
+            boolean[] row = board.row(y);
+            if (row != null) System.arraycopy(row, 0, cells, y * width, width);
+        }
+        this.score = model.getScore();
+        this.count = model.getCount();
+        this.gameOn = model.isGameOn();
+        this.sequence = sequence;
+    }
+
+    /**
+     * Getter for board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Getter for board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns true if the given block was filled when the snapshot was taken.
+     *
+     * @param x grid position, x
+     * @param y grid position, y
+     *
+     * @return true if the block at x,y is filled, else false
+     */
+    public boolean getGrid(int x, int y) {
+        return y < rows && cells[y * width + x];
+    }
+
+    /**
+     * Returns the height of the given column when the snapshot was taken.
+     *
+     * @param x grid column, x
+     *
+     * @return the height of the given column, x
+     */
+    public int getColumnHeight(int x) {
+        return columnHeights[x];
+    }
+
+    /**
+     * Returns true if the two snapshots are of the same board object, so their rows can be compared
+     *
+     * @param other another snapshot, or null
+     */
+    public boolean isSameBoard(BoardSnapshot other) {
+        return other != null && other.boardId == boardId && other.width == width && other.height == height;
+    }
+
+    /**
+     * Returns true if a row may be different in this snapshot than in an earlier one of the same board
+     *
+     * @param earlier earlier snapshot of the same board (see isSameBoard)
+     * @param y grid row, y
+     */
+    public boolean rowChanged(BoardSnapshot earlier, int y) {
+        if (y >= rows && y >= earlier.rows) return false; //empty in both
+        if (y >= rows || y >= earlier.rows) return true;
+        return rowVersions[y] != earlier.rowVersions[y];
+    }
+
+    /**
+     * Getter for the score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Getter for the number of pieces placed
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Getter for the game state
+     */
+    public boolean isGameOn() {
+        return gameOn;
+    }
+
+    /**
+     * Getter for the sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
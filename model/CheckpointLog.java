@@ -0,0 +1,325 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/** Periodic autosave checkpoints of a game, so a crash loses at most one checkpoint interval.
+ *
+ * A checkpoint is a TetrisModel snapshot (see TetrisModel.snapshot). The first one is written
+ * in full; after that, only the snapshot words that changed since the previous checkpoint are
+ * appended, which for a board is the rows that changed plus a few fields. Every COMPACT_EVERY
+ * records the file is replaced by a single full record, so it never grows without bound.
+ *
+ * The thread that owns the model only copies the snapshot into a pooled buffer, a cost that
+ * depends on the board size but not on how long the game has run. Comparing, encoding and
+ * writing happen on a background thread. If that thread falls behind and no buffer is free,
+ * checkpoint() skips the checkpoint rather than wait; awaitCheckpoint(), for the last one
+ * before a game is put away, waits for a buffer instead.
+ *
+ * File layout, big-endian:
+ * <pre>
+ * header:  int MAGIC, short VERSION, short 0
+ * records: byte FULL or DELTA, int payload length, payload, int CRC32 of type, length and payload
+ *   FULL payload:  int n, then the n snapshot words
+ *   DELTA payload: int count, then count pairs of int index, int new value
+ * </pre>
+ * recover() replays the records up to the first torn or corrupt one.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class CheckpointLog implements AutoCloseable {
+
+    public static final int MAGIC = 0x54434B50; //"TCKP"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int COMPACT_EVERY = 1000; //records between full rewrites of the file
+
+    static final byte FULL = 1;
+    static final byte DELTA = 2;
+    private static final int RECORD_OVERHEAD = 9; //type, length and checksum
+    private static final int POOL_SIZE = 2; //snapshots that can wait for the writer
+
+    private final Path file;
+    private final ExecutorService writer;
+    private final ArrayBlockingQueue<int[]> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private volatile long checkpoints; //checkpoints written
+    private volatile long skipped; //checkpoints skipped because the writer was behind
+    private volatile IOException failure; //last write error, if any
+    private int buffers; //snapshot buffers handed out so far; owning thread only
+
+    //writer thread only
+    private FileChannel channel; //open for append once the first full record is written
+    private int[] base; //the state as of the last record written
+    private int records; //records in the file
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Constructor. The file is replaced when the first checkpoint is written, so call
+     * recover() first to pick up where a previous run left off.
+     *
+     * @param file checkpoint file
+     */
+    public CheckpointLog(Path file) {
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tetris-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Getter for number of checkpoints written
+     */
+    public long getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Getter for number of checkpoints skipped because the writer was busy
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Take a checkpoint of the model. Must be called from the thread that owns the model.
+     *
+     * @param model model to checkpoint
+     *
+     * @return false if the checkpoint was skipped because the writer is still busy with earlier ones
+     */
+    public boolean checkpoint(TetrisModel model) {
+        int[] snapshot = pool.poll();
+        if (snapshot == null && buffers == POOL_SIZE) { //all of them are waiting for the writer
+            skipped++;
+            return false;
+        }
+        write(model, snapshot);
+        return true;
+    }
+
+    /**
+     * Take a checkpoint of the model, waiting for the writer to free a buffer if it is busy.
+     * Must be called from the thread that owns the model.
+     *
+     * @param model model to checkpoint
+     *
+     * @return false if the thread was interrupted while waiting, and the checkpoint wasn't taken
+     */
+    public boolean awaitCheckpoint(TetrisModel model) {
+        int[] snapshot = pool.poll();
+        if (snapshot == null && buffers == POOL_SIZE) {
+            try {
+                snapshot = pool.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                skipped++;
+                return false;
+            }
+        }
+        write(model, snapshot);
+        return true;
+    }
+
+    /**
+     * Copy the model into a buffer and hand it to the writer thread
+     *
+     * @param snapshot buffer from the pool, or null to make a new one
+     */
+    private void write(TetrisModel model, int[] snapshot) {
+        int size = model.snapshotSize();
+        if (snapshot == null) {
+            buffers++;
+            snapshot = new int[size];
+        } else if (snapshot.length != size) {
+            snapshot = new int[size]; //the board changed size
+        }
+        model.snapshot(snapshot);
+        int[] taken = snapshot;
+        writer.execute(() -> write(taken));
+    }
+
+    /**
+     * Write out the checkpoints already taken and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null) channel.close();
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Rebuild the game from the latest checkpoint in a file
+     *
+     * @param file checkpoint file
+     *
+     * @return the model as of the last complete checkpoint, in the mode it was in, or null if there is none
+     */
+    public static TetrisModel recover(Path file) throws IOException {
+        if (!Files.exists(file)) return null;
+        int[] state = null;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (in.read(header, 0) < HEADER_SIZE || header.getInt(0) != MAGIC) throw new IOException("Not a checkpoint file: " + file);
+            if (header.getShort(4) != VERSION) throw new IOException("Unsupported checkpoint version: " + header.getShort(4));
+
+            long position = HEADER_SIZE;
+            ByteBuffer prefix = ByteBuffer.allocate(5);
+            CRC32 crc = new CRC32();
+            while (true) {
+                prefix.clear();
+                if (readAt(in, prefix, position) < 5) break;
+                int type = prefix.get(0);
+                int length = prefix.getInt(1);
+                if (length < 4 || position + RECORD_OVERHEAD + length > in.size()) break; //torn
+                ByteBuffer record = ByteBuffer.allocate(length + 4);
+                readAt(in, record, position + 5);
+                crc.reset();
+                crc.update(prefix.array(), 0, 5);
+                crc.update(record.array(), 0, length);
+                if ((int) crc.getValue() != record.getInt(length)) break; //corrupt
+
+                int n = record.getInt(0);
+                if (type == FULL) {
+                    state = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        state[i] = record.getInt(4 + 4 * i);
+                    }
+                } else if (type == DELTA && state != null) {
+                    for (int i = 0; i < n; i++) {
+                        state[record.getInt(4 + 8 * i)] = record.getInt(8 + 8 * i);
+                    }
+                } else {
+                    break;
+                }
+                position += RECORD_OVERHEAD + length;
+            }
+        }
+        if (state == null) return null;
+        TetrisModel model = new TetrisModel();
+        model.restore(state);
+        return model;
+    }
+
+    /**
+     * Write a checkpoint, in full or as the changes from the last one. Runs on the writer thread.
+     */
+    private void write(int[] snapshot) {
+        try {
+            if (channel == null || base == null || base.length != snapshot.length || records >= COMPACT_EVERY) {
+                writeFull(snapshot);
+            } else {
+                writeDelta(snapshot);
+            }
+            checkpoints++;
+            failure = null;
+        } catch (IOException e) {
+            failure = e;
+            base = null; //start again from a full record
+        } finally {
+            pool.offer(snapshot);
+        }
+    }
+
+    /**
+     * Replace the file with a single full record
+     */
+    private void writeFull(int[] snapshot) throws IOException {
+        ensure(HEADER_SIZE + RECORD_OVERHEAD + 4 + 4 * snapshot.length);
+        buffer.clear();
+        buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0);
+        int start = buffer.position();
+        buffer.put(FULL).putInt(4 + 4 * snapshot.length).putInt(snapshot.length);
+        for (int value : snapshot) {
+            buffer.putInt(value);
+        }
+        finishRecord(start);
+        buffer.flip();
+
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        SaveWriter.writeAtomically(file, buffer);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        records = 1;
+        base = base != null && base.length == snapshot.length ? base : new int[snapshot.length];
+        System.arraycopy(snapshot, 0, base, 0, snapshot.length);
+    }
+
+    /**
+     * Append the words that changed since the last record
+     */
+    private void writeDelta(int[] snapshot) throws IOException {
+        int changed = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] != base[i]) changed++;
+        }
+        if (changed == 0) return;
+
+        ensure(RECORD_OVERHEAD + 4 + 8 * changed);
+        buffer.clear();
+        buffer.put(DELTA).putInt(4 + 8 * changed).putInt(changed);
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] != base[i]) {
+                buffer.putInt(i).putInt(snapshot[i]);
+                base[i] = snapshot[i];
+            }
+        }
+        finishRecord(0);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        records++;
+    }
+
+    /**
+     * Append the checksum of the record that starts at the given position in the buffer
+     */
+    private void finishRecord(int start) {
+        crc.reset();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Make sure the buffer can hold n bytes
+     */
+    private void ensure(int n) {
+        if (buffer.capacity() < n) buffer = ByteBuffer.allocate(Math.max(n, buffer.capacity() * 2));
+    }
+
+    /**
+     * Read as much of a buffer as the file holds from the given position
+     *
+     * @return bytes read
+     */
+    private static int readAt(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, position + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+}
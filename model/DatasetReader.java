@@ -0,0 +1,165 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reads a dataset written by a DatasetWriter.
+ *
+ * Each chunk is memory-mapped, and its columns are read in place; nothing is copied.
+ * A chunk cut short at the end of the file (e.g. by a crash) is ignored.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class DatasetReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private long rows;
+
+    /**
+     * Constructor. Opens the dataset and maps its chunks.
+     *
+     * @param file dataset file
+     */
+    public DatasetReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(DatasetWriter.HEADER_SIZE);
+        if (size < DatasetWriter.HEADER_SIZE) throw new EOFException("Dataset is truncated");
+        channel.read(header, 0);
+        if (header.getInt(0) != DatasetWriter.MAGIC) throw new IOException("Not a dataset: " + file);
+        if (header.getShort(4) != DatasetWriter.VERSION || header.getShort(6) != BoardFeatures.COUNT
+                || header.getShort(8) != DatasetWriter.ROW_COLUMNS || header.getShort(10) != DatasetWriter.CANDIDATE_COLUMNS) {
+            throw new IOException("Unsupported dataset layout: " + file);
+        }
+
+        ByteBuffer chunkHeader = ByteBuffer.allocate(DatasetWriter.CHUNK_HEADER_SIZE);
+        long position = DatasetWriter.HEADER_SIZE;
+        while (position + DatasetWriter.CHUNK_HEADER_SIZE <= size) {
+            chunkHeader.clear();
+            channel.read(chunkHeader, position);
+            int chunkRows = chunkHeader.getInt(4);
+            int chunkCandidates = chunkHeader.getInt(8);
+            if (chunkHeader.getInt(0) != DatasetWriter.CHUNK_MAGIC || chunkRows < 0 || chunkCandidates < 0) break;
+            long length = DatasetWriter.CHUNK_HEADER_SIZE
+                    + 4L * (chunkRows * (long) DatasetWriter.ROW_COLUMNS + chunkCandidates * (long) DatasetWriter.CANDIDATE_COLUMNS);
+            if (position + length > size) break;
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            chunks.add(new Chunk(map, chunkRows, chunkCandidates));
+            rows += chunkRows;
+            position += length;
+        }
+    }
+
+    /**
+     * Getter for number of rows in the dataset
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Getter for number of chunks in the dataset
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Getter for a chunk
+     *
+     * @param chunk chunk number, from 0
+     */
+    public Chunk getChunk(int chunk) {
+        return chunks.get(chunk);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** One chunk of rows, with their candidates */
+    public static final class Chunk {
+        private final IntBuffer[] rowColumns = new IntBuffer[DatasetWriter.ROW_COLUMNS];
+        private final IntBuffer[] candidateColumns = new IntBuffer[DatasetWriter.CANDIDATE_COLUMNS];
+        private final int rows;
+        private final int candidates;
+
+        private Chunk(ByteBuffer map, int rows, int candidates) {
+            this.rows = rows;
+            this.candidates = candidates;
+            int at = DatasetWriter.CHUNK_HEADER_SIZE;
+            for (int c = 0; c < rowColumns.length; c++, at += rows * 4) {
+                rowColumns[c] = map.duplicate().position(at).limit(at + rows * 4).slice().asIntBuffer();
+            }
+            for (int c = 0; c < candidateColumns.length; c++, at += candidates * 4) {
+                candidateColumns[c] = map.duplicate().position(at).limit(at + candidates * 4).slice().asIntBuffer();
+            }
+        }
+
+        /**
+         * Getter for number of rows in the chunk
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * Getter for number of candidates in the chunk, over all rows
+         */
+        public int getCandidates() {
+            return candidates;
+        }
+
+        /**
+         * Get a value from a row
+         *
+         * @param column one of the row columns (e.g. DatasetWriter.PIECE)
+         * @param row row in this chunk
+         */
+        public int get(int column, int row) {
+            return rowColumns[column].get(row);
+        }
+
+        /**
+         * Get a value from a candidate
+         *
+         * @param column one of the candidate columns (e.g. DatasetWriter.CANDIDATE_X)
+         * @param candidate candidate in this chunk (see DatasetWriter.FIRST_CANDIDATE)
+         */
+        public int getCandidate(int column, int candidate) {
+            return candidateColumns[column].get(candidate);
+        }
+
+        /**
+         * Get a whole row column, e.g. to feed a training library
+         *
+         * @param column one of the row columns
+         *
+         * @return the column, read-only, one int per row
+         */
+        public IntBuffer rowColumn(int column) {
+            return rowColumns[column].duplicate();
+        }
+
+        /**
+         * Get a whole candidate column
+         *
+         * @param column one of the candidate columns
+         *
+         * @return the column, read-only, one int per candidate
+         */
+        public IntBuffer candidateColumn(int column) {
+            return candidateColumns[column].duplicate();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** Exports placement decisions as a training dataset, one row each time a piece comes to rest.
+ *
+ * A row holds the piece, the features of the board before it was placed (see BoardFeatures),
+ * where it was placed and the features of the board that resulted, and every placement the
+ * piece could have been dropped into instead, each with its own features. Listen to a model
+ * with setPlacementListener() to record its game.
+ *
+ * The data is columnar: rows are gathered in memory, one int column per field, and written
+ * CHUNK_ROWS at a time. Candidate placements go in a second set of columns, and each row
+ * points at its candidates with FIRST_CANDIDATE and CANDIDATES. The column buffers are
+ * allocated once and each chunk goes out in a single gathering write.
+ *
+ * File layout, big-endian ints:
+ * <pre>
+ * header: int MAGIC, short VERSION, short BoardFeatures.COUNT, short ROW_COLUMNS,
+ *         short CANDIDATE_COLUMNS, int CHUNK_ROWS
+ * chunks: int CHUNK_MAGIC, int rows, int candidates, int 0,
+ *         then each row column (rows ints), then each candidate column (candidates ints)
+ * </pre>
+ * Use a DatasetReader to read it back.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class DatasetWriter implements PlacementListener, AutoCloseable {
+
+    public static final int MAGIC = 0x54445354; //"TDST"
+    public static final int CHUNK_MAGIC = 0x43484E4B; //"CHNK"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int CHUNK_HEADER_SIZE = 16;
+    public static final int CHUNK_ROWS = 4096;
+
+    //row columns
+    public static final int PIECE = 0; //piece id (see TetrisModel.pieceId) of the piece as placed
+    public static final int X = 1; //where it was placed
+    public static final int Y = 2;
+    public static final int CHOSEN = 3; //index of the placement among the row's candidates, or -1 if it wasn't a straight drop
+    public static final int FIRST_CANDIDATE = 4; //index in the chunk's candidate columns of the row's first candidate
+    public static final int CANDIDATES = 5; //number of candidates
+    public static final int BOARD_FEATURES = 6; //features of the board before placing, BoardFeatures.COUNT columns
+    public static final int CHOSEN_FEATURES = BOARD_FEATURES + BoardFeatures.COUNT; //features after placing
+    public static final int ROW_COLUMNS = CHOSEN_FEATURES + BoardFeatures.COUNT;
+
+    //candidate columns
+    public static final int CANDIDATE_PIECE = 0;
+    public static final int CANDIDATE_X = 1;
+    public static final int CANDIDATE_Y = 2;
+    public static final int CANDIDATE_FEATURES = 3; //BoardFeatures.COUNT columns
+    public static final int CANDIDATE_COLUMNS = CANDIDATE_FEATURES + BoardFeatures.COUNT;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] rowColumns = new ByteBuffer[ROW_COLUMNS];
+    private final ByteBuffer[] candidateColumns = new ByteBuffer[CANDIDATE_COLUMNS];
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+    private final ByteBuffer[] gather = new ByteBuffer[1 + ROW_COLUMNS + CANDIDATE_COLUMNS];
+    private int candidateCapacity = CHUNK_ROWS * 32;
+    private int rows; //rows in the chunk being built
+    private int candidates; //candidates in the chunk being built
+    private long written; //rows written to the file
+
+    private BoardFeatures features;
+    private int[] heights = new int[0];
+    private final int[] scratch = new int[BoardFeatures.COUNT];
+
+    /**
+     * Constructor. Creates (or replaces) the dataset file.
+     *
+     * @param file file to write
+     */
+    public DatasetWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        for (int c = 0; c < ROW_COLUMNS; c++) {
+            rowColumns[c] = ByteBuffer.allocateDirect(CHUNK_ROWS * 4);
+        }
+        for (int c = 0; c < CANDIDATE_COLUMNS; c++) {
+            candidateColumns[c] = ByteBuffer.allocateDirect(candidateCapacity * 4);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) BoardFeatures.COUNT)
+                .putShort((short) ROW_COLUMNS).putShort((short) CANDIDATE_COLUMNS).putInt(CHUNK_ROWS);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * Getter for number of rows exported so far, written or not
+     */
+    public long getRows() {
+        return written + rows;
+    }
+
+    /**
+     * Add a row for a piece that has come to rest
+     */
+    @Override
+    public void piecePlaced(TetrisModel model, TetrisPiece piece, int x, int y) {
+        TetrisBoard board = model.getBoard();
+        int width = board.getWidth();
+        if (features == null || heights.length != width) {
+            features = new BoardFeatures(width);
+            heights = new int[width];
+        }
+        board.undo(); //back to the board before the piece
+
+        int row = rows;
+        int id = model.pieceId(piece);
+        putRow(PIECE, row, id);
+        putRow(X, row, x);
+        putRow(Y, row, y);
+        putRow(FIRST_CANDIDATE, row, candidates);
+        features.compute(board, 0, scratch, 0);
+        for (int f = 0; f < BoardFeatures.COUNT; f++) {
+            putRow(BOARD_FEATURES + f, row, scratch[f]);
+        }
+
+        //every rotation, dropped straight down in every column it fits
+        BoardFeatures.columnHeights(board, heights);
+        int chosen = -1;
+        int first = candidates;
+        TetrisPiece shape = model.pieceForId(id - id % TetrisModel.MAX_ROTATIONS);
+        TetrisPiece rotation = shape;
+        do {
+            int[] lowest = rotation.getLowestYVals();
+            for (int cx = 0; cx + rotation.getWidth() <= width; cx++) {
+                int cy = 0;
+                for (int i = 0; i < lowest.length; i++) {
+                    cy = Math.max(cy, heights[cx + i] - lowest[i]);
+                }
+                if (cy + rotation.getHeight() > board.getHeight()) continue;
+                boolean added = addCandidate(model, board, rotation, cx, cy);
+                if (added && rotation == piece && cx == x && cy == y) chosen = candidates - 1 - first;
+            }
+            rotation = rotation.fastRotation();
+        } while (rotation != shape);
+        putRow(CHOSEN, row, chosen);
+        putRow(CANDIDATES, row, candidates - first);
+
+        if (chosen >= 0) {
+            for (int f = 0; f < BoardFeatures.COUNT; f++) {
+                putRow(CHOSEN_FEATURES + f, row, candidateColumns[CANDIDATE_FEATURES + f].getInt((first + chosen) * 4));
+            }
+        } else {
+            evaluate(board, piece, x, y, scratch);
+            for (int f = 0; f < BoardFeatures.COUNT; f++) {
+                putRow(CHOSEN_FEATURES + f, row, scratch[f]);
+            }
+        }
+
+        board.placePiece(piece, x, y); //leave the board as we found it
+        rows++;
+        if (rows == CHUNK_ROWS) flush();
+    }
+
+    /**
+     * Write the rows gathered so far as a chunk. A write error is thrown as an
+     * IllegalStateException, since it may happen in the middle of a tick.
+     */
+    public void flush() {
+        if (rows == 0) return;
+        chunkHeader.clear();
+        chunkHeader.putInt(CHUNK_MAGIC).putInt(rows).putInt(candidates).putInt(0);
+        chunkHeader.flip();
+        gather[0] = chunkHeader;
+        long total = CHUNK_HEADER_SIZE;
+        for (int c = 0; c < ROW_COLUMNS; c++) {
+            rowColumns[c].clear().limit(rows * 4);
+            gather[1 + c] = rowColumns[c];
+            total += rows * 4L;
+        }
+        for (int c = 0; c < CANDIDATE_COLUMNS; c++) {
+            candidateColumns[c].clear().limit(candidates * 4);
+            gather[1 + ROW_COLUMNS + c] = candidateColumns[c];
+            total += candidates * 4L;
+        }
+        try {
+            while (total > 0) {
+                total -= channel.write(gather);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write dataset", e);
+        }
+        written += rows;
+        rows = 0;
+        candidates = 0;
+    }
+
+    /**
+     * Write the last chunk and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Try a placement on the board and add it as a candidate if it is legal
+     *
+     * @return true if it was added
+     */
+    private boolean addCandidate(TetrisModel model, TetrisBoard board, TetrisPiece piece, int x, int y) {
+        if (!evaluate(board, piece, x, y, scratch)) return false;
+        if (candidates == candidateCapacity) growCandidates();
+        int at = candidates * 4;
+        candidateColumns[CANDIDATE_PIECE].putInt(at, model.pieceId(piece));
+        candidateColumns[CANDIDATE_X].putInt(at, x);
+        candidateColumns[CANDIDATE_Y].putInt(at, y);
+        for (int f = 0; f < BoardFeatures.COUNT; f++) {
+            candidateColumns[CANDIDATE_FEATURES + f].putInt(at, scratch[f]);
+        }
+        candidates++;
+        return true;
+    }
+
+    /**
+     * Place a piece, clear full rows, describe the result and undo it all
+     *
+     * @return false if the piece doesn't fit there
+     */
+    private boolean evaluate(TetrisBoard board, TetrisPiece piece, int x, int y, int[] out) {
+        int result = board.placePiece(piece, x, y);
+        boolean fits = result <= TetrisBoard.ADD_ROW_FILLED;
+        if (fits) {
+            int cleared = result == TetrisBoard.ADD_ROW_FILLED ? board.clearRows() : 0;
+            features.compute(board, cleared, out, 0);
+        }
+        board.undo();
+        return fits;
+    }
+
+    /**
+     * Put a value in a row column
+     */
+    private void putRow(int column, int row, int value) {
+        rowColumns[column].putInt(row * 4, value);
+    }
+
+    /**
+     * Double the room for candidates in the current chunk
+     */
+    private void growCandidates() {
+        candidateCapacity *= 2;
+        for (int c = 0; c < CANDIDATE_COLUMNS; c++) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(candidateCapacity * 4);
+            candidateColumns[c].clear().limit(candidates * 4);
+            bigger.put(candidateColumns[c]);
+            candidateColumns[c] = bigger;
+        }
+    }
+
+    /**
+     * Export the games of seeded AutoPilots, without a display
+     *
+     * Usage: java model.DatasetWriter file [games] [seed]
+     *
+     * @param args output file, number of games and first seed
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get(args.length > 0 ? args[0] : "placements.dataset");
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        long firstSeed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        long start = System.nanoTime();
+        long ticks = 0;
+        try (DatasetWriter writer = new DatasetWriter(file)) {
+            for (int g = 0; g < games; g++) {
+                TetrisModel model = new TetrisModel();
+                model.setPilot(new AutoPilot(firstSeed + g));
+                model.setAutoPilotMode();
+                model.setPlacementListener(writer);
+                model.startGame(firstSeed + g);
+                while (model.isGameOn()) {
+                    model.modelTick(TetrisModel.MoveType.DOWN);
+                    ticks++;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d games, %d ticks, %d rows in %.2fs (%.0f rows/s)%n",
+                    games, ticks, writer.getRows(), seconds, writer.getRows() / seconds);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder events for the game loop, so latency spikes in a recording can be
+ * lined up with GC pauses, safepoints and the rest of what JFR records.
+ *
+ * Every event is off by default; turn them on in a recording's settings, e.g.
+ * <pre>
+ * java -XX:StartFlightRecording:filename=game.jfr,+tetris.ModelTick#enabled=true ...
+ * </pre>
+ * or with a .jfc file that enables the "Tetris" category. Until JFR is started the game
+ * pays one static read per event site, and while an event is disabled one more; the begin
+ * methods return null and no event is made.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public final class FlightEvents {
+
+    private FlightEvents() {
+    }
+
+    /** The event types, looked up the first time they're needed, once JFR is running */
+    private static final class Types {
+        static final EventType MODEL_TICK = EventType.getEventType(ModelTick.class);
+        static final EventType PIECE_LOCKED = EventType.getEventType(PieceLocked.class);
+        static final EventType PIECE_SPAWNED = EventType.getEventType(PieceSpawned.class);
+        static final EventType PILOT_DECISION = EventType.getEventType(PilotDecision.class);
+        static final EventType GAME_SAVED = EventType.getEventType(GameSaved.class);
+        static final EventType GAME_LOADED = EventType.getEventType(GameLoaded.class);
+    }
+
+    @Name("tetris.ModelTick")
+    @Label("Model Tick")
+    @Description("TetrisModel.modelTick, the pilot's move included")
+    @Category("Tetris")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class ModelTick extends Event {
+        @Label("Move")
+        String move;
+
+        @Label("Pieces Played")
+        int pieces;
+
+        @Label("Game On")
+        @Description("False if the game ended on this tick")
+        boolean gameOn;
+    }
+
+    @Name("tetris.PieceLocked")
+    @Label("Piece Locked")
+    @Description("A piece coming to rest, and the rows it cleared")
+    @Category("Tetris")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class PieceLocked extends Event {
+        @Label("Piece Id")
+        @Description("See TetrisModel.pieceId")
+        int pieceId;
+
+        @Label("X")
+        int x;
+
+        @Label("Y")
+        int y;
+
+        @Label("Rows Cleared")
+        int rowsCleared;
+
+        @Label("Stack Height")
+        @Description("After the rows were cleared")
+        int stackHeight;
+    }
+
+    @Name("tetris.PieceSpawned")
+    @Label("Piece Spawned")
+    @Description("TetrisModel.addNewPiece")
+    @Category("Tetris")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class PieceSpawned extends Event {
+        @Label("Piece Id")
+        int pieceId;
+
+        @Label("Game Over")
+        @Description("True if there was no room for the piece")
+        boolean gameOver;
+    }
+
+    @Name("tetris.PilotDecision")
+    @Label("Pilot Decision")
+    @Description("TetrisPilot.bestMove")
+    @Category("Tetris")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class PilotDecision extends Event {
+        @Label("Pilot")
+        Class<?> pilot;
+
+        @Label("Piece Id")
+        int pieceId;
+
+        @Label("Stack Height")
+        int stackHeight;
+
+        @Label("Search Depth")
+        @Description("See TetrisPilot.getSearchDepth")
+        int searchDepth;
+
+        @Label("Move")
+        String move;
+    }
+
+    @Name("tetris.GameSaved")
+    @Label("Game Saved")
+    @Description("A save written to disk, catalog record included")
+    @Category("Tetris")
+    @Enabled(false)
+    public static class GameSaved extends Event {
+        @Label("File")
+        String path;
+
+        @Label("Bytes")
+        long bytes;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("tetris.GameLoaded")
+    @Label("Game Loaded")
+    @Description("TetrisModel.loadModel")
+    @Category("Tetris")
+    @Enabled(false)
+    public static class GameLoaded extends Event {
+        @Label("File")
+        String path;
+
+        @Label("Save Format")
+        @Description("False for a game saved with Java serialization")
+        boolean saveFormat;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    /**
+     * Start timing a tick, if ModelTick events are being recorded
+     *
+     * @return the event, begun, or null
+     */
+    static ModelTick beginModelTick() {
+        if (!FlightRecorder.isInitialized() || !Types.MODEL_TICK.isEnabled()) return null;
+        ModelTick event = new ModelTick();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Start timing a piece coming to rest, if PieceLocked events are being recorded
+     *
+     * @return the event, begun, or null
+     */
+    static PieceLocked beginPieceLocked() {
+        if (!FlightRecorder.isInitialized() || !Types.PIECE_LOCKED.isEnabled()) return null;
+        PieceLocked event = new PieceLocked();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Start timing a new piece, if PieceSpawned events are being recorded
+     *
+     * @return the event, begun, or null
+     */
+    static PieceSpawned beginPieceSpawned() {
+        if (!FlightRecorder.isInitialized() || !Types.PIECE_SPAWNED.isEnabled()) return null;
+        PieceSpawned event = new PieceSpawned();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Start timing a pilot decision, if PilotDecision events are being recorded
+     *
+     * @return the event, begun, or null
+     */
+    static PilotDecision beginPilotDecision() {
+        if (!FlightRecorder.isInitialized() || !Types.PILOT_DECISION.isEnabled()) return null;
+        PilotDecision event = new PilotDecision();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Start timing a save, if GameSaved events are being recorded
+     *
+     * @return the event, begun, or null
+     */
+    static GameSaved beginGameSaved() {
+        if (!FlightRecorder.isInitialized() || !Types.GAME_SAVED.isEnabled()) return null;
+        GameSaved event = new GameSaved();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Start timing a load, if GameLoaded events are being recorded
+     *
+     * @return the event, begun, or null
+     */
+    static GameLoaded beginGameLoaded() {
+        if (!FlightRecorder.isInitialized() || !Types.GAME_LOADED.isEnabled()) return null;
+        GameLoaded event = new GameLoaded();
+        event.begin();
+        return event;
+    }
+}
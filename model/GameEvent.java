@@ -0,0 +1,116 @@
+package model;
+
+/** A single thing that happened in a TetrisModel.
+ * Instances are slots in a GameEventBus ring buffer and are reused over and over,
+ * so handlers must copy out anything they want to keep before returning.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public final class GameEvent {
+
+    public enum Type {
+        PIECE_SPAWNED, //a new piece was put in play (pieceId, x, y)
+        PIECE_LOCKED, //the current piece came to rest (pieceId, x, y)
+        ROWS_CLEARED, //rows were cleared after a piece locked (rowsCleared, scoreDelta)
+        GAME_OVER //the game ended
+    }
+
+    Type type;
+    long sequence; //position of this event in the stream
+    int pieceId; //see TetrisModel.pieceId(); -1 if not relevant
+    int x, y; //piece position
+    int rowsCleared;
+    int scoreDelta; //points earned by this event
+    int score; //score after this event
+    int count; //pieces played after this event
+
+    /**
+     * Copy every field of another event into this one
+     *
+     * @param other event to copy
+     */
+    void copyFrom(GameEvent other) {
+        type = other.type;
+        sequence = other.sequence;
+        pieceId = other.pieceId;
+        x = other.x;
+        y = other.y;
+        rowsCleared = other.rowsCleared;
+        scoreDelta = other.scoreDelta;
+        score = other.score;
+        count = other.count;
+    }
+
+    /**
+     * Getter for event type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Getter for sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Getter for piece id
+     */
+    public int getPieceId() {
+        return pieceId;
+    }
+
+    /**
+     * Getter for piece position, x
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Getter for piece position, y
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Getter for number of rows cleared
+     */
+    public int getRowsCleared() {
+        return rowsCleared;
+    }
+
+    /**
+     * Getter for points earned by this event
+     */
+    public int getScoreDelta() {
+        return scoreDelta;
+    }
+
+    /**
+     * Getter for score after this event
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Getter for number of pieces played after this event
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Print the event
+     *
+     * @return a string representation of the event
+     */
+    public String toString() {
+        return sequence + ":" + type + "(piece " + pieceId + " at " + x + "," + y + ", rows " + rowsCleared
+                + ", +" + scoreDelta + ", score " + score + ", count " + count + ")";
+    }
+}
@@ -0,0 +1,316 @@
+package model;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A preallocated ring buffer of GameEvents, written by the thread that owns a TetrisModel
+ * and read by any number of subscribers.
+ *
+ * Publishing never allocates, locks or waits. Each subscriber polls from its own thread
+ * and drains everything that is available in one batch. A subscriber that falls more than
+ * a buffer's worth behind is handled by the bus's OverflowPolicy: either the newest events
+ * are dropped until it catches up, or the oldest ones are overwritten and the subscriber
+ * skips them. Either way the producer is never slowed down.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class GameEventBus {
+
+    public enum OverflowPolicy {
+        DROP_NEWEST, //if any subscriber is a full buffer behind, new events are not published
+        OVERWRITE_OLDEST //always publish; subscribers that are lapped lose the overwritten events
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final GameEvent[] slots;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    //claimed is the sequence being written, published the last one fully written.
+    //A reader that copied a slot and then sees claimed move a full lap past it knows the copy may be torn.
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final AtomicLong published = new AtomicLong(-1);
+    private long next; //next sequence to write; producer only
+    private long gatingCache = -1; //cached slowest subscriber cursor; producer only
+    private volatile long dropped; //events dropped under DROP_NEWEST; written by the producer only
+
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    /**
+     * Constructor for a bus with the default capacity that overwrites the oldest events
+     */
+    public GameEventBus() {
+        this(DEFAULT_CAPACITY, OverflowPolicy.OVERWRITE_OLDEST);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity number of slots; rounded up to a power of two
+     * @param policy   what to do when a subscriber falls a full buffer behind
+     */
+    public GameEventBus(int capacity, OverflowPolicy policy) {
+        if (capacity < 2) throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new GameEvent[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new GameEvent();
+        }
+        this.mask = size - 1;
+        this.policy = policy;
+    }
+
+    /**
+     * Getter for number of slots
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Getter for overflow policy
+     */
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Getter for number of events dropped because a subscriber was too far behind
+     * (only under DROP_NEWEST)
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Subscribe a handler. It will see events published from now on.
+     *
+     * @param handler handler to call from Subscription.poll()
+     *
+     * @return the subscription, to be polled by the subscriber's own thread
+     */
+    public synchronized Subscription subscribe(GameEventHandler handler) {
+        Subscription subscription = new Subscription(handler, published.get());
+        Subscription[] current = subscriptions;
+        Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = subscription;
+        subscriptions = updated;
+        return subscription;
+    }
+
+    /**
+     * Remove a subscription. It will no longer hold back the producer.
+     *
+     * @param subscription subscription to remove
+     */
+    public synchronized void unsubscribe(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                Subscription[] updated = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                subscriptions = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publish a PIECE_SPAWNED event
+     *
+     * @param pieceId id of the new piece
+     * @param x       piece position, x
+     * @param y       piece position, y
+     * @param score   score after the spawn
+     * @param count   pieces played after the spawn
+     */
+    public void pieceSpawned(int pieceId, int x, int y, int score, int count) {
+        GameEvent e = claim();
+        if (e == null) return;
+        e.type = GameEvent.Type.PIECE_SPAWNED;
+        e.pieceId = pieceId;
+        e.x = x;
+        e.y = y;
+        e.rowsCleared = 0;
+        e.scoreDelta = 0;
+        e.score = score;
+        e.count = count;
+        publish();
+    }
+
+    /**
+     * Publish a PIECE_LOCKED event
+     *
+     * @param pieceId id of the locked piece
+     * @param x       piece position, x
+     * @param y       piece position, y
+     * @param score   score when the piece locked
+     * @param count   pieces played when the piece locked
+     */
+    public void pieceLocked(int pieceId, int x, int y, int score, int count) {
+        GameEvent e = claim();
+        if (e == null) return;
+        e.type = GameEvent.Type.PIECE_LOCKED;
+        e.pieceId = pieceId;
+        e.x = x;
+        e.y = y;
+        e.rowsCleared = 0;
+        e.scoreDelta = 0;
+        e.score = score;
+        e.count = count;
+        publish();
+    }
+
+    /**
+     * Publish a ROWS_CLEARED event
+     *
+     * @param rowsCleared number of rows cleared
+     * @param scoreDelta  points earned for the rows
+     * @param score       score after the rows were counted
+     * @param count       pieces played
+     */
+    public void rowsCleared(int rowsCleared, int scoreDelta, int score, int count) {
+        GameEvent e = claim();
+        if (e == null) return;
+        e.type = GameEvent.Type.ROWS_CLEARED;
+        e.pieceId = -1;
+        e.x = 0;
+        e.y = 0;
+        e.rowsCleared = rowsCleared;
+        e.scoreDelta = scoreDelta;
+        e.score = score;
+        e.count = count;
+        publish();
+    }
+
+    /**
+     * Publish a GAME_OVER event
+     *
+     * @param score final score
+     * @param count pieces played
+     */
+    public void gameOver(int score, int count) {
+        GameEvent e = claim();
+        if (e == null) return;
+        e.type = GameEvent.Type.GAME_OVER;
+        e.pieceId = -1;
+        e.x = 0;
+        e.y = 0;
+        e.rowsCleared = 0;
+        e.scoreDelta = 0;
+        e.score = score;
+        e.count = count;
+        publish();
+    }
+
+    /**
+     * Reserve the next slot for writing.
+     *
+     * @return the slot to fill, or null if the event has to be dropped
+     */
+    private GameEvent claim() {
+        long seq = next;
+        if (policy == OverflowPolicy.DROP_NEWEST && seq - gatingCache > slots.length) {
+            gatingCache = slowestCursor(seq - 1);
+            if (seq - gatingCache > slots.length) {
+                dropped = dropped + 1;
+                return null;
+            }
+        }
+        claimed.set(seq);
+        VarHandle.storeStoreFence(); //the claim must be visible before any write to the slot
+        GameEvent e = slots[(int) seq & mask];
+        e.sequence = seq;
+        return e;
+    }
+
+    /**
+     * Make the slot filled since the last claim() visible to subscribers
+     */
+    private void publish() {
+        published.lazySet(next);
+        next++;
+    }
+
+    /**
+     * Find the cursor of the slowest subscriber
+     *
+     * @param limit value to return if there are no subscribers
+     *
+     * @return lowest sequence that every subscriber has consumed
+     */
+    private long slowestCursor(long limit) {
+        long min = limit;
+        for (Subscription s : subscriptions) {
+            min = Math.min(min, s.cursor.get());
+        }
+        return min;
+    }
+
+    /** A subscriber's position in the stream. Poll it from one thread only. */
+    public final class Subscription {
+
+        private final GameEventHandler handler;
+        private final AtomicLong cursor; //last sequence consumed
+        private final GameEvent scratch = new GameEvent(); //events are copied here before being handed out
+        private long lost; //events this subscriber never saw because they were overwritten
+
+        private Subscription(GameEventHandler handler, long start) {
+            this.handler = handler;
+            this.cursor = new AtomicLong(start);
+        }
+
+        /**
+         * Deliver every event published since the last poll
+         *
+         * @return number of events delivered
+         */
+        public int poll() {
+            return poll(Integer.MAX_VALUE);
+        }
+
+        /**
+         * Deliver up to maxEvents of the events published since the last poll
+         *
+         * @param maxEvents largest batch to deliver
+         *
+         * @return number of events delivered
+         */
+        public int poll(int maxEvents) {
+            long from = cursor.get() + 1;
+            long to = published.get();
+            if (to < from) return 0;
+
+            if (to - from >= slots.length) { //lapped: the oldest events are already gone
+                long oldest = to - slots.length + 1;
+                lost += oldest - from;
+                from = oldest;
+            }
+            if (to - from >= maxEvents) to = from + maxEvents - 1;
+
+            int delivered = 0;
+            for (long seq = from; seq <= to; seq++) {
+                scratch.copyFrom(slots[(int) seq & mask]);
+                VarHandle.loadLoadFence(); //read the slot before checking whether it was reclaimed
+                if (claimed.get() - seq >= slots.length) {
+                    lost++;
+                    continue;
+                }
+                handler.onEvent(scratch, seq == to);
+                delivered++;
+            }
+            cursor.lazySet(to);
+            return delivered;
+        }
+
+        /**
+         * Getter for number of events this subscriber missed because they were overwritten
+         */
+        public long getLost() {
+            return lost;
+        }
+    }
+}
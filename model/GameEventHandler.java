@@ -0,0 +1,14 @@
+package model;
+
+/** Receives events from a GameEventBus subscription. */
+public interface GameEventHandler {
+
+    /**
+     * Called once for every event delivered to a subscription.
+     * The event object is reused, so copy out anything that must outlive the call.
+     *
+     * @param event      the event
+     * @param endOfBatch true if this is the last event available in the current poll
+     */
+    public void onEvent(GameEvent event, boolean endOfBatch);
+}
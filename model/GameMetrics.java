@@ -0,0 +1,63 @@
+package model;
+
+/** The metrics every TetrisModel in the JVM adds to, for watching a host full of games.
+ *
+ * The counters are always on, and cost an uncontended add each. The timers cost two
+ * System.nanoTime() calls per timed call (shared with the PerformanceProbes; see
+ * HotPathTimer), so they are off until setTiming() turns them on.
+ * Read them with REGISTRY.snapshot(), or serve them over HTTP with server.MetricsExporter.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public final class GameMetrics {
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    public static final MetricsRegistry.Counter TICKS = REGISTRY.counter("tetris_ticks_total"); //TetrisModel.modelTick calls in play
+    public static final MetricsRegistry.Counter PIECES = REGISTRY.counter("tetris_pieces_total"); //pieces come to rest
+    public static final MetricsRegistry.Counter GAME_OVERS = REGISTRY.counter("tetris_game_overs_total");
+    public static final MetricsRegistry.Counter ROWS = REGISTRY.counter("tetris_rows_total"); //rows cleared
+    private static final MetricsRegistry.Counter[] CLEARS = { //clears by number of rows; the last counts anything bigger
+            REGISTRY.counter("tetris_clears_total{rows=\"1\"}"),
+            REGISTRY.counter("tetris_clears_total{rows=\"2\"}"),
+            REGISTRY.counter("tetris_clears_total{rows=\"3\"}"),
+            REGISTRY.counter("tetris_clears_total{rows=\"4\"}"),
+            REGISTRY.counter("tetris_clears_total{rows=\"5+\"}")
+    };
+
+    public static final MetricsRegistry.Timer EXECUTE_MOVE = REGISTRY.timer("tetris_execute_move_nanos"); //TetrisModel.executeMove, clearRows included
+    public static final MetricsRegistry.Timer CLEAR_ROWS = REGISTRY.timer("tetris_clear_rows_nanos"); //TetrisBoard.clearRows, in play
+    public static final MetricsRegistry.Timer PILOT_DECISION = REGISTRY.timer("tetris_pilot_decision_nanos"); //TetrisPilot.bestMove
+
+    private static volatile boolean timing;
+
+    private GameMetrics() {
+    }
+
+    /**
+     * Count a clear
+     *
+     * @param rows rows cleared at once; nothing is counted for 0
+     */
+    public static void rowsCleared(int rows) {
+        if (rows <= 0) return;
+        ROWS.add(rows);
+        CLEARS[Math.min(rows, CLEARS.length) - 1].increment();
+    }
+
+    /**
+     * Returns true if the timers are recording
+     */
+    public static boolean isTiming() {
+        return timing;
+    }
+
+    /**
+     * Turn the timers on or off
+     *
+     * @param on true to record
+     */
+    public static void setTiming(boolean on) {
+        timing = on;
+    }
+}
@@ -0,0 +1,102 @@
+package model;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** The random generator used to pick pieces.
+ *
+ * This is the same 48-bit linear congruential generator as java.util.Random (so a given
+ * seed produces the same sequence), but its state can be read and written. That lets a
+ * game be snapshotted, saved and replayed exactly.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class GameRandom implements Serializable {
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    /**
+     * Constructor for a generator with an arbitrary seed
+     */
+    public GameRandom() {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Constructor for a generator with a given seed
+     *
+     * @param seed seed, as for java.util.Random
+     */
+    public GameRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Reset the generator with a seed, as for java.util.Random
+     *
+     * @param seed new seed
+     */
+    public void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * Get the internal state (not the seed!)
+     *
+     * @return 48-bit state
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Set the internal state, as returned by getState()
+     *
+     * @param state 48-bit state
+     */
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+
+    /**
+     * Returns a double between 0 (inclusive) and 1 (exclusive)
+     *
+     * @return next value
+     */
+    public double nextDouble() {
+        return (((long) next(26) << 27) + next(27)) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns an int between 0 (inclusive) and bound (exclusive)
+     *
+     * @param bound upper bound; must be positive
+     *
+     * @return next value
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) throw new IllegalArgumentException("Bound must be positive: " + bound);
+        int r = next(31);
+        int m = bound - 1;
+        if ((bound & m) == 0) return (int) ((bound * (long) r) >> 31);
+        for (int u = r; u - (r = u % bound) + m < 0; u = next(31)) {
+        }
+        return r;
+    }
+
+    /**
+     * Advance the generator and return the top bits of the new state
+     *
+     * @param bits number of bits to return
+     *
+     * @return random bits
+     */
+    private int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+}
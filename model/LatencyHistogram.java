@@ -0,0 +1,157 @@
+package model;
+
+import java.util.Arrays;
+
+/** A histogram of latencies in nanoseconds, precise to about 3% from 1ns to 18 minutes.
+ *
+ * Buckets are log-linear: values under 64 each get their own bucket, and every power of two
+ * above that is split into 32 buckets of equal width. The bucket array is allocated once,
+ * so recording never allocates, and two histograms can be added bucket by bucket.
+ * Not thread-safe; to record from several threads, use a LatencyRecorder.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class LatencyHistogram {
+
+    public static final long MAX_VALUE = (1L << 40) - 1; //larger values are recorded as this
+    static final int SUB_BUCKET_BITS = 5; //log2 of the buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR = 2 * SUB_BUCKETS; //values below this have a bucket each
+    public static final int BUCKETS = bucket(MAX_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count; //values recorded
+    private long max; //largest value recorded
+    private long sum; //total of the values recorded
+
+    /**
+     * Bucket a value falls in
+     *
+     * @param value value, in nanoseconds; negative values count as 0
+     */
+    public static int bucket(long value) {
+        if (value < LINEAR) return value < 0 ? 0 : (int) value;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS; //at least 1
+        int top = (int) (value >>> shift); //SUB_BUCKETS to 2*SUB_BUCKETS-1
+        return LINEAR + (shift - 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+    }
+
+    /**
+     * Largest value that falls in a bucket
+     *
+     * @param bucket bucket number
+     */
+    public static long highestValue(int bucket) {
+        if (bucket < LINEAR) return bucket;
+        int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+        long top = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a value
+     *
+     * @param value value, in nanoseconds
+     */
+    public void record(long value) {
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Add counts to a bucket, as a LatencyRecorder does when it hands over what it recorded
+     */
+    void add(int bucket, long n) {
+        counts[bucket] += n;
+    }
+
+    /**
+     * Number of values recorded in a bucket
+     *
+     * @param bucket bucket number
+     */
+    long getBucketCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * Add to the totals, as a LatencyRecorder does when it hands over what it recorded
+     */
+    void addTotals(long count, long sum, long max) {
+        this.count += count;
+        this.sum += sum;
+        if (max > this.max) this.max = max;
+    }
+
+    /**
+     * Add all of another histogram's values to this one
+     *
+     * @param other histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        addTotals(other.count, other.sum, other.max);
+    }
+
+    /**
+     * Forget every value recorded
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Getter for number of values recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Getter for total of the values recorded
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Getter for largest value recorded (exact)
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Getter for mean of the values recorded, or 0 if there are none
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Value at a percentile: the highest value of the bucket that holds it,
+     * so it is never lower than the true value, and never higher than the maximum
+     *
+     * @param percentile percentile, from 0 to 100
+     *
+     * @return the value, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,102 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Records latencies from any number of threads, for a reader to collect now and then.
+ *
+ * Values go into one of two intervals, each a set of atomic bucket counts laid out like a
+ * LatencyHistogram. The reader swaps the intervals and copies out the one the writers were
+ * using. Writers never wait and never allocate: they announce themselves on an epoch counter,
+ * record, and announce they are done. After a swap, the reader waits for the writers that
+ * started before it to finish (a writer-reader phaser), so no value is lost or counted twice.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class LatencyRecorder {
+
+    private final AtomicLong startEpoch = new AtomicLong(0); //writers started; negative in odd phases
+    private final AtomicLong evenEndEpoch = new AtomicLong(0); //writers finished in even phases
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE); //writers finished in odd phases
+
+    private volatile Interval active = new Interval(); //the interval writers record into
+    private Interval inactive = new Interval(); //the interval handed over at the last swap; reader only
+
+    /**
+     * Record a value. Safe to call from any thread; never blocks.
+     *
+     * @param nanos value, in nanoseconds
+     */
+    public void record(long nanos) {
+        long epoch = startEpoch.getAndIncrement();
+        try {
+            active.record(nanos);
+        } finally {
+            if (epoch < 0) {
+                oddEndEpoch.getAndIncrement();
+            } else {
+                evenEndEpoch.getAndIncrement();
+            }
+        }
+    }
+
+    /**
+     * Replace the contents of a histogram with everything recorded since the last swap
+     *
+     * @param into histogram to fill
+     */
+    public synchronized void swap(LatencyHistogram into) {
+        Interval done = active;
+        inactive.reset();
+        active = inactive;
+
+        //flip the phase, then wait for the writers that may still hold the old interval
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        long initialEpoch = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialEpoch);
+        long startAtFlip = startEpoch.getAndSet(initialEpoch);
+        AtomicLong endEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (endEpoch.get() != startAtFlip) {
+            Thread.yield();
+        }
+
+        into.reset();
+        done.copyTo(into);
+        inactive = done;
+    }
+
+    /** One interval's worth of counts */
+    private static final class Interval {
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            counts.getAndIncrement(LatencyHistogram.bucket(nanos));
+            count.getAndIncrement();
+            sum.getAndAdd(nanos);
+            long seen = max.get();
+            while (nanos > seen && !max.compareAndSet(seen, nanos)) {
+                seen = max.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        void copyTo(LatencyHistogram histogram) {
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                long n = counts.get(i);
+                if (n != 0) histogram.add(i, n);
+            }
+            histogram.addTotals(count.get(), sum.get(), max.get());
+        }
+    }
+}
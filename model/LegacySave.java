@@ -0,0 +1,213 @@
+package model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Reads games saved with Java serialization by the original version of the game, before SaveFormat.
+ *
+ * The model classes have changed too much to deserialize those saves directly. Instead, each
+ * class in an old save is read into a private copy with the original fields and
+ * serialVersionUID, and the game is rebuilt from those. Only those classes are accepted, and
+ * only if their serialVersionUID and fields match the original ones, so a save from any other
+ * version (or anything else) is rejected rather than half read.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+final class LegacySave {
+
+    private static final ObjectInputFilter LIMITS = ObjectInputFilter.Config.createFilter("maxbytes=1000000;maxarray=100000;maxdepth=32;maxrefs=100000");
+    private static final Map<String, ObjectStreamClass> CLASSES = new HashMap<>(); //saved class name -> copy to read it into
+
+    static {
+        CLASSES.put("model.TetrisModel", ObjectStreamClass.lookup(Model.class));
+        CLASSES.put("model.TetrisBoard", ObjectStreamClass.lookup(Board.class));
+        CLASSES.put("model.TetrisPiece", ObjectStreamClass.lookup(Piece.class));
+        CLASSES.put("model.TetrisPoint", ObjectStreamClass.lookup(Point.class));
+        CLASSES.put("model.AutoPilot", ObjectStreamClass.lookup(Pilot.class));
+        CLASSES.put("java.util.Random", ObjectStreamClass.lookup(Random.class));
+        CLASSES.put("[Lmodel.TetrisPiece;", ObjectStreamClass.lookup(Piece[].class));
+        CLASSES.put("[Lmodel.TetrisPoint;", ObjectStreamClass.lookup(Point[].class));
+        CLASSES.put("[Z", ObjectStreamClass.lookup(boolean[].class));
+        CLASSES.put("[[Z", ObjectStreamClass.lookup(boolean[][].class));
+        CLASSES.put("[I", ObjectStreamClass.lookup(int[].class));
+    }
+
+    /**
+     * Not instantiable
+     */
+    private LegacySave() {
+    }
+
+    /**
+     * Read an old save and build a model from it, as SaveFormat.decode() would
+     *
+     * @param in stream positioned at the start of the save
+     *
+     * @return the loaded model
+     *
+     * @throws IOException if the data is not a save from the original version, or is corrupt
+     */
+    static TetrisModel read(InputStream in) throws IOException {
+        Object saved;
+        try (ObjectInputStream objects = new Stream(in)) {
+            saved = objects.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Not a saved game", e);
+        }
+        if (!(saved instanceof Model)) throw new IOException("Not a saved game");
+        Model old = (Model) saved;
+        Board board = old.board;
+        if (board == null || board.tetrisGrid == null || board.tetrisGrid.length != board.width) {
+            throw new IOException("Save is corrupt (no board)");
+        }
+
+        boolean inPlay = old.gameOn && old.currentPiece != null;
+        boolean[] cells = new boolean[board.width * board.height];
+        for (int x = 0; x < board.width; x++) {
+            if (board.tetrisGrid[x] == null || board.tetrisGrid[x].length != board.height) {
+                throw new IOException("Save is corrupt (bad board)");
+            }
+            for (int y = 0; y < board.height; y++) {
+                cells[y * board.width + x] = board.tetrisGrid[x][y];
+            }
+        }
+        if (inPlay) { //the piece in play was saved as part of the board
+            for (Point point : old.currentPiece.body) {
+                int x = old.currentX + point.x;
+                int y = old.currentY + point.y;
+                if (x >= 0 && x < board.width && y >= 0 && y < board.height) cells[y * board.width + x] = false;
+            }
+        }
+
+        TetrisModel model = new TetrisModel();
+        int pieceId = inPlay ? pieceId(model, old.currentPiece) : -1;
+        long state = old.random == null ? 0 : old.random.seed; //the same generator as GameRandom
+        int flags = (old.gameOn ? SaveFormat.FLAG_GAME_ON : 0) | (old.autoPilotMode ? SaveFormat.FLAG_AUTOPILOT : 0);
+        return SaveFormat.build(model, board.width, board.height, cells, flags, old.score, old.count,
+                pieceId, old.currentX, old.currentY, state);
+    }
+
+    /**
+     * The id of the piece with the same cells as an old piece
+     */
+    private static int pieceId(TetrisModel model, Piece piece) throws IOException {
+        if (piece.body == null) throw new IOException("Save is corrupt (bad piece)");
+        TetrisPoint[] body = new TetrisPoint[piece.body.length];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = new TetrisPoint(piece.body[i].x, piece.body[i].y);
+        }
+        TetrisPiece match = new TetrisPiece(body);
+        for (int id = 0; id < model.pieces.length * TetrisModel.MAX_ROTATIONS; id++) {
+            if (model.pieceForId(id).equals(match)) return id;
+        }
+        throw new IOException("Save is corrupt (unknown piece)");
+    }
+
+    /** An object stream that reads the original classes into the copies below */
+    private static final class Stream extends ObjectInputStream {
+
+        Stream(InputStream in) throws IOException {
+            super(in);
+            setObjectInputFilter(LIMITS);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass saved = super.readClassDescriptor();
+            ObjectStreamClass local = CLASSES.get(saved.getName());
+            if (local == null) throw new InvalidClassException(saved.getName(), "not part of a saved game");
+            if (saved.getSerialVersionUID() != local.getSerialVersionUID() && !saved.getName().startsWith("[")) {
+                throw new InvalidClassException(saved.getName(), "saved by an unknown version");
+            }
+            ObjectStreamField[] savedFields = saved.getFields();
+            ObjectStreamField[] localFields = local.getFields();
+            if (savedFields.length != localFields.length) {
+                throw new InvalidClassException(saved.getName(), "saved by an unknown version");
+            }
+            for (int i = 0; i < savedFields.length; i++) {
+                if (!savedFields[i].getName().equals(localFields[i].getName())
+                        || savedFields[i].getTypeCode() != localFields[i].getTypeCode()) {
+                    throw new InvalidClassException(saved.getName(), "saved by an unknown version");
+                }
+            }
+            return local;
+        }
+    }
+
+    /** model.TetrisModel as it was */
+    private static final class Model implements Serializable {
+        private static final long serialVersionUID = 5680807502696922951L;
+        private Board board;
+        private Piece[] pieces;
+        private Piece currentPiece;
+        private Piece newPiece;
+        private int count;
+        private int score;
+        private int currentX, newX;
+        private int currentY, newY;
+        private boolean gameOn;
+        private Random random;
+        private boolean autoPilotMode;
+        private Pilot pilot;
+    }
+
+    /** model.TetrisBoard as it was */
+    private static final class Board implements Serializable {
+        private static final long serialVersionUID = 1693528972396301399L;
+        private int width;
+        private int height;
+        private boolean[][] tetrisGrid; //indexed [x][y]
+        private boolean committed;
+        private int[] colCounts;
+        private int[] rowCounts;
+        private boolean[][] backupGrid;
+        private int[] backupColCounts;
+        private int[] backupRowCounts;
+    }
+
+    /** model.TetrisPiece as it was */
+    private static final class Piece implements Serializable {
+        private static final long serialVersionUID = 944491541918573894L;
+        private Point[] body;
+        private int[] lowestYVals;
+        private int width;
+        private int height;
+        private Piece next;
+    }
+
+    /** model.TetrisPoint as it was */
+    private static final class Point implements Serializable {
+        private static final long serialVersionUID = 2972194147007098097L;
+        private int x;
+        private int y;
+    }
+
+    /** model.AutoPilot as it was; it had no state */
+    private static final class Pilot implements Serializable {
+        private static final long serialVersionUID = 4740879509605253657L;
+    }
+
+    /** The serialized form of java.util.Random */
+    private static final class Random implements Serializable {
+        private static final long serialVersionUID = 3905348978240129619L;
+        private boolean haveNextNextGaussian;
+        private double nextNextGaussian;
+        private long seed; //the generator's 48-bit state
+
+        /**
+         * Never called; declared so the stream knows Random wrote its fields with a writeObject method
+         */
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+        }
+    }
+}
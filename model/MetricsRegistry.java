@@ -0,0 +1,264 @@
+package model;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Named counters and timers that any number of threads can update at once, and that can be
+ * read at any time as a Snapshot, e.g. to total up every game running in a JVM.
+ *
+ * Counters are LongAdders, so games on different threads don't fight over one cache line.
+ * Timers record into a LatencyRecorder, and each snapshot adds what it collected to the
+ * timer's running LatencyHistogram. Neither allocates once it has been created, apart from
+ * the snapshots. Totals only ever go up; subtract two snapshots to get counts and sums for
+ * the time between them.
+ *
+ * GameMetrics makes its metrics as soon as a game runs, so this class uses no lambdas: the
+ * first one costs a command-line launcher (see TetrisCli) several milliseconds of startup.
+ *
+ * Names follow the Prometheus text format, and may carry labels, as in
+ * tetris_clears_total{rows="2"} (see GameMetrics). Snapshot.toText() writes that format.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public final class MetricsRegistry {
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    /**
+     * The counter with a name, made if there isn't one yet
+     *
+     * @param name counter name, with any labels
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter != null) return counter;
+        Counter made = new Counter();
+        counter = counters.putIfAbsent(name, made);
+        return counter == null ? made : counter;
+    }
+
+    /**
+     * The timer with a name, made if there isn't one yet
+     *
+     * @param name timer name, with any labels
+     */
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer != null) return timer;
+        Timer made = new Timer();
+        timer = timers.putIfAbsent(name, made);
+        return timer == null ? made : timer;
+    }
+
+    /**
+     * Read every counter and timer. Each one is read consistently enough for monitoring, but
+     * updates made while the snapshot is taken may show up in some figures and not others.
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            counterValues.put(counter.getKey(), counter.getValue().get());
+        }
+        Map<String, TimerSnapshot> timerValues = new TreeMap<>();
+        for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+            timerValues.put(timer.getKey(), timer.getValue().snapshot());
+        }
+        return new Snapshot(counterValues, timerValues);
+    }
+
+    /** A count that only goes up */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        /**
+         * Add one
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * Add to the count
+         *
+         * @param n amount to add
+         */
+        public void add(long n) {
+            value.add(n);
+        }
+
+        /**
+         * Getter for the count
+         */
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /** Counts durations into a LatencyHistogram, from any number of threads */
+    public static final class Timer {
+        private final LatencyRecorder recorder = new LatencyRecorder();
+        private final LatencyHistogram total = new LatencyHistogram(); //everything handed over by the recorder so far
+        private final LatencyHistogram interval = new LatencyHistogram(); //reused by each snapshot
+
+        Timer() {
+        }
+
+        /**
+         * Record a duration
+         *
+         * @param nanos duration in nanoseconds; negative ones count as 0
+         */
+        public void record(long nanos) {
+            recorder.record(Math.max(0, nanos));
+        }
+
+        synchronized TimerSnapshot snapshot() {
+            recorder.swap(interval);
+            total.add(interval);
+            LatencyHistogram copy = new LatencyHistogram();
+            copy.add(total);
+            return new TimerSnapshot(copy);
+        }
+    }
+
+    /** The state of a Timer when a snapshot was taken */
+    public static final class TimerSnapshot {
+        private final LatencyHistogram histogram;
+
+        TimerSnapshot(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        /**
+         * Getter for number of durations recorded
+         */
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        /**
+         * Getter for total of the durations, in nanoseconds
+         */
+        public long getSum() {
+            return histogram.getSum();
+        }
+
+        /**
+         * Getter for longest duration, in nanoseconds
+         */
+        public long getMax() {
+            return histogram.getMax();
+        }
+
+        /**
+         * Getter for mean duration, in nanoseconds
+         */
+        public double getMean() {
+            return histogram.getMean();
+        }
+
+        /**
+         * A duration at or above the given percentile, within about 3% (see LatencyHistogram)
+         *
+         * @param percentile 0 to 100
+         */
+        public long getValueAtPercentile(double percentile) {
+            return histogram.getValueAtPercentile(percentile);
+        }
+    }
+
+    /** Every counter and timer of a registry at one point in time */
+    public static final class Snapshot {
+        private final Map<String, Long> counters;
+        private final Map<String, TimerSnapshot> timers;
+
+        Snapshot(Map<String, Long> counters, Map<String, TimerSnapshot> timers) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.timers = Collections.unmodifiableMap(timers);
+        }
+
+        /**
+         * Getter for the counters, by name
+         */
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        /**
+         * Getter for the timers, by name
+         */
+        public Map<String, TimerSnapshot> getTimers() {
+            return timers;
+        }
+
+        /**
+         * Value of a counter, or 0 if there is none by that name
+         *
+         * @param name counter name, with any labels
+         */
+        public long getCounter(String name) {
+            return counters.getOrDefault(name, 0L);
+        }
+
+        /**
+         * A timer, or null if there is none by that name
+         *
+         * @param name timer name, with any labels
+         */
+        public TimerSnapshot getTimer(String name) {
+            return timers.get(name);
+        }
+
+        /**
+         * Write the snapshot in the Prometheus text format. Timers are written as histograms
+         * with a cumulative bucket ending at each power of two (left out where nothing was
+         * added since the last one), plus a gauge for the longest duration.
+         */
+        public String toText() {
+            StringBuilder text = new StringBuilder();
+            String family = null;
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                String name = baseName(counter.getKey());
+                if (!name.equals(family)) text.append("# TYPE ").append(name).append(" counter\n");
+                family = name;
+                text.append(counter.getKey()).append(' ').append(counter.getValue()).append('\n');
+            }
+            for (Map.Entry<String, TimerSnapshot> entry : timers.entrySet()) {
+                String name = baseName(entry.getKey());
+                String labels = entry.getKey().substring(name.length());
+                labels = labels.isEmpty() ? "" : labels.substring(1, labels.length() - 1) + ",";
+                LatencyHistogram timer = entry.getValue().histogram;
+                text.append("# TYPE ").append(name).append(" histogram\n");
+                long cumulative = 0;
+                long written = 0;
+                for (int b = 0; b < LatencyHistogram.BUCKETS - 1; b++) {
+                    cumulative += timer.getBucketCount(b);
+                    long bound = LatencyHistogram.highestValue(b);
+                    if (cumulative == written || ((bound + 1) & bound) != 0) continue; //only at powers of two
+                    written = cumulative;
+                    text.append(name).append("_bucket{").append(labels).append("le=\"").append(bound)
+                            .append("\"} ").append(cumulative).append('\n');
+                }
+                text.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(timer.getCount()).append('\n');
+                String suffix = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+                text.append(name).append("_sum").append(suffix).append(' ').append(timer.getSum()).append('\n');
+                text.append(name).append("_count").append(suffix).append(' ').append(timer.getCount()).append('\n');
+                text.append("# TYPE ").append(name).append("_max gauge\n");
+                text.append(name).append("_max").append(suffix).append(' ').append(timer.getMax()).append('\n');
+            }
+            return text.toString();
+        }
+
+        /**
+         * A metric name without its labels
+         */
+        private static String baseName(String name) {
+            int brace = name.indexOf('{');
+            return brace < 0 ? name : name.substring(0, brace);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package model;
+
+/** Latency probes on the hot paths of the game, for a performance display to read.
+ *
+ * The probes cost one volatile read each while they are off. Turn them on with setEnabled(),
+ * and collect what they recorded with LatencyRecorder.swap().
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public final class PerformanceProbes {
+
+    public static final LatencyRecorder MODEL_TICK = new LatencyRecorder(); //TetrisModel.modelTick, pilot included
+    public static final LatencyRecorder BEST_MOVE = new LatencyRecorder(); //TetrisPilot.bestMove
+    public static final LatencyRecorder CLEAR_ROWS = new LatencyRecorder(); //TetrisBoard.clearRows, in play
+
+    private static volatile boolean enabled;
+
+    private PerformanceProbes() {
+    }
+
+    /**
+     * Returns true if the probes are recording
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn the probes on or off
+     *
+     * @param on true to record
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+}
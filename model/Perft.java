@@ -0,0 +1,317 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Counts the positions a sequence of pieces can reach, the way perft does for chess engines.
+ *
+ * Each piece enters where TetrisModel.addNewPiece puts it, and is moved with the game's own
+ * rules: TetrisModel.computeNewPosition() gives where a move would take it, and the move
+ * stands if the board accepts the piece there. Every position the piece can reach with any
+ * sequence of moves is searched, and wherever a DOWN move fails the piece locks, as in
+ * play. Each distinct lock (rotation and position) is placed, full rows are cleared, and the
+ * search goes on with the next piece. perft(depth) is the number of ways depth pieces can
+ * be locked one after another. Games that end early, because the stack grew too tall or
+ * there was no room for the next piece, don't reach the last depth and aren't counted.
+ *
+ * Any faster move generator must give the same counts, and the time taken is a benchmark
+ * of the board and piece code. A Perft is for one thread; parallelPerft() spreads the first
+ * piece's locks over several.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class Perft {
+
+    private static final TetrisModel.MoveType[] MOVES = TetrisModel.MoveType.values();
+
+    private final TetrisBoard board; //searched on; put back as it was after each lock
+    private final TetrisModel mover; //computes moves on the board
+    private final TetrisPiece[][] rotations; //every rotation of every piece, by shape
+    private final int width, height;
+
+    private final int[] seen; //search number that last reached each position
+    private int search;
+    private final int[] stack; //positions waiting to be searched
+    private int[][] locks = new int[0][]; //locks found at each depth
+    private int[][] saved = new int[0][]; //board at each depth, to go back to
+
+    /**
+     * Constructor
+     *
+     * @param start board to count from; it is copied, and should be committed, with no piece in play
+     */
+    public Perft(TetrisBoard start) {
+        this.width = start.getWidth();
+        this.height = start.getHeight();
+        this.board = new TetrisBoard(width, height);
+        int[] state = new int[start.stateSize()];
+        start.writeState(state, 0);
+        board.readState(state, 0);
+        board.commit();
+
+        this.mover = new TetrisModel(width, height - TetrisModel.BUFFERZONE);
+        mover.board = board;
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        this.rotations = new TetrisPiece[pieces.length][];
+        for (int s = 0; s < pieces.length; s++) {
+            int n = 0;
+            TetrisPiece piece = pieces[s];
+            do {
+                n++;
+                piece = piece.fastRotation();
+            } while (piece != pieces[s]);
+            rotations[s] = new TetrisPiece[n];
+            for (int r = 0; r < n; r++) {
+                rotations[s][r] = piece;
+                piece = piece.fastRotation();
+            }
+        }
+        this.seen = new int[TetrisModel.MAX_ROTATIONS * width * height];
+        this.stack = new int[seen.length];
+    }
+
+    /**
+     * Number of shapes pieces come in
+     */
+    public static int shapes() {
+        return TetrisPiece.getPieces().length;
+    }
+
+    /**
+     * Count the ways a sequence of pieces can be locked onto the board
+     *
+     * @param sequence shapes (indexes into TetrisPiece.getPieces()) in the order they come;
+     *                 repeated if shorter than depth
+     * @param depth number of pieces to lock
+     *
+     * @return number of positions after depth pieces
+     */
+    public long perft(int[] sequence, int depth) {
+        if (depth <= 0) return 1;
+        ensureDepth(depth);
+        return count(sequence, 0, depth);
+    }
+
+    /**
+     * The locks of the first piece, each with the number of positions reached from it,
+     * to compare with another generator and find where they first disagree
+     *
+     * @param sequence shapes in the order they come
+     * @param depth number of pieces to lock, including the first
+     *
+     * @return lines like "L1 rotation 2 at 3,0: 1234", one per lock
+     */
+    public List<String> divide(int[] sequence, int depth) {
+        ensureDepth(Math.max(1, depth));
+        int shape = sequence[0];
+        int n = findLocks(shape, 0);
+        List<String> lines = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int lock = locks[0][i];
+            long nodes = countFrom(sequence, 0, depth, shape, lock);
+            lines.add(String.format("%s rotation %d at %d,%d: %d", shapeName(shape), lock / (width * height),
+                    (lock / height) % width, lock % height, nodes));
+        }
+        return lines;
+    }
+
+    /**
+     * Count with several threads, each taking some of the first piece's locks
+     *
+     * @param start board to count from
+     * @param sequence shapes in the order they come
+     * @param depth number of pieces to lock
+     * @param threads threads to use
+     *
+     * @return number of positions after depth pieces
+     */
+    public static long parallelPerft(TetrisBoard start, int[] sequence, int depth, int threads) throws InterruptedException {
+        if (depth <= 1 || threads <= 1) return new Perft(start).perft(sequence, depth);
+        Perft root = new Perft(start);
+        root.ensureDepth(depth);
+        int n = root.findLocks(sequence[0], 0);
+        int[] firstLocks = Arrays.copyOf(root.locks[0], n);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "tetris-perft");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Long>> parts = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                parts.add(pool.submit(() -> {
+                    Perft worker = new Perft(start);
+                    worker.ensureDepth(depth);
+                    long nodes = 0;
+                    for (int i = first; i < firstLocks.length; i += threads) {
+                        nodes += worker.countFrom(sequence, 0, depth, sequence[0], firstLocks[i]);
+                    }
+                    return nodes;
+                }));
+            }
+            long nodes = 0;
+            for (Future<Long> part : parts) {
+                nodes += part.get();
+            }
+            return nodes;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Perft worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Name of a shape, as in TetrisPiece's constants (e.g. "STICK")
+     *
+     * @param shape index into TetrisPiece.getPieces()
+     */
+    public static String shapeName(int shape) {
+        switch (shape) {
+            case 0: return "STICK";
+            case 1: return "L1";
+            case 2: return "L2";
+            case 3: return "S1";
+            case 4: return "S2";
+            case 5: return "SQUARE";
+            case 6: return "PYRAMID";
+            default: throw new IllegalArgumentException("Bad shape: " + shape);
+        }
+    }
+
+    /**
+     * Shape index for a name given by shapeName()
+     *
+     * @param name shape name, in any case
+     */
+    public static int shapeForName(String name) {
+        for (int s = 0; s < shapes(); s++) {
+            if (shapeName(s).equalsIgnoreCase(name)) return s;
+        }
+        throw new IllegalArgumentException("Bad shape: " + name);
+    }
+
+    /**
+     * Count from the board as it is, with the piece at depth level next
+     */
+    private long count(int[] sequence, int level, int depth) {
+        int shape = sequence[level % sequence.length];
+        int n = findLocks(shape, level);
+        if (level == depth - 1) return n;
+        long nodes = 0;
+        for (int i = 0; i < n; i++) {
+            nodes += countFrom(sequence, level, depth, shape, locks[level][i]);
+        }
+        return nodes;
+    }
+
+    /**
+     * Lock a piece, count what follows, then put the board back
+     */
+    private long countFrom(int[] sequence, int level, int depth, int shape, int lock) {
+        if (level == depth - 1) return 1;
+        board.writeState(saved[level], 0);
+        int rotation = lock / (width * height);
+        board.placePiece(rotations[shape][rotation], (lock / height) % width, lock % height);
+        board.clearRows();
+        board.commit();
+        long nodes = 0;
+        if (board.getMaxHeight() <= height - TetrisModel.BUFFERZONE) { //else the game is over
+            nodes = count(sequence, level + 1, depth);
+        }
+        board.readState(saved[level], 0);
+        return nodes;
+    }
+
+    /**
+     * Search every position a new piece can reach, and collect the ones it can lock in
+     *
+     * @param shape shape of the piece
+     * @param level depth, for where to put the locks
+     *
+     * @return number of locks found
+     */
+    private int findLocks(int shape, int level) {
+        TetrisPiece spawn = rotations[shape][0];
+        int x = (width - spawn.getWidth()) / 2; //where addNewPiece puts it
+        int y = height - spawn.getHeight();
+        if (!fits(spawn, x, y)) return 0; //no room: game over
+
+        search++;
+        int[] found = locks[level];
+        int count = 0;
+        int top = 0;
+        stack[top++] = key(0, x, y);
+        seen[stack[0]] = search;
+        while (top > 0) {
+            int position = stack[--top];
+            int rotation = position / (width * height);
+            mover.currentPiece = rotations[shape][rotation];
+            mover.currentX = (position / height) % width;
+            mover.currentY = position % height;
+            for (TetrisModel.MoveType verb : MOVES) {
+                mover.computeNewPosition(verb);
+                boolean moved = (mover.newPiece != mover.currentPiece || mover.newX != mover.currentX || mover.newY != mover.currentY)
+                        && fits(mover.newPiece, mover.newX, mover.newY);
+                if (moved) {
+                    int next = key(rotationOf(shape, mover.newPiece), mover.newX, mover.newY);
+                    if (seen[next] != search) {
+                        seen[next] = search;
+                        stack[top++] = next;
+                    }
+                } else if (verb == TetrisModel.MoveType.DOWN) {
+                    found[count++] = position; //can't fall: it locks here
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Would the board accept the piece there? (see TetrisModel.setCurrent)
+     */
+    private boolean fits(TetrisPiece piece, int x, int y) {
+        int result = board.placePiece(piece, x, y);
+        board.undo();
+        return result <= TetrisBoard.ADD_ROW_FILLED;
+    }
+
+    /**
+     * Number of a piece among the rotations of its shape
+     */
+    private int rotationOf(int shape, TetrisPiece piece) {
+        for (int r = 0; r < rotations[shape].length; r++) {
+            if (rotations[shape][r] == piece) return r;
+        }
+        throw new IllegalStateException("Not a rotation of " + shapeName(shape));
+    }
+
+    /**
+     * A position as one int; only positions that fit on the board are ever numbered
+     */
+    private int key(int rotation, int x, int y) {
+        return (rotation * width + x) * height + y;
+    }
+
+    /**
+     * Make room for the locks and saved boards of each depth
+     */
+    private void ensureDepth(int depth) {
+        if (locks.length >= depth) return;
+        int[][] moreLocks = new int[depth][];
+        int[][] moreSaved = new int[depth][];
+        for (int d = 0; d < depth; d++) {
+            moreLocks[d] = d < locks.length ? locks[d] : new int[seen.length];
+            moreSaved[d] = d < saved.length ? saved[d] : new int[board.stateSize()];
+        }
+        locks = moreLocks;
+        saved = moreSaved;
+    }
+}
@@ -0,0 +1,20 @@
+package model;
+
+/** Told by a TetrisModel each time the piece in play comes to rest.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public interface PlacementListener {
+
+    /**
+     * A piece has come to rest, and full rows have not been cleared yet. The board holds the
+     * piece, uncommitted, so undo() gives the board as it was before the piece was placed.
+     * A listener may try other placements on the board, as long as it leaves it as it found it.
+     *
+     * @param model the model the piece was played in
+     * @param piece the piece
+     * @param x where the piece came to rest, x
+     * @param y where the piece came to rest, y
+     */
+    void piecePlaced(TetrisModel model, TetrisPiece piece, int x, int y);
+}
@@ -0,0 +1,284 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** Reads a replay recorded by a ReplayWriter.
+ *
+ * seek() rebuilds the game as it was after any tick: it loads the keyframe of the block
+ * that tick falls in and replays the moves from there, so it never decodes more than one
+ * block. The block index comes from the file's trailer, or from a scan of the blocks if
+ * the recording was never closed.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class ReplayReader implements AutoCloseable {
+
+    /** Told about each piece that came to rest, by forEachPlacement() */
+    public interface PlacementVisitor {
+        /**
+         * A piece came to rest
+         *
+         * @param tick the tick it happened in, counting from 0
+         * @param pieceId id of the piece (see TetrisModel.pieceId)
+         * @param x position of the piece, x
+         * @param y position of the piece, y
+         */
+        void placed(long tick, int pieceId, int x, int y);
+    }
+
+    private static final TetrisModel.MoveType[] MOVES = TetrisModel.MoveType.values();
+
+    private final FileChannel channel;
+    private long[] firstTicks; //first tick of each block
+    private long[] offsets; //file offset of each block
+    private int blocks;
+    private long ticks; //ticks in the whole replay
+
+    private final Inflater inflater = new Inflater();
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(ReplayWriter.BLOCK_HEADER_SIZE);
+    private byte[] compressed = new byte[0];
+    private byte[] raw = new byte[0];
+    private int rawLength;
+    private int at; //read position in raw
+
+    /**
+     * Constructor. Opens the replay and reads its index.
+     *
+     * @param file replay file
+     */
+    public ReplayReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(ReplayWriter.HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt(0) != ReplayWriter.MAGIC) throw new IOException("Not a replay: " + file);
+        if (header.getShort(4) != ReplayWriter.VERSION) throw new IOException("Unsupported replay version: " + header.getShort(4));
+        if (!readTrailer()) scanBlocks();
+    }
+
+    /**
+     * Getter for number of ticks in the replay
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Getter for number of blocks (and keyframes) in the replay
+     */
+    public int getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Rebuild the game as it was after the given number of ticks
+     *
+     * @param tick ticks to play; past the end of the replay, the final state is returned
+     *
+     * @return a model in that state, in human mode
+     */
+    public TetrisModel seek(long tick) throws IOException {
+        if (blocks == 0) throw new IOException("Replay is empty");
+        int b = Arrays.binarySearch(firstTicks, 0, blocks, tick); //every block has at least one tick
+        if (b < 0) b = Math.max(0, -b - 2);
+
+        loadBlock(b);
+        int[] keyframe = new int[(int) getVarint()];
+        for (int i = 0; i < keyframe.length; i++) {
+            keyframe[i] = getInt();
+        }
+        TetrisModel model = new TetrisModel();
+        model.restore(keyframe);
+        model.setHumanPilotMode(); //moves come from the replay, not from a pilot
+
+        long done = firstTicks[b];
+        while (at < rawLength) {
+            long token = getVarint();
+            int kind = (int) (token & ReplayWriter.KIND_MASK);
+            if (kind == ReplayWriter.PLACEMENT) {
+                getVarint();
+                getVarint();
+                getVarint();
+                continue;
+            }
+            boolean tickStart = (token & ReplayWriter.TICK_START) != 0;
+            for (long run = token >>> ReplayWriter.RUN_SHIFT; run > 0; run--) {
+                if (tickStart) {
+                    if (done == tick) return model;
+                    done++;
+                }
+                model.replayMove(MOVES[kind]);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Visit every placement in the replay, in order, without replaying the game
+     *
+     * @param visitor told about each placement
+     */
+    public void forEachPlacement(PlacementVisitor visitor) throws IOException {
+        for (int b = 0; b < blocks; b++) {
+            loadBlock(b);
+            at += 4 * (int) getVarint(); //skip the keyframe
+            long tick = firstTicks[b] - 1;
+            int x = 0, y = 0;
+            while (at < rawLength) {
+                long token = getVarint();
+                if ((token & ReplayWriter.KIND_MASK) == ReplayWriter.PLACEMENT) {
+                    int pieceId = (int) getVarint();
+                    x += ReplayWriter.unzigzag((int) getVarint());
+                    y += ReplayWriter.unzigzag((int) getVarint());
+                    visitor.placed(tick, pieceId, x, y);
+                } else if ((token & ReplayWriter.TICK_START) != 0) {
+                    tick += token >>> ReplayWriter.RUN_SHIFT;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    /**
+     * Read the seek index from the trailer
+     *
+     * @return false if there is no valid trailer
+     */
+    private boolean readTrailer() throws IOException {
+        long size = channel.size();
+        if (size < ReplayWriter.HEADER_SIZE + 16) return false;
+        ByteBuffer end = ByteBuffer.allocate(16);
+        readFully(end, size - 16);
+        long start = end.getLong(0);
+        int count = end.getInt(8);
+        if (end.getInt(12) != ReplayWriter.TRAILER_MAGIC || count < 0 || start + 16L * count + 16 != size) return false;
+
+        ByteBuffer entries = ByteBuffer.allocate(16 * count);
+        readFully(entries, start);
+        firstTicks = new long[count];
+        offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            firstTicks[i] = entries.getLong();
+            offsets[i] = entries.getLong();
+        }
+        blocks = count;
+        if (count > 0) {
+            readBlockHeader(offsets[count - 1]);
+            ticks = firstTicks[count - 1] + blockHeader.getInt(16);
+        }
+        return true;
+    }
+
+    /**
+     * Build the seek index by walking the blocks, stopping at the first torn or corrupt one
+     */
+    private void scanBlocks() throws IOException {
+        firstTicks = new long[64];
+        offsets = new long[64];
+        long size = channel.size();
+        long position = ReplayWriter.HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (position + ReplayWriter.BLOCK_HEADER_SIZE <= size) {
+            readBlockHeader(position);
+            int compressedSize = blockHeader.getInt(4);
+            if (compressedSize < 0 || position + ReplayWriter.BLOCK_HEADER_SIZE + compressedSize > size) break;
+            ByteBuffer data = ByteBuffer.allocate(compressedSize);
+            readFully(data, position + ReplayWriter.BLOCK_HEADER_SIZE);
+            crc.reset();
+            crc.update(data.array());
+            if ((int) crc.getValue() != blockHeader.getInt(20)) break;
+
+            if (blocks == firstTicks.length) {
+                firstTicks = Arrays.copyOf(firstTicks, blocks * 2);
+                offsets = Arrays.copyOf(offsets, blocks * 2);
+            }
+            firstTicks[blocks] = blockHeader.getLong(8);
+            offsets[blocks] = position;
+            ticks = firstTicks[blocks] + blockHeader.getInt(16);
+            blocks++;
+            position += ReplayWriter.BLOCK_HEADER_SIZE + compressedSize;
+        }
+    }
+
+    /**
+     * Read, check and decompress a block into raw, ready to decode from the start
+     */
+    private void loadBlock(int b) throws IOException {
+        readBlockHeader(offsets[b]);
+        int rawSize = blockHeader.getInt(0);
+        int compressedSize = blockHeader.getInt(4);
+        if (compressed.length < compressedSize) compressed = new byte[compressedSize];
+        if (raw.length < rawSize) raw = new byte[rawSize];
+        readFully(ByteBuffer.wrap(compressed, 0, compressedSize), offsets[b] + ReplayWriter.BLOCK_HEADER_SIZE);
+
+        CRC32 crc = new CRC32();
+        crc.update(compressed, 0, compressedSize);
+        if ((int) crc.getValue() != blockHeader.getInt(20)) throw new IOException("Replay is corrupt (bad checksum in block " + b + ")");
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedSize);
+        try {
+            rawLength = inflater.inflate(raw, 0, rawSize);
+        } catch (DataFormatException e) {
+            throw new IOException("Replay is corrupt (block " + b + ")", e);
+        }
+        if (rawLength != rawSize) throw new IOException("Replay is corrupt (block " + b + " is short)");
+        at = 0;
+    }
+
+    /**
+     * Read the header of the block at the given offset into blockHeader
+     */
+    private void readBlockHeader(long offset) throws IOException {
+        blockHeader.clear();
+        readFully(blockHeader, offset);
+    }
+
+    /**
+     * Read an unsigned varint from the block
+     */
+    private long getVarint() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = raw[at++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Read a 4-byte int from the block
+     */
+    private int getInt() {
+        int value = ((raw[at] & 0xFF) << 24) | ((raw[at + 1] & 0xFF) << 16) | ((raw[at + 2] & 0xFF) << 8) | (raw[at + 3] & 0xFF);
+        at += 4;
+        return value;
+    }
+
+    /**
+     * Fill a buffer from the file, starting at the given offset
+     */
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, offset);
+            if (n < 0) throw new EOFException("Replay is truncated");
+            offset += n;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,343 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** Records a game to an append-only replay file, one move at a time.
+ *
+ * A replay is a list of the moves the model executed (the player's and the pilot's), plus a
+ * record of where each piece came to rest. Moves are run-length encoded tokens, usually one
+ * byte for a whole run of identical moves. The moves are cut into blocks of about
+ * KEYFRAME_INTERVAL moves, and each block starts with a keyframe: a full TetrisModel snapshot
+ * taken just before its first move. A reader can start at any keyframe, so seeking to a tick
+ * only replays part of one block (see ReplayReader).
+ *
+ * The thread that owns the model only appends to an in-memory block. Finished blocks are
+ * compressed and written on a background thread, so the game never waits for the disk.
+ *
+ * File layout, big-endian:
+ * <pre>
+ * header:  int MAGIC, short VERSION, short 0
+ * blocks:  int raw size, int compressed size, long first tick, int ticks,
+ *          int CRC32 of the compressed bytes, then the compressed bytes
+ * trailer: for each block: long first tick, long file offset;
+ *          then long offset of the first entry, int block count, int TRAILER_MAGIC
+ * </pre>
+ * The trailer is written by close(). A file without one (e.g. after a crash) can still be
+ * read; the reader finds the blocks by scanning and stops at the first torn one.
+ *
+ * Inside a block (before compression), numbers are unsigned LEB128 varints:
+ * <pre>
+ * keyframe: snapshot length n, then n ints (4 bytes each)
+ * tokens:   (run &lt;&lt; 4) | (TICK_START if each move starts a tick) | kind
+ *           kind 0-4 is a MoveType (by ordinal), repeated run times;
+ *           kind PLACEMENT is followed by piece id, x and y (zigzag deltas from the last placement)
+ * </pre>
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class ReplayWriter implements AutoCloseable {
+
+    public static final int MAGIC = 0x5452504C; //"TRPL"
+    public static final int TRAILER_MAGIC = 0x54524958; //"TRIX"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int BLOCK_HEADER_SIZE = 24;
+    public static final int KEYFRAME_INTERVAL = 4096; //moves per block, roughly
+
+    static final int TICK_START = 8;
+    static final int KIND_MASK = 7;
+    static final int PLACEMENT = 7;
+    static final int RUN_SHIFT = 4;
+
+    private static final int BLOCK_CAPACITY = 16 * 1024; //initial size of a block buffer; it grows if needed
+    private static final int POOL_SIZE = 4; //block buffers kept for reuse
+
+    private final FileChannel channel;
+    private final ExecutorService writer;
+    private final ArrayBlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private volatile IOException failure; //first write error, reported by close()
+
+    //game thread only
+    private byte[] block;
+    private int length;
+    private int[] keyframe = new int[0];
+    private long ticks; //ticks recorded so far
+    private long blockFirstTick;
+    private int blockMoves;
+    private boolean inBlock; //a block has been started and not yet handed to the writer
+    private boolean keyframeNeeded = true;
+    private int runKind = -1; //the run of identical tokens not yet written
+    private int runLength;
+    private int lastX, lastY; //last placement in this block
+
+    //writer thread only
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressed = new byte[BLOCK_CAPACITY];
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private long position = HEADER_SIZE;
+    private long[] index = new long[64]; //first tick and offset of each block written
+    private int blocks;
+
+    /**
+     * Constructor. Creates (or replaces) the replay file.
+     *
+     * @param file file to record to
+     */
+    public ReplayWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0);
+        header.flip();
+        writeFully(header);
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tetris-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.block = new byte[BLOCK_CAPACITY];
+    }
+
+    /**
+     * Getter for number of ticks recorded
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Record a move, just before the model executes it. Called by the model.
+     *
+     * @param model the model making the move
+     * @param verb the move
+     * @param tickStart true if this is the first move of a tick
+     */
+    void move(TetrisModel model, TetrisModel.MoveType verb, boolean tickStart) {
+        if (tickStart && (keyframeNeeded || blockMoves >= KEYFRAME_INTERVAL)) {
+            startBlock(model);
+        }
+        if (tickStart) ticks++;
+        blockMoves++;
+        int kind = verb.ordinal() | (tickStart ? TICK_START : 0);
+        if (kind == runKind) {
+            runLength++;
+        } else {
+            flushRun();
+            runKind = kind;
+            runLength = 1;
+        }
+    }
+
+    /**
+     * Record where a piece came to rest. Called by the model.
+     *
+     * @param pieceId id of the piece (see TetrisModel.pieceId)
+     * @param x position of the piece, x
+     * @param y position of the piece, y
+     */
+    void placement(int pieceId, int x, int y) {
+        if (!inBlock) return;
+        flushRun();
+        ensure(16);
+        putVarint(PLACEMENT);
+        putVarint(pieceId);
+        putVarint(zigzag(x - lastX));
+        putVarint(zigzag(y - lastY));
+        lastX = x;
+        lastY = y;
+    }
+
+    /**
+     * Start a new block (with a keyframe) at the next tick, because the game has changed
+     * outside of a move (e.g. a new game, or garbage from an opponent). Called by the model.
+     */
+    void requestKeyframe() {
+        keyframeNeeded = true;
+    }
+
+    /**
+     * Write out the block in progress, so everything recorded so far will reach the file
+     * (the trailer is only written by close())
+     */
+    public void flush() {
+        if (inBlock) finishBlock();
+        keyframeNeeded = true;
+    }
+
+    /**
+     * Write out everything recorded, add the seek index and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        writer.execute(this::writeTrailer);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deflater.end();
+        channel.close();
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Finish the current block, if any, and start a new one with a keyframe of the model
+     */
+    private void startBlock(TetrisModel model) {
+        if (inBlock) finishBlock();
+        inBlock = true;
+        keyframeNeeded = false;
+        blockFirstTick = ticks;
+        blockMoves = 0;
+        lastX = 0;
+        lastY = 0;
+
+        int size = model.snapshotSize();
+        if (keyframe.length != size) keyframe = new int[size];
+        model.snapshot(keyframe);
+        ensure(5 + 4 * size);
+        putVarint(size);
+        for (int value : keyframe) {
+            block[length++] = (byte) (value >>> 24);
+            block[length++] = (byte) (value >>> 16);
+            block[length++] = (byte) (value >>> 8);
+            block[length++] = (byte) value;
+        }
+    }
+
+    /**
+     * Hand the current block to the writer thread, and take a fresh buffer for the next one
+     */
+    private void finishBlock() {
+        flushRun();
+        byte[] data = block;
+        int size = length;
+        long firstTick = blockFirstTick;
+        int blockTicks = (int) (ticks - blockFirstTick);
+        writer.execute(() -> writeBlock(data, size, firstTick, blockTicks));
+
+        byte[] next = pool.poll();
+        block = next != null ? next : new byte[BLOCK_CAPACITY]; //never wait for the writer
+        length = 0;
+        inBlock = false;
+    }
+
+    /**
+     * Append the pending run of moves to the block
+     */
+    private void flushRun() {
+        if (runLength == 0) return;
+        ensure(10);
+        putVarint(((long) runLength << RUN_SHIFT) | runKind);
+        runKind = -1;
+        runLength = 0;
+    }
+
+    /**
+     * Compress a block and append it to the file. Runs on the writer thread.
+     */
+    private void writeBlock(byte[] data, int size, long firstTick, int blockTicks) {
+        try {
+            if (failure != null) return;
+            deflater.reset();
+            deflater.setInput(data, 0, size);
+            deflater.finish();
+            int compressedSize = 0;
+            while (!deflater.finished()) {
+                if (compressedSize == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+            }
+            crc.reset();
+            crc.update(compressed, 0, compressedSize);
+
+            blockHeader.clear();
+            blockHeader.putInt(size).putInt(compressedSize).putLong(firstTick).putInt(blockTicks).putInt((int) crc.getValue());
+            blockHeader.flip();
+            writeFully(blockHeader);
+            writeFully(ByteBuffer.wrap(compressed, 0, compressedSize));
+
+            if (2 * blocks + 2 > index.length) index = Arrays.copyOf(index, index.length * 2);
+            index[2 * blocks] = firstTick;
+            index[2 * blocks + 1] = position;
+            blocks++;
+            position += BLOCK_HEADER_SIZE + compressedSize;
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            pool.offer(data);
+        }
+    }
+
+    /**
+     * Append the seek index. Runs on the writer thread, after the last block.
+     */
+    private void writeTrailer() {
+        if (failure != null) return;
+        ByteBuffer trailer = ByteBuffer.allocate(16 * blocks + 16);
+        for (int i = 0; i < 2 * blocks; i++) {
+            trailer.putLong(index[i]);
+        }
+        trailer.putLong(position).putInt(blocks).putInt(TRAILER_MAGIC);
+        trailer.flip();
+        try {
+            writeFully(trailer);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Write all of a buffer to the file
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Make room for at least n more bytes in the block
+     */
+    private void ensure(int n) {
+        if (length + n > block.length) block = Arrays.copyOf(block, Math.max(block.length * 2, length + n));
+    }
+
+    /**
+     * Append an unsigned varint to the block
+     */
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            block[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        block[length++] = (byte) value;
+    }
+
+    /**
+     * Map a signed number to an unsigned one, so small negative numbers stay small
+     */
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Undo zigzag()
+     */
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,485 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/** An index of the saved games in a directory, so they can be listed without opening them.
+ *
+ * The index is an append-only file of fixed-size records, one per save: name, time,
+ * score, pieces played, stack height and a small thumbnail of the board. When a name is
+ * saved again, the newest record wins. Each record carries its own checksum, so a record
+ * torn by a crash is skipped rather than spoiling the rest. A catalog memory-maps the index
+ * when it lists it, and keeps what it read: later listings only read records appended since.
+ * Whether a save's file is still there is checked when it is listed on a page, and saves
+ * found deleted are left out from then on. The first time a directory is listed, the saves
+ * already in it that aren't indexed yet are added, however the index came to be created.
+ *
+ * Every SaveCatalog for the same index in this JVM shares one lock for writing it, so
+ * records appended from different threads (and catalogs) don't interleave.
+ *
+ * Header layout, big-endian, HEADER_SIZE bytes:
+ * <pre>
+ *   0  int    MAGIC
+ *   4  short  VERSION
+ *   6  short  RECORD_SIZE
+ *   8  byte   1 once the saves that were already in the directory have been indexed
+ *   9  bytes  reserved, zero
+ * </pre>
+ *
+ * Record layout, big-endian, RECORD_SIZE bytes:
+ * <pre>
+ *   0  byte   name length, in bytes
+ *   1  bytes  name, UTF-8 (up to MAX_NAME bytes; longer names can't be saved)
+ *  64  long   time saved, in milliseconds since the epoch
+ *  72  int    score
+ *  76  int    pieces played
+ *  80  short  height of the tallest column
+ *  82  byte   thumbnail width (up to THUMB_WIDTH)
+ *  83  byte   thumbnail height (up to THUMB_HEIGHT)
+ *  84  bytes  thumbnail cells, row by row from the bottom, 8 to a byte
+ * 148  int    CRC32 of bytes 0-147
+ * </pre>
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class SaveCatalog {
+
+    public static final String FILE_NAME = "catalog.idx";
+    public static final int MAGIC = 0x54434154; //"TCAT"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 160;
+    public static final int MAX_NAME = 63;
+    public static final int THUMB_WIDTH = 16;
+    public static final int THUMB_HEIGHT = 32;
+    private static final int IMPORTED_OFFSET = 8;
+    private static final int THUMB_OFFSET = 84;
+    private static final int CRC_OFFSET = 148;
+
+    public static final Comparator<Entry> NEWEST_FIRST = Comparator.comparingLong(Entry::getTimestamp).reversed();
+    public static final Comparator<Entry> BEST_SCORE_FIRST = Comparator.comparingInt(Entry::getScore).reversed();
+    public static final Comparator<Entry> BY_NAME = Comparator.comparing(Entry::getName);
+
+    private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>(); //index file -> lock for writing it
+
+    private final Path directory;
+    private final Path file;
+    private final Object lock; //shared by every catalog of this index
+
+    //what has been read from the index, guarded by this
+    private final Map<String, Entry> entries = new LinkedHashMap<>(); //by name, oldest record first
+    private long readSize; //bytes of the index read into entries
+    private FileTime readTime; //modification time of the index when it was read
+    private boolean imported; //has the header's imported flag been seen set?
+    private List<Entry> sorted; //entries in sortedBy order, or null if entries changed since
+    private Comparator<Entry> sortedBy;
+
+    /**
+     * Constructor
+     *
+     * @param directory directory the saves (and the index) live in
+     */
+    public SaveCatalog(Path directory) {
+        this.directory = directory;
+        this.file = directory.resolve(FILE_NAME);
+        this.lock = LOCKS.computeIfAbsent(file.toAbsolutePath().normalize(), path -> new Object());
+    }
+
+    /**
+     * Getter for the index file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Add a record for a save. Must be called from the thread that owns the model.
+     *
+     * @param model the model that was saved
+     * @param name file name of the save
+     * @param timestamp when it was saved, in milliseconds since the epoch
+     */
+    public void append(TetrisModel model, String name, long timestamp) throws IOException {
+        append(record(model, name, timestamp));
+    }
+
+    /**
+     * Add a record built by record()
+     *
+     * @param record a RECORD_SIZE buffer, positioned at its start
+     */
+    public void append(ByteBuffer record) throws IOException {
+        write(List.of(record), false);
+    }
+
+    /**
+     * Add records built by record() to the end of the index, creating it if needed
+     *
+     * @param records RECORD_SIZE buffers, positioned at their start
+     * @param imported set the header's imported flag once they are written
+     */
+    private void write(List<ByteBuffer> records, boolean imported) throws IOException {
+        synchronized (lock) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long end = channel.size();
+                if (end < HEADER_SIZE) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(MAGIC).putShort((short) VERSION).putShort((short) RECORD_SIZE);
+                    header.clear(); //the rest of the header starts as zero
+                    while (header.hasRemaining()) channel.write(header, header.position());
+                    end = HEADER_SIZE;
+                } else {
+                    end = HEADER_SIZE + (end - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE; //over a torn record, if any
+                }
+                for (ByteBuffer record : records) {
+                    ByteBuffer data = record.duplicate();
+                    while (data.hasRemaining()) end += channel.write(data, end);
+                }
+                if (imported) channel.write(ByteBuffer.wrap(new byte[] {1}), IMPORTED_OFFSET);
+            }
+        }
+    }
+
+    /**
+     * Returns true if a save can have the given file name: it must fit in a record
+     *
+     * @param name file name of the save
+     */
+    public static boolean isValidName(String name) {
+        return name.getBytes(StandardCharsets.UTF_8).length <= MAX_NAME;
+    }
+
+    /**
+     * Build the index record for a save. This is the only part that reads the model,
+     * so it can run on the game thread and the append can happen elsewhere.
+     *
+     * @param model the model being saved
+     * @param name file name of the save
+     * @param timestamp when it was saved, in milliseconds since the epoch
+     *
+     * @return a RECORD_SIZE buffer, positioned at its start
+     *
+     * @throws IllegalArgumentException if the name is longer than MAX_NAME bytes
+     */
+    public static ByteBuffer record(TetrisModel model, String name, long timestamp) {
+        TetrisBoard board = model.getBoard();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME) {
+            throw new IllegalArgumentException("Save name longer than " + MAX_NAME + " bytes: " + name);
+        }
+        record.put((byte) nameBytes.length).put(nameBytes);
+        record.position(64);
+        record.putLong(timestamp);
+        record.putInt(model.getScore());
+        record.putInt(model.getCount());
+        record.putShort((short) board.getMaxHeight());
+
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int tw = Math.min(width, THUMB_WIDTH);
+        int th = Math.min(height, THUMB_HEIGHT);
+        record.put((byte) tw).put((byte) th);
+        for (int ty = 0; ty < th; ty++) {
+            for (int tx = 0; tx < tw; tx++) {
+                if (anyFilled(board, tx * width / tw, (tx + 1) * width / tw, ty * height / th, (ty + 1) * height / th)) {
+                    int bit = ty * tw + tx;
+                    int at = THUMB_OFFSET + bit / 8;
+                    record.put(at, (byte) (record.get(at) | (1 << (bit % 8))));
+                }
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, CRC_OFFSET);
+        record.putInt(CRC_OFFSET, (int) crc.getValue());
+        record.clear();
+        return record;
+    }
+
+    /**
+     * List the saves in the index. The first time, saves in the directory that aren't indexed yet are indexed.
+     * The total counts matching saves on later pages even if their files have been deleted, until they are shown.
+     *
+     * @param filter which entries to include, or null for all
+     * @param order order to list them in
+     * @param page page number, from 0
+     * @param pageSize entries per page
+     *
+     * @return the requested page
+     */
+    public synchronized Page list(Predicate<Entry> filter, Comparator<Entry> order, int page, int pageSize) throws IOException {
+        read();
+        if (!imported) {
+            importSaves();
+            read();
+        }
+        if (sorted == null || sortedBy != order) {
+            sorted = new ArrayList<>(entries.values());
+            sorted.sort(order);
+            sortedBy = order;
+        }
+
+        int from = page * pageSize;
+        List<Entry> shown = new ArrayList<>();
+        int total = 0;
+        for (Iterator<Entry> it = sorted.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (filter != null && !filter.test(entry)) continue;
+            if (total >= from && shown.size() < pageSize) {
+                if (!Files.exists(directory.resolve(entry.name))) { //deleted since it was saved
+                    it.remove();
+                    entries.remove(entry.name);
+                    continue;
+                }
+                shown.add(entry);
+            }
+            total++;
+        }
+        return new Page(shown, page, pageSize, total);
+    }
+
+    /**
+     * Add a record for each save in the directory that isn't indexed yet, and flag the index as
+     * imported. Saves that can't be loaded are left out, as are any whose names don't fit in a record.
+     */
+    private void importSaves() throws IOException {
+        if (!Files.isDirectory(directory)) return;
+        synchronized (lock) {
+            read(); //another catalog may have just done it
+            if (imported) return;
+            List<ByteBuffer> records = new ArrayList<>();
+            try (DirectoryStream<Path> saves = Files.newDirectoryStream(directory, "*.ser")) {
+                for (Path save : saves) {
+                    String name = save.getFileName().toString();
+                    if (!isValidName(name) || entries.containsKey(name)) continue;
+                    try {
+                        records.add(record(TetrisModel.loadModel(save.toFile()), name, Files.getLastModifiedTime(save).toMillis()));
+                    } catch (IOException e) {
+                        //not a save we can read, so there's nothing to list
+                    }
+                }
+            }
+            write(records, true); //even if empty, so the directory is only scanned once
+        }
+    }
+
+    /**
+     * Bring entries up to date with the index. Only records appended since the last read are
+     * read, unless the index was changed in place (or replaced), when it is read again from the start.
+     * Later records replace earlier ones of the same name.
+     */
+    private synchronized void read() throws IOException {
+        if (!Files.exists(file)) {
+            forget();
+            return;
+        }
+        FileTime time = Files.getLastModifiedTime(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == readSize && time.equals(readTime)) return;
+            if (size <= readSize) forget();
+
+            if (readSize == 0 || !imported) {
+                if (size < HEADER_SIZE) return; //not even a header yet
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining()) channel.read(header, header.position());
+                if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION || header.getShort(6) != RECORD_SIZE) {
+                    throw new IOException("Not a save catalog: " + file);
+                }
+                imported = header.get(IMPORTED_OFFSET) != 0;
+                readSize = Math.max(readSize, HEADER_SIZE);
+            }
+
+            long end = readSize + (size - readSize) / RECORD_SIZE * RECORD_SIZE; //a torn record at the end waits
+            if (end > readSize) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, readSize, end - readSize);
+                CRC32 crc = new CRC32();
+                for (int at = 0; at < map.limit(); at += RECORD_SIZE) {
+                    ByteBuffer record = map.duplicate();
+                    record.position(at).limit(at + CRC_OFFSET);
+                    crc.reset();
+                    crc.update(record);
+                    if ((int) crc.getValue() != map.getInt(at + CRC_OFFSET)) continue; //torn or corrupt record
+                    Entry entry = new Entry(map, at);
+                    entries.remove(entry.name); //so the newest version is also the latest in order
+                    entries.put(entry.name, entry);
+                }
+                sorted = null;
+                readSize = end;
+            }
+            readTime = time;
+        }
+    }
+
+    /**
+     * Forget what has been read from the index, so it is read again from the start
+     */
+    private void forget() {
+        entries.clear();
+        sorted = null;
+        readSize = 0;
+        readTime = null;
+        imported = false;
+    }
+
+    /**
+     * Is any cell in the given block of the board filled?
+     */
+    private static boolean anyFilled(TetrisBoard board, int x0, int x1, int y0, int y1) {
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                if (board.getGrid(x, y)) return true;
+            }
+        }
+        return false;
+    }
+
+    /** One page of a listing */
+    public static final class Page {
+        private final List<Entry> entries;
+        private final int page;
+        private final int pageSize;
+        private final int total;
+
+        private Page(List<Entry> entries, int page, int pageSize, int total) {
+            this.entries = entries;
+            this.page = page;
+            this.pageSize = pageSize;
+            this.total = total;
+        }
+
+        /**
+         * Getter for the entries on this page
+         */
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Getter for page number
+         */
+        public int getPage() {
+            return page;
+        }
+
+        /**
+         * Getter for number of pages
+         */
+        public int getPageCount() {
+            return Math.max(1, (total + pageSize - 1) / pageSize);
+        }
+
+        /**
+         * Getter for number of entries that matched, on all pages
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    /** What the index knows about one save */
+    public static final class Entry {
+        private final String name;
+        private final long timestamp;
+        private final int score;
+        private final int count;
+        private final int maxHeight;
+        private final int thumbWidth;
+        private final int thumbHeight;
+        private final byte[] thumbnail;
+
+        private Entry(ByteBuffer map, int at) {
+            int length = map.get(at) & 0xFF;
+            byte[] nameBytes = new byte[Math.min(length, MAX_NAME)];
+            map.get(at + 1, nameBytes);
+            this.name = new String(nameBytes, StandardCharsets.UTF_8);
+            this.timestamp = map.getLong(at + 64);
+            this.score = map.getInt(at + 72);
+            this.count = map.getInt(at + 76);
+            this.maxHeight = map.getShort(at + 80);
+            this.thumbWidth = map.get(at + 82);
+            this.thumbHeight = map.get(at + 83);
+            this.thumbnail = new byte[CRC_OFFSET - THUMB_OFFSET];
+            map.get(at + THUMB_OFFSET, thumbnail);
+        }
+
+        /**
+         * Getter for file name of the save
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Getter for time saved, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Getter for score
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * Getter for pieces played
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Getter for height of the tallest column
+         */
+        public int getMaxHeight() {
+            return maxHeight;
+        }
+
+        /**
+         * Getter for thumbnail width, in cells
+         */
+        public int getThumbWidth() {
+            return thumbWidth;
+        }
+
+        /**
+         * Getter for thumbnail height, in cells
+         */
+        public int getThumbHeight() {
+            return thumbHeight;
+        }
+
+        /**
+         * Returns true if the given thumbnail cell is filled
+         *
+         * @param x thumbnail position, x
+         * @param y thumbnail position, y (0 is the bottom)
+         */
+        public boolean getThumbCell(int x, int y) {
+            int bit = y * thumbWidth + x;
+            return (thumbnail[bit / 8] & (1 << (bit % 8))) != 0;
+        }
+    }
+}
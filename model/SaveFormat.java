@@ -0,0 +1,269 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/** The binary format for saved games.
+ *
+ * A save holds only the game state, not the object graph: pieces are stored by id, the
+ * random generator by its 48-bit state, and the board (without the piece in play) as one
+ * bit per cell. A default board saves in 67 bytes. Every field is written explicitly, so
+ * saves don't depend on how the model classes are laid out.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *  0  int    MAGIC
+ *  4  short  VERSION
+ *  6  short  board width
+ *  8  short  board height
+ * 10  byte   flags (FLAG_GAME_ON, FLAG_AUTOPILOT)
+ * 11  int    score
+ * 15  int    pieces played
+ * 19  short  id of the piece in play (see TetrisModel.pieceId), or -1
+ * 21  short  x of the piece in play
+ * 23  short  y of the piece in play
+ * 25  long   state of the piece generator
+ * 33  bytes  board cells, row by row from the bottom, 8 to a byte
+ * ..  int    CRC32 of everything before it
+ * </pre>
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public final class SaveFormat {
+
+    public static final int MAGIC = 0x54545253; //"TTRS"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 33;
+    public static final int CHECKSUM_SIZE = 4;
+
+    static final int FLAG_GAME_ON = 1;
+    static final int FLAG_AUTOPILOT = 2;
+
+    /**
+     * Not instantiable
+     */
+    private SaveFormat() {
+    }
+
+    /**
+     * Returns the number of bytes a save of the given model takes
+     *
+     * @param model model to save
+     *
+     * @return size in bytes
+     */
+    public static int encodedSize(TetrisModel model) {
+        TetrisBoard board = model.getBoard();
+        return HEADER_SIZE + cellBytes(board.getWidth(), board.getHeight()) + CHECKSUM_SIZE;
+    }
+
+    /**
+     * Write a save of the model into a buffer. Must be called from the thread that owns the model.
+     *
+     * @param model model to save
+     * @param out buffer with at least encodedSize(model) bytes remaining
+     */
+    public static void encode(TetrisModel model, ByteBuffer out) {
+        TetrisBoard board = model.getBoard();
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int start = out.position();
+
+        out.putInt(MAGIC);
+        out.putShort((short) VERSION);
+        out.putShort((short) width);
+        out.putShort((short) height);
+        out.put((byte) ((model.gameOn ? FLAG_GAME_ON : 0) | (model.getAutoPilotMode() ? FLAG_AUTOPILOT : 0)));
+        out.putInt(model.score);
+        out.putInt(model.count);
+        out.putShort((short) (pieceInPlay(model) == null ? -1 : model.pieceId(model.currentPiece)));
+        out.putShort((short) model.currentX);
+        out.putShort((short) model.currentY);
+        out.putLong(model.random == null ? 0 : model.random.getState());
+
+        int bits = 0;
+        int nbits = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (board.getGrid(x, y) && !inCurrentPiece(model, x, y)) bits |= 1 << nbits;
+                if (++nbits == 8) {
+                    out.put((byte) bits);
+                    bits = 0;
+                    nbits = 0;
+                }
+            }
+        }
+        if (nbits != 0) out.put((byte) bits);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer written = out.duplicate();
+        written.position(start).limit(out.position());
+        crc.update(written);
+        out.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Read a save from a buffer and build a model from it. The model is in human mode if it
+     * was saved that way, with a new AutoPilot, and no event bus.
+     *
+     * @param in buffer positioned at the start of a save
+     *
+     * @return the loaded model
+     *
+     * @throws IOException if the data is not a save, is from an unknown version, or is corrupt
+     */
+    public static TetrisModel decode(ByteBuffer in) throws IOException {
+        int start = in.position();
+        if (in.remaining() < HEADER_SIZE) throw new EOFException("Save is truncated");
+        if (in.getInt() != MAGIC) throw new IOException("Not a saved game");
+        int version = in.getShort();
+        if (version != VERSION) throw new IOException("Unsupported save version: " + version);
+        int width = in.getShort();
+        int height = in.getShort();
+        if (width <= 0 || height <= 0) throw new IOException("Bad board size: " + width + "x" + height);
+        int flags = in.get();
+        int score = in.getInt();
+        int count = in.getInt();
+        int pieceId = in.getShort();
+        int x = in.getShort();
+        int y = in.getShort();
+        long state = in.getLong();
+
+        int cellBytes = cellBytes(width, height);
+        if (in.remaining() < cellBytes + CHECKSUM_SIZE) throw new EOFException("Save is truncated");
+        CRC32 crc = new CRC32();
+        ByteBuffer covered = in.duplicate();
+        covered.position(start).limit(in.position() + cellBytes);
+        crc.update(covered);
+        int expected = in.getInt(in.position() + cellBytes);
+        if (expected != (int) crc.getValue()) throw new IOException("Save is corrupt (bad checksum)");
+
+        boolean[] cells = new boolean[width * height];
+        int bits = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if ((i & 7) == 0) bits = in.get();
+            cells[i] = (bits & (1 << (i & 7))) != 0;
+        }
+        in.getInt(); //checksum, already checked
+
+        return build(new TetrisModel(), width, height, cells, flags, score, count, pieceId, x, y, state);
+    }
+
+    /**
+     * Set up a new model with the fields of a save
+     *
+     * @param model a new model
+     * @param cells board cells, row by row from the bottom, without the piece in play
+     * @param pieceId id of the piece in play, or -1
+     *
+     * @return the model
+     *
+     * @throws IOException if the piece in play doesn't fit on the board
+     */
+    static TetrisModel build(TetrisModel model, int width, int height, boolean[] cells, int flags, int score, int count,
+                             int pieceId, int x, int y, long state) throws IOException {
+        if (model.board.getWidth() != width || model.board.getHeight() != height) {
+            model.board = new TetrisBoard(width, height);
+        }
+        model.board.setCells(cells);
+        model.score = score;
+        model.count = count;
+        model.random = new GameRandom();
+        model.random.setState(state);
+        if ((flags & FLAG_AUTOPILOT) != 0) model.setAutoPilotMode();
+        if (pieceId >= 0) {
+            if (model.setCurrent(model.pieceForId(pieceId), x, y) > TetrisBoard.ADD_ROW_FILLED) {
+                throw new IOException("Save is corrupt (piece in play doesn't fit)");
+            }
+        }
+        model.gameOn = (flags & FLAG_GAME_ON) != 0;
+        return model;
+    }
+
+    /**
+     * Write a save of the model to a channel
+     *
+     * @param model model to save
+     * @param channel channel to write to
+     */
+    public static void write(TetrisModel model, WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(model));
+        encode(model, buffer);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Read a save from a channel
+     *
+     * @param channel channel positioned at the start of a save
+     *
+     * @return the loaded model
+     */
+    public static TetrisModel read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header);
+        int width = header.getShort(6);
+        int height = header.getShort(8);
+        if (header.getInt(0) != MAGIC) throw new IOException("Not a saved game");
+        if (width <= 0 || height <= 0) throw new IOException("Bad board size: " + width + "x" + height);
+
+        ByteBuffer save = ByteBuffer.allocate(HEADER_SIZE + cellBytes(width, height) + CHECKSUM_SIZE);
+        header.flip();
+        save.put(header);
+        readFully(channel, save);
+        save.flip();
+        return decode(save);
+    }
+
+    /**
+     * Check whether a buffer starts with a save in this format
+     *
+     * @param start the first bytes of a file
+     *
+     * @return true if they are the magic number of this format
+     */
+    public static boolean isSaveFormat(ByteBuffer start) {
+        return start.remaining() >= 4 && start.getInt(start.position()) == MAGIC;
+    }
+
+    /**
+     * The piece still in play, if any. Once the game is over, the last piece is part of the board.
+     */
+    static TetrisPiece pieceInPlay(TetrisModel model) {
+        return model.gameOn ? model.currentPiece : null;
+    }
+
+    /**
+     * Is the given cell part of the piece in play?
+     */
+    static boolean inCurrentPiece(TetrisModel model, int x, int y) {
+        if (pieceInPlay(model) == null) return false;
+        for (TetrisPoint point : model.currentPiece.getBody()) {
+            if (model.currentX + point.x == x && model.currentY + point.y == y) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Bytes needed for the board cells
+     */
+    private static int cellBytes(int width, int height) {
+        return (width * height + 7) / 8;
+    }
+
+    /**
+     * Fill the buffer from the channel
+     */
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Save is truncated");
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Writes saved games in the background, so a slow disk never holds up the game.
+ *
+ * A save happens in two steps. On the thread that owns the model, save() encodes the game
+ * (and its catalog record) into memory; that copy is all the game thread pays for. The bytes
+ * are then written on a single background thread, in the order the saves were made.
+ *
+ * Files are replaced atomically: the save is written to a temporary file next to the target,
+ * forced to disk, and renamed over the target. After a crash the target holds either the old
+ * save or the new one, never a torn mix.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class SaveWriter {
+
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /** Told when a save is on disk, or has failed. Called on the writer thread. */
+    public interface Listener {
+        /**
+         * The save is on disk
+         *
+         * @param file the file saved to
+         */
+        void saved(File file);
+
+        /**
+         * The save could not be written; any previous file of the same name is untouched
+         *
+         * @param file the file that was being saved to
+         * @param e what went wrong
+         */
+        void failed(File file, IOException e);
+    }
+
+    private final ExecutorService executor;
+
+    /**
+     * Constructor. Starts the writer thread.
+     */
+    public SaveWriter() {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tetris-save");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Save the model to a file, and add it to the catalog of the file's directory. Must be
+     * called from the thread that owns the model; returns as soon as the game is copied.
+     *
+     * @param model model to save
+     * @param file file to save to
+     * @param listener told when the save is done, or null
+     *
+     * @throws IllegalArgumentException if the file name is too long for the catalog; nothing is written
+     */
+    public void save(TetrisModel model, File file, Listener listener) {
+        ByteBuffer data = encode(model);
+        ByteBuffer record = SaveCatalog.record(model, file.getName(), System.currentTimeMillis());
+        executor.execute(() -> {
+            try {
+                write(file, data, record);
+            } catch (IOException e) {
+                if (listener != null) listener.failed(file, e);
+                return;
+            }
+            if (listener != null) listener.saved(file);
+        });
+    }
+
+    /**
+     * Finish the saves already started, then stop the writer thread
+     *
+     * @param timeoutMillis longest time to wait for them
+     *
+     * @return true if every save finished in time
+     */
+    public boolean shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Encode a save of the model into memory
+     *
+     * @param model model to save
+     *
+     * @return the save, ready to be written
+     */
+    static ByteBuffer encode(TetrisModel model) {
+        ByteBuffer data = ByteBuffer.allocate(SaveFormat.encodedSize(model));
+        SaveFormat.encode(model, data);
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Write an encoded save and its catalog record. The catalog is only updated once the save is on disk.
+     *
+     * @param file file to save to
+     * @param data the encoded save
+     * @param record catalog record for the save
+     */
+    static void write(File file, ByteBuffer data, ByteBuffer record) throws IOException {
+        FlightEvents.GameSaved saved = FlightEvents.beginGameSaved();
+        long bytes = data.remaining();
+        try {
+            Path target = file.getAbsoluteFile().toPath();
+            writeAtomically(target, data);
+            new SaveCatalog(target.getParent()).append(record);
+            if (saved != null) saved.succeeded = true;
+        } finally {
+            if (saved != null) {
+                saved.path = file.getPath();
+                saved.bytes = bytes;
+                saved.commit();
+            }
+        }
+    }
+
+    /**
+     * Replace a file with new contents, so that a crash leaves either the old contents or the new ones
+     *
+     * @param target file to replace
+     * @param data new contents
+     */
+    public static void writeAtomically(Path target, ByteBuffer data) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer remaining = data.duplicate();
+                while (remaining.hasRemaining()) {
+                    channel.write(remaining);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        syncDirectory(target.getParent());
+    }
+
+    /**
+     * Force a directory entry (e.g. a rename) to disk. Not every platform can open a
+     * directory for this; there, the rename is as durable as the file system makes it.
+     *
+     * @param directory directory to sync
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //not supported here (e.g. Windows)
+        }
+    }
+}
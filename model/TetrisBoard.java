@@ -6,15 +6,32 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.Math;
 
 /** Represents a Board class for Tetris.
+ *
+ * The grid is kept row by row, and a row with nothing in it has no storage at all: rows[y]
+ * is null. Boards thousands of rows tall then cost memory for the rows in use, not for their
+ * height. rows[] is an index from row number to row storage, so clearing rows moves no
+ * cells: the rows above a cleared one just move down the index, and the storage of the
+ * cleared rows is kept for undo, then goes to a pool that new rows at the top are taken
+ * from. Play settles down to allocating nothing.
+ *
+ * The row index itself, and everything else kept per row, only covers the rows in use: it
+ * starts small and grows (up to the board height) when a row above it gets something in it.
+ * Work on the whole board (a new game, inserting garbage, reading state) stops at the top
+ * of the stack rather than at the top of the board.
+ *
+ * Undo keeps a copy of just the rows placePiece() changed since the last backup, taken
+ * before the first change to each of them, plus the rows clearRows() took out.
+ *
  * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
  */
 public class TetrisBoard implements Serializable{
     private int width; //board height and width
     private int height;
-    protected boolean[][] tetrisGrid; //board grid
+    private boolean[][] rows; //board grid, row by row: rows[y][x]; null for an empty row, and rows past its end are empty
     boolean committed; //indicates if the board is in a 'committed' state, meaning can't undo!
 
     //In your implementation, you'll want to keep counts of filled grid positions in each column.
@@ -22,13 +39,27 @@ public class TetrisBoard implements Serializable{
     private int colCounts[];
     //You will also want to keep counts by row.
     //A completely filled row can be cleared from the board (and points are awarded)!
-    private int rowCounts[];
+    private int rowCounts[]; //as long as rows[], as is backupRows[]
 
     //In addition, you'll need to allocate some space to back up your grid data.
     //This will be important when you implement "undo".
-    private boolean[][] backupGrid; //to back up your grid
-    private int backupColCounts[]; //to back up your row counts
-    private int backupRowCounts[]; //to back up your column counts
+    private boolean[][] backupRows; //rows as they were before the changes since the last backup; null for an empty row
+    private int savedLow, savedHigh; //rows backed up; every changed row is in this range
+    private int backupColCounts[]; //to back up your column counts
+    private boolean[][] clearedRows = new boolean[0][]; //rows taken out by clearRows since the last backup, lowest first
+    private int[] clearedAt = new int[0]; //their row numbers before the clear
+    private int cleared; //number of them
+    private int clearedTop; //stack height before the clear
+
+    private transient boolean[][] spareRows; //empty row arrays, to reuse
+    private transient int spares;
+
+    //Change tracking, for views that only redraw what changed. Every change to a row stamps it
+    //with a new version; a row whose version is above the board version seen earlier has changed since.
+    private static final AtomicLong BOARD_IDS = new AtomicLong();
+    private transient long id; //unique to this board object, so versions are never compared across boards
+    private transient long version; //version of the latest change
+    private transient long[] rowVersions; //version of the latest change to each row; rows past the end haven't changed
 
     //error types (to be returned by the place function)
     public static final int ADD_OK = 0;
@@ -36,6 +67,8 @@ public class TetrisBoard implements Serializable{
     public static final int ADD_OUT_BOUNDS = 2;
     public static final int ADD_BAD = 3;
 
+    private static final int MIN_ROWS = 32; //rows the row index starts with
+
     /**
      * Constructor for an empty board of the given width and height measured in blocks.
      *
@@ -45,29 +78,58 @@ public class TetrisBoard implements Serializable{
     public TetrisBoard(int aWidth, int aHeight) {
         width = aWidth;
         height = aHeight;
-        tetrisGrid = new boolean[width][height];
+        rows = new boolean[Math.min(height, MIN_ROWS)][];
 
         colCounts = new int[width];
-        rowCounts = new int[height];
+        rowCounts = new int[rows.length];
 
         //init backup storage, for undo
-        backupGrid = new boolean[width][height];
+        backupRows = new boolean[rows.length][];
         backupColCounts = new int[width];
-        backupRowCounts = new int[height];
+        savedLow = height;
+        savedHigh = -1;
     }
 
     /**
      * Helper to fill new game grid with empty values
      */
     public void newGame() {
-        for (int x = 0; x < tetrisGrid.length; x++) {
-            for (int y = 0; y < tetrisGrid[x].length; y++) {
-                tetrisGrid[x][y] = false;
-            }
+        releaseBackup();
+        int top = getMaxHeight();
+        for (int y = 0; y < top; y++) {
+            releaseRow(y);
         }
         Arrays.fill(colCounts, 0);
-        Arrays.fill(rowCounts, 0);
+        Arrays.fill(rowCounts, 0, top, 0);
         committed = true;
+        touchRows(0, top - 1, ++version);
+    }
+
+    /**
+     * Getter for an id that is different for every board object
+     */
+    public long getId() {
+        if (id == 0) id = BOARD_IDS.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Getter for board version. It goes up every time any row of the board changes.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the board version of the latest change to a row. The row has changed
+     * since the board was at version v if this is greater than v.
+     *
+     * @param y grid row, y
+     *
+     * @return version of the row
+     */
+    public long getRowVersion(int y) {
+        return rowVersions == null || y >= rowVersions.length ? 0 : rowVersions[y];
     }
 
     /**
@@ -91,7 +153,11 @@ public class TetrisBoard implements Serializable{
      * @return the y position of the last filled square in the tallest column
      */
     public int getMaxHeight() {
-        return Arrays.stream(colCounts).max().getAsInt();
+        int max = 0;
+        for (int x = 0; x < width; x++) {
+            if (colCounts[x] > max) max = colCounts[x];
+        }
+        return max;
     }
 
     /**
@@ -114,6 +180,7 @@ public class TetrisBoard implements Serializable{
      * @return the number of filled blocks in row y
      */
     public int getRowWidth(int y) {
+        if (y >= rowCounts.length && y < height) return 0; //above the rows in use
         return rowCounts[y];
     }
 
@@ -127,9 +194,19 @@ public class TetrisBoard implements Serializable{
      * @return true if the given block at x,y is filled, else false
      */
     public boolean getGrid(int x, int y) {
-        if (x >= width || x < 0 || y >= height || y < 0 || tetrisGrid[x][y])
+        if (x >= width || x < 0 || y >= height || y < 0)
             return true;
-        return false;
+        boolean[] row = row(y);
+        return row != null && row[x];
+    }
+
+    /**
+     * The cells of a row, for reading only, or null if the row is empty
+     *
+     * @param y grid row, y
+     */
+    boolean[] row(int y) {
+        return y < rows.length ? rows[y] : null;
     }
 
     /**
@@ -195,6 +272,7 @@ public class TetrisBoard implements Serializable{
         committed = false;
         backupGrid();
 
+        long change = ++version;
         int fin = ADD_OK;
         int xVal;
         int yVal;
@@ -212,8 +290,11 @@ public class TetrisBoard implements Serializable{
 
 
                 if ((yVal < height) && (yVal >= 0) && (0 <= xVal) && (xVal < width)) {
-                    if (!tetrisGrid[xVal][yVal]) {
-                        tetrisGrid[xVal][yVal] = true;
+                    if (!getGrid(xVal, yVal)) {
+                        ensureRows(yVal + 1);
+                        saveRows(yVal, yVal);
+                        makeRow(yVal)[xVal] = true;
+                        touchRows(yVal, yVal, change);
 
                         if (getColumnHeight(xVal) >= (1 + yVal)) {
                         } else {
@@ -248,6 +329,9 @@ public class TetrisBoard implements Serializable{
     /**
      * Deletes rows that are filled all the way across, moving
      * things above down. Returns the number of rows cleared.
+     * Only the rows from the lowest full one to the top of the stack are visited,
+     * and only their entries in the row index move. Column heights are left as they
+     * were, and a full row that is the only one, right at the top of the stack, stays.
      *
      * @return number of rows cleared (useful for scoring)
      */
@@ -258,77 +342,70 @@ public class TetrisBoard implements Serializable{
             backupGrid();
         }
 
-        boolean completeRow;
-        completeRow = false;
-        int rowTo;
-        int rowFrom;
-        int rowsCleared;
-        rowsCleared = 0;
-
-        rowTo = 0;
-        rowFrom = 1;
-        while (true) {
-            if (rowFrom >= getMaxHeight()) break;
-            if (!(!completeRow && !(rowCounts[rowTo] != width))) {
-                while (completeRow && rowFrom < getMaxHeight() && rowCounts[rowFrom] == width) {
-                    rowsCleared++;
-                    rowFrom++;
-                }
-            } else {
-                rowsCleared += 1;
-                completeRow = true;
-
-                while (true) {
-                    if (!completeRow || rowFrom >= getMaxHeight() || rowCounts[rowFrom] != width) {
-                        break;
-                    }
-                    rowsCleared += 1;
-                    rowFrom += 1;
-                }
-            }
-
-            if (!completeRow) {
-            } else {
-                if (rowFrom >= getMaxHeight()) {
-                    int i = 0;
-                    while (i < width) {
-                        rowCounts[rowTo] = 0;
-                        tetrisGrid[i][rowTo] = false;
-                        i++;
-                    }
-                } else {
-                    int i = 0;
-                    while (i < width) {
-                        if (tetrisGrid[i][rowFrom]) tetrisGrid[i][rowTo] = true;
-                        else tetrisGrid[i][rowTo] = false;
-                        rowCounts[rowTo] = rowCounts[rowFrom];
-                        i++;
-                    }
-                }
+        int top = getMaxHeight();
+        int lowestFull = 0;
+        while (lowestFull < top && rowCounts[lowestFull] != width) lowestFull++;
+        if (lowestFull >= top - 1) return 0;
+        touchRows(lowestFull, top - 1, ++version); //everything from here up moves or empties
+
+        //move the rows above each full one down the index; no cells are copied
+        clearedTop = top;
+        int rowTo = lowestFull;
+        for (int rowFrom = lowestFull; rowFrom < top; rowFrom++) {
+            if (rowCounts[rowFrom] == width) {
+                keepCleared(rowFrom);
+                continue;
             }
+            rows[rowTo] = rows[rowFrom];
+            rowCounts[rowTo] = rowCounts[rowFrom];
             rowTo++;
-            rowFrom++;
         }
+        for (int y = rowTo; y < top; y++) {
+            rows[y] = null; //moved down, or kept for undo
+            rowCounts[y] = 0;
+        }
+        return top - rowTo;
+    }
 
-        if (!completeRow) {
-            return rowsCleared;
+
+    /**
+     * Pushes everything on the board up and fills the bottom rows with "garbage":
+     * rows that are full except for one hole. The rows move with a single array copy.
+     * Call this between pieces (there should be no piece in play); it doesn't touch the backup.
+     *
+     * @param rows number of garbage rows to insert
+     * @param hole the column left empty in every garbage row
+     *
+     * @return ADD_OK, or ADD_OUT_BOUNDS if blocks were pushed off the top of the board
+     */
+    public int insertRows(int rows, int hole) {
+        if (rows <= 0) return ADD_OK;
+        if (rows > height) rows = height;
+        int result = ADD_OK;
+        int top = getMaxHeight();
+        int kept = Math.min(top, height - rows); //rows that stay on the board
+
+        for (int x = 0; x < width; x++) {
+            if (colCounts[x] + rows > height) result = ADD_OUT_BOUNDS;
+            if (colCounts[x] > 0) colCounts[x] = Math.min(height, colCounts[x] + rows);
+            else if (x != hole) colCounts[x] = rows;
         }
-        int i = rowTo;
-        while (i < getMaxHeight()) {
-            rowCounts[i] = 0;
-            int j = width - 1;
-            if (0 <= j) {
-                do {
-                    tetrisGrid[j][i] = false;
-                    j--;
-                } while (0 <= j);
-            }
-            i++;
+        ensureRows(rows + kept);
+        for (int y = kept; y < top; y++) {
+            releaseRow(y); //pushed off the top
+        }
+        System.arraycopy(this.rows, 0, this.rows, rows, kept);
+        System.arraycopy(rowCounts, 0, rowCounts, rows, kept);
+        for (int y = 0; y < rows; y++) {
+            this.rows[y] = null; //moved up, not released
+            Arrays.fill(makeRow(y), true);
+            if (hole >= 0 && hole < width) this.rows[y][hole] = false;
         }
-        return rowsCleared;
+        Arrays.fill(rowCounts, 0, rows, (hole >= 0 && hole < width) ? width - 1 : width);
+        touchRows(0, rows + kept - 1, ++version);
+        return result;
     }
 
-
     /**
      * Reverts the board to its state before up to one call to placePiece() and one to clearRows();
      * If the conditions for undo() are not met, such as calling undo() twice in a row, then the second undo() does nothing.
@@ -337,33 +414,102 @@ public class TetrisBoard implements Serializable{
     public void undo() {
         if (committed == true) return;  //a committed board cannot be undone!
 
-        if (backupGrid == null) throw new RuntimeException("No source for backup!");  //a board with no backup source cannot be undone!
+        //put back the cleared rows, moving the rows above them up the index again
+        if (cleared > 0) {
+            int low = clearedAt[0];
+            int rowFrom = clearedTop - cleared - 1;
+            int c = cleared - 1;
+            for (int rowTo = clearedTop - 1; rowTo >= low; rowTo--) {
+                if (c >= 0 && clearedAt[c] == rowTo) {
+                    rows[rowTo] = clearedRows[c];
+                    clearedRows[c--] = null;
+                    rowCounts[rowTo] = width;
+                } else {
+                    rows[rowTo] = rows[rowFrom];
+                    rowCounts[rowTo] = rowCounts[rowFrom];
+                    rowFrom--;
+                }
+            }
+            cleared = 0;
+            touchRows(low, clearedTop - 1, ++version);
+        }
 
-        //make a copy!!
-        for (int i = 0; i < backupGrid.length; i++) {
-            System.arraycopy(backupGrid[i], 0, tetrisGrid[i], 0, backupGrid[i].length);
+        //put back the rows that were backed up, handing the changed ones to the pool
+        for (int y = savedLow; y <= savedHigh; y++) {
+            releaseRow(y);
+            rows[y] = backupRows[y];
+            backupRows[y] = null;
+            rowCounts[y] = countRow(rows[y]);
         }
 
-        //copy row and column tallies as well.
-        System.arraycopy(backupRowCounts, 0, rowCounts, 0, backupRowCounts.length);
+        //copy column tallies as well.
         System.arraycopy(backupColCounts, 0, colCounts, 0, backupColCounts.length);
+        if (savedLow <= savedHigh) touchRows(savedLow, savedHigh, ++version);
+        savedLow = height;
+        savedHigh = -1;
 
         committed = true; //no going backwards now!
     }
 
     /**
-     * Copy the backup grid into the grid that defines the board (to support undo)
+     * Start a new backup (to support undo). No rows are copied yet; saveRows() copies
+     * each row before it is first changed.
      */
     private void backupGrid() {
-        //make a copy!!
-        for (int i = 0; i < tetrisGrid.length; i++) {
-            System.arraycopy(tetrisGrid[i], 0, backupGrid[i], 0, tetrisGrid[i].length);
-        }
-        //copy row and column tallies as well.
-        System.arraycopy(rowCounts, 0, backupRowCounts, 0, rowCounts.length);
+        releaseBackup();
+        //copy column tallies; they're small
         System.arraycopy(colCounts, 0, backupColCounts, 0, colCounts.length);
     }
 
+    /**
+     * Back up rows that are about to change. Rows already backed up aren't copied again,
+     * and any rows between them and the new ones are copied too, so the backed up rows
+     * stay one range.
+     */
+    private void saveRows(int low, int high) {
+        if (savedLow > savedHigh) {
+            savedLow = low;
+            savedHigh = low - 1;
+        }
+        for (int y = Math.min(low, savedLow); y < savedLow; y++) {
+            backupRows[y] = copyRow(rows[y]);
+        }
+        for (int y = savedHigh + 1; y <= high; y++) {
+            backupRows[y] = copyRow(rows[y]);
+        }
+        savedLow = Math.min(low, savedLow);
+        savedHigh = Math.max(high, savedHigh);
+    }
+
+    /**
+     * Keep a row that clearRows() is taking out, for undo
+     */
+    private void keepCleared(int y) {
+        if (cleared == clearedAt.length) {
+            clearedAt = Arrays.copyOf(clearedAt, Math.max(4, cleared * 2));
+            clearedRows = Arrays.copyOf(clearedRows, clearedAt.length);
+        }
+        clearedAt[cleared] = y;
+        clearedRows[cleared++] = rows[y];
+    }
+
+    /**
+     * Drop the backup, handing its rows to the pool
+     */
+    private void releaseBackup() {
+        for (int y = savedLow; y <= savedHigh; y++) {
+            if (backupRows[y] != null) spareRow(backupRows[y]);
+            backupRows[y] = null;
+        }
+        savedLow = height;
+        savedHigh = -1;
+        for (int c = 0; c < cleared; c++) {
+            spareRow(clearedRows[c]);
+            clearedRows[c] = null;
+        }
+        cleared = 0;
+    }
+
     /**
      * Puts the board in the 'committed' state.
      */
@@ -371,6 +517,311 @@ public class TetrisBoard implements Serializable{
         committed = true;
     }
 
+    /**
+     * Replaces every cell of the board, recomputes the tallies and commits.
+     *
+     * @param cells the new cells, row by row from the bottom (index = y * width + x)
+     */
+    public void setCells(boolean[] cells) {
+        releaseBackup();
+        int oldTop = getMaxHeight();
+        int top = height;
+        while (top > 0 && isEmpty(cells, (top - 1) * width, width)) top--;
+        ensureRows(top);
+        for (int y = 0; y < Math.max(top, oldTop); y++) {
+            if (y >= top || isEmpty(cells, y * width, width)) {
+                releaseRow(y);
+            } else {
+                System.arraycopy(cells, y * width, makeRow(y), 0, width);
+            }
+        }
+        makeHeightAndWidthArrays();
+        committed = true;
+        touchRows(0, Math.max(top, oldTop) - 1, ++version);
+    }
+
+    /**
+     * Returns the number of ints that writeState() needs for this board.
+     *
+     * @return size of the board state, in ints
+     */
+    public int stateSize() {
+        int words = (width + 31) / 32;
+        return 1 + 2 * height * words + 2 * (width + height);
+    }
+
+    /**
+     * Copies the whole mutable state of the board (grid, backup grid, tallies and the
+     * committed flag) into a buffer, with grid cells packed 32 to an int.
+     * Use readState() on a board of the same size to get it back.
+     *
+     * @param buffer buffer to write to
+     * @param offset where to start writing
+     *
+     * @return offset just past the last int written
+     */
+    public int writeState(int[] buffer, int offset) {
+        int words = (width + 31) / 32;
+        int top = usedRows(); //everything above is empty, in the grid and the backup
+        buffer[offset++] = committed ? 1 : 0;
+        for (int y = 0; y < top; y++) {
+            offset = packRow(rows[y], buffer, offset);
+        }
+        offset = zero(buffer, offset, (height - top) * words);
+        for (int y = 0; y < top; y++) {
+            offset = packRow(backupRow(y), buffer, offset);
+        }
+        offset = zero(buffer, offset, (height - top) * words);
+        System.arraycopy(colCounts, 0, buffer, offset, width);
+        offset += width;
+        System.arraycopy(rowCounts, 0, buffer, offset, top);
+        offset = zero(buffer, offset + top, height - top);
+        System.arraycopy(backupColCounts, 0, buffer, offset, width);
+        offset += width;
+        for (int y = 0; y < top; y++) {
+            buffer[offset++] = countRow(backupRow(y));
+        }
+        return zero(buffer, offset, height - top);
+    }
+
+    /**
+     * Restores state written by writeState(), so that the board (including undo)
+     * behaves exactly as the board it was taken from.
+     *
+     * @param buffer buffer to read from
+     * @param offset where to start reading
+     *
+     * @return offset just past the last int read
+     */
+    public int readState(int[] buffer, int offset) {
+        int words = (width + 31) / 32;
+        committed = buffer[offset++] != 0;
+        releaseBackup();
+        int grid = offset;
+        int backup = grid + height * words;
+        int tallies = backup + height * words;
+
+        //the column tallies bound the rows in use, in the grid and in the backup
+        int top = 0;
+        for (int x = 0; x < width; x++) {
+            top = Math.max(top, Math.max(buffer[tallies + x], buffer[tallies + width + height + x]));
+        }
+        top = Math.min(top, height);
+        int oldTop = getMaxHeight();
+        ensureRows(top);
+        for (int y = 0; y < top; y++) {
+            unpackRow(buffer, grid + y * words, y);
+        }
+        for (int y = top; y < oldTop; y++) {
+            releaseRow(y);
+        }
+        //back up the rows where the backup grid differs from the grid
+        int low = height, high = -1;
+        for (int y = 0; y < top; y++) {
+            for (int w = 0; w < words; w++) {
+                if (buffer[grid + y * words + w] != buffer[backup + y * words + w]) {
+                    low = Math.min(low, y);
+                    high = y;
+                    break;
+                }
+            }
+        }
+        savedLow = low;
+        savedHigh = high;
+        for (int y = low; y <= high; y++) {
+            if (!isEmpty(buffer, backup + y * words, words)) {
+                backupRows[y] = takeRow();
+                unpackWords(buffer, backup + y * words, backupRows[y]);
+            }
+        }
+        offset = tallies;
+        System.arraycopy(buffer, offset, colCounts, 0, width);
+        offset += width;
+        System.arraycopy(buffer, offset, rowCounts, 0, top);
+        if (oldTop > top) Arrays.fill(rowCounts, top, oldTop, 0);
+        offset += height;
+        System.arraycopy(buffer, offset, backupColCounts, 0, width);
+        offset += width;
+        offset += height; //backup row tallies: counted from the backup rows when needed
+        touchRows(0, Math.max(top, oldTop) - 1, ++version);
+        return offset;
+    }
+
+    /**
+     * Stamp a range of rows with a change version, and remember them for undo
+     */
+    private void touchRows(int low, int high, long change) {
+        if (rowVersions == null) rowVersions = new long[rows.length];
+        for (int y = low; y <= high; y++) {
+            rowVersions[y] = change;
+        }
+    }
+
+    /**
+     * Make the row index (and everything else kept per row) long enough for the given number
+     * of rows. It at least doubles when it grows, so growing is rare.
+     */
+    private void ensureRows(int count) {
+        if (count <= rows.length) return;
+        int length = Math.min(height, Math.max(count, rows.length * 2));
+        rows = Arrays.copyOf(rows, length);
+        rowCounts = Arrays.copyOf(rowCounts, length);
+        backupRows = Arrays.copyOf(backupRows, length);
+        if (rowVersions != null) rowVersions = Arrays.copyOf(rowVersions, length);
+    }
+
+    /**
+     * Number of rows that may have anything in them, in the grid or in the backup.
+     * Every row from here up is empty in both.
+     */
+    private int usedRows() {
+        int top = Math.max(getMaxHeight(), savedHigh + 1);
+        if (cleared > 0) top = Math.max(top, clearedTop);
+        for (int x = 0; x < width; x++) {
+            top = Math.max(top, backupColCounts[x]);
+        }
+        return top;
+    }
+
+    /**
+     * Zero a run of ints in a buffer
+     *
+     * @return offset just past the run
+     */
+    private static int zero(int[] buffer, int offset, int count) {
+        Arrays.fill(buffer, offset, offset + count, 0);
+        return offset + count;
+    }
+
+    /**
+     * Pack a row into ints, 32 cells to an int
+     */
+    private int packRow(boolean[] row, int[] buffer, int offset) {
+        int word = 0;
+        int bit = 0;
+        for (int x = 0; x < width; x++) {
+            if (row != null && row[x]) word |= 1 << bit;
+            if (++bit == 32) {
+                buffer[offset++] = word;
+                word = 0;
+                bit = 0;
+            }
+        }
+        if (bit != 0) buffer[offset++] = word;
+        return offset;
+    }
+
+    /**
+     * Unpack a row written by packRow() into grid row y
+     */
+    private void unpackRow(int[] buffer, int offset, int y) {
+        if (isEmpty(buffer, offset, (width + 31) / 32)) {
+            releaseRow(y);
+        } else {
+            unpackWords(buffer, offset, makeRow(y));
+        }
+    }
+
+    /**
+     * Unpack the cells of a row written by packRow()
+     */
+    private void unpackWords(int[] buffer, int offset, boolean[] row) {
+        for (int x = 0; x < width; x++) {
+            row[x] = (buffer[offset + x / 32] & (1 << (x % 32))) != 0;
+        }
+    }
+
+    /**
+     * Are all the packed words of a row zero?
+     */
+    private static boolean isEmpty(int[] buffer, int offset, int words) {
+        for (int w = 0; w < words; w++) {
+            if (buffer[offset + w] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Are all the cells of a run of cells empty?
+     */
+    private static boolean isEmpty(boolean[] cells, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            if (cells[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Row y as it was at the last backup
+     */
+    private boolean[] backupRow(int y) {
+        if (y >= savedLow && y <= savedHigh) return backupRows[y];
+        if (cleared == 0 || y < clearedAt[0] || y >= clearedTop) return rows[y];
+        int below = 0; //rows cleared under this one
+        while (below < cleared && clearedAt[below] < y) below++;
+        if (below < cleared && clearedAt[below] == y) return clearedRows[below];
+        return rows[y - below];
+    }
+
+    /**
+     * Number of filled cells in a row
+     */
+    private int countRow(boolean[] row) {
+        if (row == null) return 0;
+        int filled = 0;
+        for (int x = 0; x < width; x++) {
+            if (row[x]) filled++;
+        }
+        return filled;
+    }
+
+    /**
+     * Grid row y, given storage from the pool if it had none
+     */
+    private boolean[] makeRow(int y) {
+        if (rows[y] == null) rows[y] = takeRow();
+        return rows[y];
+    }
+
+    /**
+     * Empty grid row y, handing its storage to the pool
+     */
+    private void releaseRow(int y) {
+        if (rows[y] == null) return;
+        spareRow(rows[y]);
+        rows[y] = null;
+    }
+
+    /**
+     * A copy of a row, in storage from the pool (null for an empty row)
+     */
+    private boolean[] copyRow(boolean[] row) {
+        if (row == null) return null;
+        boolean[] copy = takeRow();
+        System.arraycopy(row, 0, copy, 0, width);
+        return copy;
+    }
+
+    /**
+     * An all-empty row from the pool, or a new one if the pool is empty
+     */
+    private boolean[] takeRow() {
+        if (spares == 0) return new boolean[width];
+        boolean[] row = spareRows[--spares];
+        spareRows[spares] = null;
+        return row;
+    }
+
+    /**
+     * Clear a row and put it in the pool
+     */
+    private void spareRow(boolean[] row) {
+        Arrays.fill(row, false);
+        if (spareRows == null) spareRows = new boolean[8][];
+        if (spares == spareRows.length) spareRows = Arrays.copyOf(spareRows, spares * 2);
+        spareRows[spares++] = row;
+    }
+
     /**
      * Fills heightsOfCols[] and widthOfRows[].  Useful helper to support clearing rows and placing pieces.
      */
@@ -379,9 +830,10 @@ public class TetrisBoard implements Serializable{
         Arrays.fill(colCounts, 0);
         Arrays.fill(rowCounts, 0);
 
-        for (int x = 0; x < tetrisGrid.length; x++) {
-            for (int y = 0; y < tetrisGrid[x].length; y++) {
-                if (tetrisGrid[x][y]) { //means is not an empty cell
+        for (int y = 0; y < rows.length; y++) {
+            if (rows[y] == null) continue; //empty row
+            for (int x = 0; x < width; x++) {
+                if (rows[y][x]) { //means is not an empty cell
                     colCounts[x] = y + 1; //these tallies can be useful when clearing rows or placing pieces
                     rowCounts[y]++;
                 }
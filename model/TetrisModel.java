@@ -1,7 +1,10 @@
 package model;
 
 import java.io.*;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /** Represents a Tetris Model for Tetris.  
  * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
@@ -11,6 +14,13 @@ public class TetrisModel implements Serializable {
     public static final int WIDTH = 10; //size of the board in blocks
     public static final int HEIGHT = 20; //height of the board in blocks
     public static final int BUFFERZONE = 4; //space at the top
+    public static final int MAX_ROTATIONS = 4; //used to number the rotations of each piece
+
+    //snapshot layout: 10 ints of model state, then the board state
+    private static final int SNAPSHOT_HEADER = 10;
+    private static final int SNAPSHOT_GAME_ON = 1;
+    private static final int SNAPSHOT_AUTOPILOT = 2;
+    private static final int SNAPSHOT_RANDOM = 4;
 
     protected TetrisBoard board;  // Board data structure
     protected TetrisPiece[] pieces; // Pieces to be places on the board
@@ -24,11 +34,15 @@ public class TetrisModel implements Serializable {
 
     // State of the game
     protected boolean gameOn;	// true if we are playing
-    protected Random random;	 // the random generator for new pieces
+    protected GameRandom random;	 // the random generator for new pieces
 
     private boolean autoPilotMode; //are we in autopilot mode?
     protected TetrisPilot pilot;
 
+    protected transient GameEventBus events; //where to publish game events, if anyone is listening
+    protected transient ReplayWriter replay; //where to record moves, if the game is being recorded
+    protected transient PlacementListener placements; //told when each piece comes to rest, if set
+
     public enum MoveType {
         ROTATE,
         LEFT,
@@ -41,7 +55,17 @@ public class TetrisModel implements Serializable {
      * Constructor for a tetris model
      */
     public TetrisModel() {
-        board = new TetrisBoard(WIDTH, HEIGHT + BUFFERZONE);
+        this(WIDTH, HEIGHT);
+    }
+
+    /**
+     * Constructor for a tetris model with a board of a custom size
+     *
+     * @param width width of the board in blocks
+     * @param height height of the board in blocks, not counting the buffer zone at the top
+     */
+    public TetrisModel(int width, int height) {
+        board = new TetrisBoard(width, height + BUFFERZONE);
         pieces = TetrisPiece.getPieces(); //initialize board and pieces
         autoPilotMode = false;
         gameOn = false;
@@ -53,7 +77,25 @@ public class TetrisModel implements Serializable {
      * Start new game
      */
     public void startGame() { //start game
-        random = new Random();
+        startGame(new GameRandom());
+    }
+
+    /**
+     * Start new game, with a fixed sequence of pieces
+     *
+     * @param seed seed for the piece generator
+     */
+    public void startGame(long seed) {
+        startGame(new GameRandom(seed));
+    }
+
+    /**
+     * Start new game with the given piece generator
+     *
+     * @param generator generator to pick pieces with
+     */
+    private void startGame(GameRandom generator) {
+        random = generator;
         addNewPiece();
         gameOn = true;
         score = 0;
@@ -114,6 +156,7 @@ public class TetrisModel implements Serializable {
      * Put new piece in play on board 
      */
     public void addNewPiece() {
+        FlightEvents.PieceSpawned spawned = FlightEvents.beginPieceSpawned();
         count++;
         score++;
 
@@ -131,8 +174,15 @@ public class TetrisModel implements Serializable {
 
         if (result > TetrisBoard.ADD_ROW_FILLED) {
             stopGame(); //oops, we lost.
+        } else if (events != null) {
+            events.pieceSpawned(pieceId(piece), px, py, score, count);
         }
 
+        if (spawned != null) {
+            spawned.pieceId = pieceId(piece);
+            spawned.gameOver = !gameOn;
+            spawned.commit();
+        }
     }
 
     /**
@@ -173,6 +223,8 @@ public class TetrisModel implements Serializable {
      */
     public void stopGame() {
         gameOn = false;
+        GameMetrics.GAME_OVERS.increment();
+        if (events != null) events.gameOver(score, count);
     }
 
     /**
@@ -181,7 +233,7 @@ public class TetrisModel implements Serializable {
      * @return width 
      */
     public double getWidth() {
-        return WIDTH;
+        return board.getWidth();
     }
 
     /**
@@ -190,7 +242,7 @@ public class TetrisModel implements Serializable {
      * @return height (with buffer at top accounted for) 
      */
     public double getHeight() {
-        return HEIGHT + BUFFERZONE;
+        return board.getHeight();
     }
 
     /**
@@ -234,11 +286,22 @@ public class TetrisModel implements Serializable {
 
         if (!gameOn) return;
 
+        GameMetrics.TICKS.increment();
+        FlightEvents.ModelTick tick = FlightEvents.beginModelTick();
+        long start = HotPathTimer.MODEL_TICK.start();
+        if (replay != null) replay.move(this, verb, true);
         executeMove(verb);
 
         if (autoPilotMode && gameOn) { //if it's an automated game, get an automated move.
             computerMove();
         }
+        HotPathTimer.MODEL_TICK.stop(start);
+        if (tick != null) {
+            tick.move = verb.name();
+            tick.pieces = count;
+            tick.gameOn = gameOn;
+            tick.commit();
+        }
     }
 
     /**
@@ -246,7 +309,20 @@ public class TetrisModel implements Serializable {
      * Then execute it.
      */
     private void computerMove() {
+        FlightEvents.PilotDecision decision = FlightEvents.beginPilotDecision();
+        long start = HotPathTimer.BEST_MOVE.start();
         MoveType verb = pilot.bestMove(board,currentPiece,currentX,currentY); //which move is best?
+        HotPathTimer.BEST_MOVE.stop(start);
+        if (decision != null) {
+            decision.end();
+            decision.pilot = pilot.getClass();
+            decision.pieceId = pieceId(currentPiece);
+            decision.stackHeight = board.getMaxHeight();
+            decision.searchDepth = pilot.getSearchDepth();
+            decision.move = verb == null ? null : verb.name();
+            decision.commit();
+        }
+        if (replay != null) replay.move(this, verb, false);
         executeMove(verb);
     }
 
@@ -261,6 +337,7 @@ public class TetrisModel implements Serializable {
      */
     private void executeMove(MoveType verb) {
 
+        long moveStart = HotPathTimer.EXECUTE_MOVE.start();
         if (currentPiece != null) {
             board.undo();	// remove the piece from its old position
         }
@@ -278,8 +355,25 @@ public class TetrisModel implements Serializable {
         }
 
         if (failed && verb==MoveType.DOWN){	// if it's out of bounds due to falling
+            if (events != null) events.pieceLocked(pieceId(currentPiece), currentX, currentY, score, count);
+            if (replay != null) replay.placement(pieceId(currentPiece), currentX, currentY);
+            if (placements != null) placements.piecePlaced(this, currentPiece, currentX, currentY);
+            GameMetrics.PIECES.increment();
+            FlightEvents.PieceLocked locked = FlightEvents.beginPieceLocked();
+            long start = HotPathTimer.CLEAR_ROWS.start();
             int cleared = board.clearRows();
+            HotPathTimer.CLEAR_ROWS.stop(start);
+            GameMetrics.rowsCleared(cleared);
+            if (locked != null) {
+                locked.pieceId = pieceId(currentPiece);
+                locked.x = currentX;
+                locked.y = currentY;
+                locked.rowsCleared = cleared;
+                locked.stackHeight = board.getMaxHeight();
+                locked.commit();
+            }
             if (cleared > 0) {
+                int before = score;
                 // scores go up by 5, 10, 20, 40 as more rows are cleared
                 switch (cleared) {
                     case 1: score += 5;	 break;
@@ -288,8 +382,11 @@ public class TetrisModel implements Serializable {
                     case 4: score += 40;  break;
                     default: score += 50;
                 }
+                if (events != null) events.rowsCleared(cleared, score - before, score, count);
             }
 
+            pieceLocked(cleared);
+
             // if the board is too tall, we've lost!
             if (board.getMaxHeight() > board.getHeight() - BUFFERZONE) {
                 stopGame();
@@ -301,6 +398,35 @@ public class TetrisModel implements Serializable {
             }
         }
 
+        HotPathTimer.EXECUTE_MOVE.stop(moveStart);
+    }
+
+    /**
+     * Called after a piece has come to rest and full rows have been cleared,
+     * before the game checks whether the board has grown too tall.
+     * Subclasses can override this to change the board between pieces.
+     *
+     * @param cleared number of rows the piece cleared
+     */
+    protected void pieceLocked(int cleared) {
+    }
+
+    /**
+     * Execute a move recorded in a replay. Moves made by the pilot are recorded too,
+     * so the model should be in human mode.
+     *
+     * @param verb the move to execute
+     */
+    void replayMove(MoveType verb) {
+        if (gameOn) executeMove(verb);
+    }
+
+    /**
+     * Tell the replay, if any, that the game has changed other than by a move,
+     * so it must take a new keyframe before the next tick
+     */
+    protected void replayKeyframe() {
+        if (replay != null) replay.requestKeyframe();
     }
 
     /**
@@ -309,29 +435,207 @@ public class TetrisModel implements Serializable {
     public void newGame() {
         this.board.newGame();
         startGame();
+        replayKeyframe();
     }
 
     /**
-     * Save the current state of the game to a file
+     * Save the current state of the game to a file (see SaveFormat),
+     * and add it to the SaveCatalog of the file's directory.
+     * The file is replaced atomically; use a SaveWriter to save in the background.
      * 
      * @param file pointer to file to write to
+     *
+     * @throws IllegalArgumentException if the file name is too long for the catalog; nothing is written
      */
     public void saveModel(File file) {
         try {
-            FileOutputStream fout = new FileOutputStream(file);
-            ObjectOutputStream oos = new ObjectOutputStream(fout);
-            oos.writeObject(this);
+            SaveWriter.write(file, SaveWriter.encode(this), SaveCatalog.record(this, file.getName(), System.currentTimeMillis()));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Load a game saved with saveModel(). Games saved with Java serialization by
+     * the original version are converted (see LegacySave).
+     *
+     * @param file file to read
+     *
+     * @return the loaded model
+     */
+    public static TetrisModel loadModel(File file) throws IOException {
+        FlightEvents.GameLoaded loaded = FlightEvents.beginGameLoaded();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            channel.read(magic, 0);
+            magic.flip();
+            boolean saveFormat = SaveFormat.isSaveFormat(magic);
+            if (loaded != null) loaded.saveFormat = saveFormat;
+            if (saveFormat) {
+                TetrisModel model = SaveFormat.read(channel);
+                if (loaded != null) loaded.succeeded = true;
+                return model;
+            }
+            TetrisModel model = LegacySave.read(Channels.newInputStream(channel));
+            if (loaded != null) loaded.succeeded = true;
+            return model;
+        } finally {
+            if (loaded != null) {
+                loaded.path = file.getPath();
+                loaded.commit();
+            }
+        }
+    }
+
+    /**
+     * Set the pilot used in autopilot mode
+     *
+     * @param pilot pilot to use
+     */
+    public void setPilot(TetrisPilot pilot) {
+        this.pilot = pilot;
+    }
+
     /**
      * Getter for autopilot state
      */
     public boolean getAutoPilotMode() {
         return this.autoPilotMode;
     }
+
+    /**
+     * Publish game events to the given bus, or stop publishing if it is null.
+     * Events are published from whichever thread drives the model.
+     *
+     * @param events bus to publish to
+     */
+    public void setEventBus(GameEventBus events) {
+        this.events = events;
+    }
+
+    /**
+     * Tell the given listener each time a piece comes to rest, or stop if it is null
+     *
+     * @param placements listener to tell
+     */
+    public void setPlacementListener(PlacementListener placements) {
+        this.placements = placements;
+    }
+
+    /**
+     * Record every move to the given replay, or stop recording if it is null.
+     * The replay starts with a keyframe of the game as it is at the next tick.
+     *
+     * @param replay replay to record to
+     */
+    public void setReplayWriter(ReplayWriter replay) {
+        this.replay = replay;
+        replayKeyframe();
+    }
+
+    /**
+     * Get a small integer that identifies a piece and its rotation:
+     * the index of its shape in the piece list times MAX_ROTATIONS, plus the rotation.
+     *
+     * @param piece one of the pieces (or rotations) used by this model
+     *
+     * @return the piece id, or -1 if the piece is not one of ours
+     */
+    public int pieceId(TetrisPiece piece) {
+        for (int i = 0; i < pieces.length; i++) {
+            TetrisPiece rotation = pieces[i];
+            for (int r = 0; r < MAX_ROTATIONS; r++) {
+                if (rotation == piece) return i * MAX_ROTATIONS + r;
+                rotation = rotation.fastRotation();
+                if (rotation == pieces[i]) break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the piece for an id returned by pieceId()
+     *
+     * @param id piece id
+     *
+     * @return the piece with that id
+     */
+    public TetrisPiece pieceForId(int id) {
+        if (id < 0 || id >= pieces.length * MAX_ROTATIONS) throw new IllegalArgumentException("Bad piece id: " + id);
+        TetrisPiece piece = pieces[id / MAX_ROTATIONS];
+        for (int r = 0; r < id % MAX_ROTATIONS; r++) {
+            piece = piece.fastRotation();
+        }
+        return piece;
+    }
+
+    /**
+     * Returns the number of ints that snapshot() needs for this model.
+     *
+     * @return size of a snapshot, in ints
+     */
+    public int snapshotSize() {
+        return SNAPSHOT_HEADER + board.stateSize();
+    }
+
+    /**
+     * Copy all of the mutable state of the game (board, current piece and position, score,
+     * piece count, random generator state and flags) into a buffer.
+     * The buffer can be reused for any number of snapshots; nothing is allocated.
+     *
+     * @param buffer buffer of at least snapshotSize() ints
+     */
+    public void snapshot(int[] buffer) {
+        long state = random == null ? 0 : random.getState();
+        buffer[0] = board.getWidth();
+        buffer[1] = board.getHeight();
+        buffer[2] = count;
+        buffer[3] = score;
+        buffer[4] = currentPiece == null ? -1 : pieceId(currentPiece);
+        buffer[5] = currentX;
+        buffer[6] = currentY;
+        buffer[7] = (gameOn ? SNAPSHOT_GAME_ON : 0) | (autoPilotMode ? SNAPSHOT_AUTOPILOT : 0)
+                | (random != null ? SNAPSHOT_RANDOM : 0);
+        buffer[8] = (int) (state >>> 32);
+        buffer[9] = (int) state;
+        board.writeState(buffer, SNAPSHOT_HEADER);
+    }
+
+    /**
+     * Put the game back in the state captured by snapshot(). The model may be a different
+     * one from the one the snapshot was taken from; the pilot and event bus are not changed.
+     *
+     * @param buffer buffer filled by snapshot()
+     */
+    public void restore(int[] buffer) {
+        if (buffer[0] != board.getWidth() || buffer[1] != board.getHeight()) {
+            board = new TetrisBoard(buffer[0], buffer[1]);
+        }
+        count = buffer[2];
+        score = buffer[3];
+        currentPiece = buffer[4] < 0 ? null : pieceForId(buffer[4]);
+        currentX = buffer[5];
+        currentY = buffer[6];
+        gameOn = (buffer[7] & SNAPSHOT_GAME_ON) != 0;
+        autoPilotMode = (buffer[7] & SNAPSHOT_AUTOPILOT) != 0;
+        if ((buffer[7] & SNAPSHOT_RANDOM) != 0) {
+            if (random == null) random = new GameRandom();
+            random.setState(((long) buffer[8] << 32) | (buffer[9] & 0xFFFFFFFFL));
+        } else {
+            random = null;
+        }
+        board.readState(buffer, SNAPSHOT_HEADER);
+        replayKeyframe();
+    }
+
+    /**
+     * Getter for game state
+     *
+     * @return true if a game is in progress
+     */
+    public boolean isGameOn() {
+        return this.gameOn;
+    }
 }
 
 
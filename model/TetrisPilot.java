@@ -13,4 +13,14 @@ public interface TetrisPilot {
      * @return The best move, based on search for good moves
      */
     public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int limitHeight, int currentY);
+
+    /**
+     * How many pieces ahead the pilot looks when choosing a move, for reporting
+     * (see FlightEvents.PilotDecision). Pilots that don't search return 0.
+     *
+     * @return search depth
+     */
+    public default int getSearchDepth() {
+        return 0;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,369 @@
+package model;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/** Runs a TetrisModel on its own thread with a fixed timestep.
+ *
+ * The simulation thread is the only thread that touches the model. Moves from the
+ * player arrive through a bounded input queue; other changes (new game, pilot swap,
+ * load, save) are sent as commands that run on the simulation thread between steps.
+ * After every step that changed the game, an immutable BoardSnapshot is published
+ * through an atomic reference, and readers simply take the latest one.
+ *
+ * In turbo mode, while the computer is playing, gravity ignores the rate and runs as fast
+ * as the thread can go or at a target number of ticks per second. The ticks run in short
+ * slices so moves and commands still get through, and snapshots are published at most
+ * once every TURBO_PUBLISH_NANOS, which is more often than any display can show them.
+ * When a game ends in turbo mode, a new one starts straight away.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class TetrisSimulation implements Runnable {
+
+    public static final long STEP_NANOS = 250_000_000L; //time between gravity ticks at rate 1
+    public static final int INPUT_CAPACITY = 16; //moves that can wait for the simulation thread
+    private static final long IDLE_NANOS = 10_000_000L; //how long to sleep when there is nothing to do
+    private static final int MAX_CATCH_UP = 4; //gravity ticks to run after a stall before giving up on them
+    public static final double UNLIMITED = Double.POSITIVE_INFINITY; //turbo rate: as fast as possible
+    private static final long TURBO_SLICE_NANOS = 2_000_000L; //longest run of turbo ticks between checks for work
+    private static final long TURBO_PUBLISH_NANOS = 4_000_000L; //shortest time between snapshots in turbo mode
+
+    private TetrisModel model; //only touched by the simulation thread
+    private final ArrayBlockingQueue<TetrisModel.MoveType> inputs;
+    private final ConcurrentLinkedQueue<Consumer<TetrisModel>> commands;
+    private final AtomicReference<BoardSnapshot> latest;
+
+    private volatile double rate; //multiple of the default gravity speed; 0 stops gravity
+    private volatile double turbo; //turbo ticks per second, UNLIMITED, or 0 for no turbo
+    private volatile boolean paused;
+    private volatile boolean running;
+    private volatile Thread thread;
+    private long sequence; //sequence number of the last published snapshot
+    private long lastPublish; //when the last snapshot was published
+    private boolean unpublished; //has the game changed since the last snapshot?
+    private volatile long ticksRun; //gravity ticks run, over all games
+    private volatile long piecesPlaced; //pieces placed, over all games
+    private int lastCount; //the model's piece count when pieces were last counted
+    private volatile CheckpointLog checkpoints; //where to autosave, if anywhere
+    private volatile long checkpointNanos; //time between autosaves
+    private long lastCheckpoint; //when the last autosave was taken
+    private boolean unsaved; //has the game changed since the last autosave?
+
+    /**
+     * Constructor. The simulation does not run until start() is called.
+     *
+     * @param model model to simulate
+     */
+    public TetrisSimulation(TetrisModel model) {
+        this.model = model;
+        this.inputs = new ArrayBlockingQueue<>(INPUT_CAPACITY);
+        this.commands = new ConcurrentLinkedQueue<>();
+        this.latest = new AtomicReference<>(new BoardSnapshot(model, 0));
+        this.rate = 1.0;
+        this.lastCount = model.getCount();
+    }
+
+    /**
+     * Start the simulation thread
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        Thread t = new Thread(this, "tetris-simulation");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    /**
+     * Stop the simulation thread and wait for it to finish. Commands already sent with
+     * execute() still run, and a last checkpoint is taken, before the thread ends.
+     */
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null && t != Thread.currentThread()) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queue a move from the player. If the queue is full the move is dropped,
+     * as a player can't meaningfully press keys faster than the game consumes them.
+     *
+     * @param move move to queue
+     *
+     * @return true if the move was queued
+     */
+    public boolean submitMove(TetrisModel.MoveType move) {
+        boolean queued = inputs.offer(move);
+        wake();
+        return queued;
+    }
+
+    /**
+     * Run a command against the model on the simulation thread.
+     * Commands are never dropped, and run in the order they were submitted.
+     *
+     * @param command command to run
+     */
+    public void execute(Consumer<TetrisModel> command) {
+        commands.add(command);
+        wake();
+    }
+
+    /**
+     * Replace the model being simulated (e.g. after loading a board)
+     *
+     * @param newModel model to simulate from now on
+     */
+    public void setModel(TetrisModel newModel) {
+        execute(m -> {
+            this.model = newModel;
+            this.lastCount = newModel.getCount();
+        });
+    }
+
+    /**
+     * Set the gravity speed, as a multiple of the default speed
+     *
+     * @param rate new rate; 0 or less stops gravity
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+        wake();
+    }
+
+    /**
+     * Turn turbo mode on or off. Turbo mode only takes effect while the computer is playing.
+     *
+     * @param ticksPerSecond gravity ticks per second, UNLIMITED to go as fast as possible, or 0 to turn turbo off
+     */
+    public void setTurbo(double ticksPerSecond) {
+        this.turbo = ticksPerSecond;
+        wake();
+    }
+
+    /**
+     * Getter for turbo rate in ticks per second (UNLIMITED, or 0 if turbo is off)
+     */
+    public double getTurbo() {
+        return turbo;
+    }
+
+    /**
+     * Getter for number of gravity ticks run, over all games. Divide the change in this
+     * by the time taken to get the tick rate.
+     */
+    public long getTicks() {
+        return ticksRun;
+    }
+
+    /**
+     * Getter for number of pieces placed, over all games
+     */
+    public long getPieces() {
+        return piecesPlaced;
+    }
+
+    /**
+     * Pause or resume gravity. Player moves and commands still run while paused.
+     *
+     * @param paused true to pause
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        wake();
+    }
+
+    /**
+     * Autosave the game to a checkpoint log every so often, while it is changing.
+     * A last checkpoint is taken when the simulation stops.
+     *
+     * @param log log to checkpoint to, or null to stop autosaving
+     * @param intervalNanos time between checkpoints
+     */
+    public void setCheckpointLog(CheckpointLog log, long intervalNanos) {
+        this.checkpointNanos = intervalNanos;
+        this.checkpoints = log;
+    }
+
+    /**
+     * Get the most recently published snapshot. Never blocks.
+     *
+     * @return latest snapshot
+     */
+    public BoardSnapshot getSnapshot() {
+        return latest.get();
+    }
+
+    /**
+     * The simulation loop. Gravity ticks run on a fixed schedule, or in slices in turbo mode;
+     * in between, the thread sleeps until the next tick is due or until work arrives.
+     */
+    @Override
+    public void run() {
+        long nextStep = System.nanoTime() + stepNanos();
+        boolean wasTurbo = false;
+        while (running) {
+            boolean changed = runCommands();
+
+            TetrisModel.MoveType move;
+            while ((move = inputs.poll()) != null) {
+                model.modelTick(move);
+                countPieces();
+                changed = true;
+            }
+
+            long now = System.nanoTime();
+            double turboRate = turbo;
+            boolean turboOn = turboRate > 0 && model.getAutoPilotMode();
+            long step = turboOn ? turboStepNanos(turboRate) : stepNanos();
+            if (turboOn != wasTurbo) nextStep = now; //start the new schedule straight away
+            wasTurbo = turboOn;
+            if (turboOn && !paused && !model.isGameOn()) { //keep the pilot playing, game after game
+                model.newGame();
+                changed = true;
+            }
+            if (paused || (step <= 0 && !turboOn) || !model.isGameOn()) {
+                nextStep = now + (step > 0 ? step : IDLE_NANOS);
+                turboOn = false;
+            } else if (turboOn) {
+                long sliceEnd = now + TURBO_SLICE_NANOS;
+                while (now - nextStep >= 0 && now - sliceEnd < 0 && model.isGameOn()) {
+                    tick();
+                    nextStep += step;
+                    changed = true;
+                    now = System.nanoTime();
+                }
+                if (now - nextStep > TURBO_SLICE_NANOS) nextStep = now; //can't keep up; go as fast as we can
+            } else {
+                int ticks = 0;
+                while (now - nextStep >= 0 && ticks < MAX_CATCH_UP) {
+                    tick();
+                    nextStep += step;
+                    ticks++;
+                    changed = true;
+                }
+                if (now - nextStep >= 0) nextStep = now + step; //too far behind, drop the missed ticks
+            }
+
+            if (changed) {
+                unpublished = true;
+                unsaved = true;
+            }
+            if (unpublished && (!turboOn || now - lastPublish >= TURBO_PUBLISH_NANOS)) {
+                publish();
+                lastPublish = now;
+            }
+            if (unsaved && now - lastCheckpoint >= checkpointNanos) checkpoint(now, false);
+
+            long wait = Math.min(nextStep - System.nanoTime(), IDLE_NANOS);
+            if (unpublished) wait = Math.min(wait, lastPublish + TURBO_PUBLISH_NANOS - System.nanoTime());
+            if (wait > 0 && inputs.isEmpty() && commands.isEmpty()) {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+        if (runCommands()) { //sent before stop(), e.g. a save as the window closes
+            unpublished = true;
+            unsaved = true;
+        }
+        if (unpublished) publish();
+        if (unsaved) checkpoint(System.nanoTime(), true);
+    }
+
+    /**
+     * Run one gravity tick and count it
+     */
+    private void tick() {
+        model.modelTick(TetrisModel.MoveType.DOWN);
+        ticksRun++;
+        countPieces();
+    }
+
+    /**
+     * Add the pieces placed since the last count to the total
+     */
+    private void countPieces() {
+        int count = model.getCount();
+        if (count > lastCount) piecesPlaced += count - lastCount;
+        lastCount = count; //a new game starts again from 0
+    }
+
+    /**
+     * Run any queued commands
+     *
+     * @return true if at least one command ran
+     */
+    private boolean runCommands() {
+        boolean ran = false;
+        Consumer<TetrisModel> command;
+        while ((command = commands.poll()) != null) {
+            command.accept(model);
+            ran = true;
+        }
+        return ran;
+    }
+
+    /**
+     * Take an autosave checkpoint, if autosave is on. If the log skips it, the game stays
+     * unsaved and the next interval tries again.
+     *
+     * @param now current time
+     * @param last true for the last checkpoint before stopping, which waits for the log rather than being skipped
+     */
+    private void checkpoint(long now, boolean last) {
+        CheckpointLog log = checkpoints;
+        if (log == null) return;
+        boolean taken = last ? log.awaitCheckpoint(model) : log.checkpoint(model);
+        lastCheckpoint = now;
+        if (taken) unsaved = false;
+    }
+
+    /**
+     * Publish a snapshot of the model for readers on other threads
+     */
+    private void publish() {
+        latest.set(new BoardSnapshot(model, ++sequence));
+        unpublished = false;
+    }
+
+    /**
+     * Time between gravity ticks at the current rate
+     *
+     * @return nanoseconds per tick, or 0 if gravity is stopped
+     */
+    private long stepNanos() {
+        double r = rate;
+        if (r <= 0) return 0;
+        return (long) (STEP_NANOS / r);
+    }
+
+    /**
+     * Time between gravity ticks in turbo mode
+     *
+     * @param ticksPerSecond turbo rate
+     *
+     * @return nanoseconds per tick, or 0 to run flat out
+     */
+    private static long turboStepNanos(double ticksPerSecond) {
+        return (long) (1_000_000_000L / ticksPerSecond); //0 for UNLIMITED
+    }
+
+    /**
+     * Wake the simulation thread so it picks up new work straight away
+     */
+    private void wake() {
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+}
@@ -0,0 +1,225 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A headless match between two or more pilots, played in lockstep.
+ *
+ * Every round, each player that is still alive advances by the same number of gravity ticks,
+ * either one after another or in parallel on an executor. During a round a player's thread
+ * only touches that player's model, so there is nothing to lock. Between rounds, on the calling
+ * thread, the garbage each player sent is collected and handed to the opponents, with holes
+ * picked by the match's own seeded generator in player order. The result of a match depends
+ * only on its seeds, never on thread timing.
+ *
+ * All players get the same sequence of pieces. Pilots must be deterministic (e.g. a seeded
+ * AutoPilot) and each player needs its own pilot instance.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class VersusMatch {
+
+    public static final int DEFAULT_TICKS_PER_ROUND = 8;
+    public static final int DEFAULT_MAX_ROUNDS = 100_000;
+
+    private final VersusModel[] players;
+    private final GameRandom holes; //picks the hole column for each batch of garbage
+    private final int ticksPerRound;
+    private final int maxRounds;
+    private int rounds;
+
+    /**
+     * Constructor for a match with the default round length and limit
+     *
+     * @param seed seed for the pieces and the garbage holes
+     * @param pilots one pilot per player
+     */
+    public VersusMatch(long seed, TetrisPilot... pilots) {
+        this(seed, DEFAULT_TICKS_PER_ROUND, DEFAULT_MAX_ROUNDS, pilots);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param seed seed for the pieces and the garbage holes
+     * @param ticksPerRound gravity ticks each player plays per round
+     * @param maxRounds rounds after which the match is decided on score
+     * @param pilots one pilot per player
+     */
+    public VersusMatch(long seed, int ticksPerRound, int maxRounds, TetrisPilot... pilots) {
+        if (pilots.length < 2) throw new IllegalArgumentException("A match needs at least two players");
+        this.players = new VersusModel[pilots.length];
+        for (int i = 0; i < pilots.length; i++) {
+            players[i] = new VersusModel();
+            players[i].setPilot(pilots[i]);
+            players[i].setAutoPilotMode();
+            players[i].startGame(seed);
+        }
+        this.holes = new GameRandom(~seed);
+        this.ticksPerRound = ticksPerRound;
+        this.maxRounds = maxRounds;
+    }
+
+    /**
+     * Play the match to the end, one player after another
+     *
+     * @return index of the winning player
+     */
+    public int play() {
+        return play(null);
+    }
+
+    /**
+     * Play the match to the end
+     *
+     * @param executor executor to run the players of each round on in parallel, or null to run them in turn
+     *
+     * @return index of the winning player
+     */
+    public int play(ExecutorService executor) {
+        List<Callable<Void>> tasks = new ArrayList<>(players.length);
+        for (VersusModel player : players) {
+            tasks.add(() -> {
+                playRound(player);
+                return null;
+            });
+        }
+
+        while (alive() > 1 && rounds < maxRounds) {
+            if (executor == null) {
+                for (VersusModel player : players) {
+                    playRound(player);
+                }
+            } else {
+                try {
+                    for (Future<Void> done : executor.invokeAll(tasks)) {
+                        done.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Match interrupted", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Player failed", e.getCause());
+                }
+            }
+            exchangeGarbage();
+            rounds++;
+        }
+        return winner();
+    }
+
+    /**
+     * Advance one player by a round's worth of ticks
+     *
+     * @param player player to advance
+     */
+    private void playRound(VersusModel player) {
+        for (int t = 0; t < ticksPerRound && player.isGameOn(); t++) {
+            player.modelTick(TetrisModel.MoveType.DOWN);
+        }
+    }
+
+    /**
+     * Collect the garbage every player sent this round and give each player the
+     * garbage sent by everyone else. Dead players still send what they cleared before dying.
+     */
+    private void exchangeGarbage() {
+        int[] sent = new int[players.length];
+        int total = 0;
+        for (int i = 0; i < players.length; i++) {
+            sent[i] = players[i].takeLinesSent();
+            total += sent[i];
+        }
+        if (total == 0) return;
+        for (int i = 0; i < players.length; i++) {
+            int incoming = total - sent[i];
+            if (incoming > 0 && players[i].isGameOn()) {
+                players[i].receiveGarbage(incoming, holes.nextInt(players[i].getBoard().getWidth()));
+            }
+        }
+    }
+
+    /**
+     * Count players still in the game
+     */
+    private int alive() {
+        int n = 0;
+        for (VersusModel player : players) {
+            if (player.isGameOn()) n++;
+        }
+        return n;
+    }
+
+    /**
+     * The last player standing, or else the best score among those who lasted longest
+     *
+     * @return index of the winning player
+     */
+    private int winner() {
+        boolean anyAlive = alive() > 0;
+        int best = -1;
+        for (int i = 0; i < players.length; i++) {
+            if (anyAlive && !players[i].isGameOn()) continue;
+            if (best < 0 || players[i].getScore() > players[best].getScore()) best = i;
+        }
+        return best;
+    }
+
+    /**
+     * Getter for a player's model
+     *
+     * @param player player index
+     */
+    public VersusModel getPlayer(int player) {
+        return players[player];
+    }
+
+    /**
+     * Getter for number of rounds played
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * Play many matches between seeded AutoPilots, spread across all cores, and print the results
+     *
+     * Usage: java model.VersusMatch [matches] [players] [seed]
+     *
+     * @param args number of matches, players per match and first seed, all optional
+     */
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int playerCount = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long firstSeed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<Integer>> results = new ArrayList<>(matches);
+        long start = System.nanoTime();
+        for (int m = 0; m < matches; m++) {
+            long seed = firstSeed + m;
+            results.add(executor.submit(() -> {
+                TetrisPilot[] pilots = new TetrisPilot[playerCount];
+                for (int p = 0; p < playerCount; p++) {
+                    pilots[p] = new AutoPilot(seed * 31 + p);
+                }
+                return new VersusMatch(seed, pilots).play();
+            }));
+        }
+        int[] wins = new int[playerCount];
+        for (Future<Integer> result : results) {
+            wins[result.get()]++;
+        }
+        executor.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (int p = 0; p < playerCount; p++) {
+            System.out.println("Player " + p + ": " + wins[p] + " wins");
+        }
+        System.out.printf("%d matches in %.2fs (%.0f matches/s)%n", matches, seconds, matches / seconds);
+    }
+}
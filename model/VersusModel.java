@@ -0,0 +1,110 @@
+package model;
+
+import java.util.Arrays;
+
+/** A TetrisModel for one player in a VersusMatch.
+ *
+ * Rows this player clears are turned into garbage to send to the opponents, and garbage
+ * received from the opponents is pushed in from the bottom of the board (with a single
+ * bulk insertRows() call) when this player's next piece locks.
+ *
+ * A VersusModel is only ever touched by one thread at a time: the match collects the
+ * garbage sent and hands out the garbage received between rounds, while no player is ticking.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class VersusModel extends TetrisModel {
+
+    //garbage rows sent for clearing 0, 1, 2, 3 and 4 rows at once
+    private static final int[] ATTACK = {0, 0, 1, 2, 4};
+
+    private int linesSent; //garbage sent since the match last collected it
+    private int totalSent;
+    private int totalReceived;
+
+    //garbage waiting to be inserted, one batch per entry
+    private int[] pendingRows = new int[4];
+    private int[] pendingHoles = new int[4];
+    private int pending;
+
+    /**
+     * Constructor
+     */
+    public VersusModel() {
+        super();
+    }
+
+    /**
+     * Get the garbage rows sent since the last call, and reset the count
+     *
+     * @return rows of garbage to send to the opponents
+     */
+    public int takeLinesSent() {
+        int sent = linesSent;
+        linesSent = 0;
+        return sent;
+    }
+
+    /**
+     * Queue garbage from the opponents. It is inserted when the next piece locks.
+     *
+     * @param rows number of garbage rows
+     * @param hole the column left empty in every one of these rows
+     */
+    public void receiveGarbage(int rows, int hole) {
+        if (rows <= 0) return;
+        if (pending == pendingRows.length) {
+            pendingRows = Arrays.copyOf(pendingRows, pending * 2);
+            pendingHoles = Arrays.copyOf(pendingHoles, pending * 2);
+        }
+        pendingRows[pending] = rows;
+        pendingHoles[pending] = hole;
+        pending++;
+        totalReceived += rows;
+    }
+
+    /**
+     * Getter for total garbage rows sent
+     */
+    public int getTotalSent() {
+        return totalSent;
+    }
+
+    /**
+     * Getter for total garbage rows received
+     */
+    public int getTotalReceived() {
+        return totalReceived;
+    }
+
+    /**
+     * Start a new game. Garbage still waiting from the last game is dropped, not pushed
+     * onto the new board, and neither is garbage this player had yet to send.
+     */
+    @Override
+    public void newGame() {
+        pending = 0;
+        linesSent = 0;
+        super.newGame();
+    }
+
+    /**
+     * Send garbage for the rows just cleared, then insert any garbage that is waiting.
+     * If the garbage pushes blocks off the top, the height check that follows ends the game.
+     *
+     * @param cleared number of rows the piece cleared
+     */
+    @Override
+    protected void pieceLocked(int cleared) {
+        int sent = ATTACK[Math.min(cleared, ATTACK.length - 1)];
+        linesSent += sent;
+        totalSent += sent;
+
+        if (pending > 0) board.commit(); //insertRows() is for between pieces, so keep the backup in step
+        for (int i = 0; i < pending; i++) {
+            board.insertRows(pendingRows[i], pendingHoles[i]);
+        }
+        if (pending > 0) replayKeyframe(); //a replay can't know where the garbage came from
+        pending = 0;
+    }
+}
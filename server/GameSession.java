@@ -0,0 +1,221 @@
+package server;
+
+import model.BoardSnapshot;
+import model.TetrisModel;
+import model.TetrisSimulation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** One game hosted by a SessionHost.
+ *
+ * A session owns its model: gravity ticks run on a worker thread, never more than one at a time,
+ * and moves from the client are queued and applied at the start of the next tick.
+ * Each session keeps its own tick-latency figures, measured from the moment a tick was due
+ * to the moment it finished.
+ * While publishing is on, a BoardSnapshot is published for spectators after a tick, but
+ * only once the previous one has been read: a spectator drawing at 30 frames a second
+ * costs a game 30 board copies a second, however fast it ticks. What the spectator sees
+ * is the game as of the first tick after its last read, so at most a frame behind.
+ */
+public class GameSession extends TimingWheel.Entry {
+
+    public static final int INPUT_CAPACITY = 16; //moves a client can queue between ticks
+
+    private final long id;
+    private final TetrisModel model;
+    private final ArrayBlockingQueue<TetrisModel.MoveType> inputs;
+    private volatile long intervalNanos; //time between gravity ticks
+    private volatile boolean autoRestart; //start a new game when this one ends
+    private volatile boolean closed;
+    private volatile boolean publishing; //publish a snapshot after every tick
+    private volatile BoardSnapshot snapshot; //latest snapshot published, if any
+    private volatile boolean snapshotRead = true; //has the latest snapshot been read, so a new one is wanted?
+
+    final AtomicBoolean inFlight = new AtomicBoolean(); //true while a worker is running a tick
+    long dueNanos; //when the next tick is due; timer thread only
+
+    //metrics, written by whichever worker holds inFlight
+    private volatile long ticks;
+    private volatile long skipped; //ticks not run because the session or the host was still busy
+    private volatile long totalLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile long lastLatencyNanos;
+
+    /**
+     * Constructor
+     *
+     * @param id session id
+     * @param model model to play; should already be started
+     * @param rate gravity speed as a multiple of the default (1 = a tick every 0.25s)
+     */
+    GameSession(long id, TetrisModel model, double rate) {
+        this.id = id;
+        this.model = model;
+        this.inputs = new ArrayBlockingQueue<>(INPUT_CAPACITY);
+        setRate(rate);
+    }
+
+    /**
+     * Getter for session id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Change the gravity speed. Takes effect from the next tick.
+     *
+     * @param rate multiple of the default speed; must be positive
+     */
+    public void setRate(double rate) {
+        if (!(rate > 0)) throw new IllegalArgumentException("Rate must be positive: " + rate);
+        this.intervalNanos = (long) (TetrisSimulation.STEP_NANOS / rate);
+    }
+
+    /**
+     * Getter for time between gravity ticks
+     */
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Start a new game automatically when the current one ends, instead of closing the session
+     *
+     * @param autoRestart true to restart
+     */
+    public void setAutoRestart(boolean autoRestart) {
+        this.autoRestart = autoRestart;
+    }
+
+    /**
+     * Publish snapshots of the game for spectators, one after the first tick following each
+     * read. Off by default, since each snapshot is a copy of the board.
+     *
+     * @param publishing true to publish
+     */
+    public void setPublishing(boolean publishing) {
+        this.publishing = publishing;
+    }
+
+    /**
+     * Get the latest snapshot, and ask for a new one after the next tick. Never blocks.
+     *
+     * @return the latest snapshot, or null if none has been published yet
+     */
+    public BoardSnapshot getSnapshot() {
+        BoardSnapshot latest = snapshot;
+        snapshotRead = true;
+        return latest;
+    }
+
+    /**
+     * Queue a move from the client. Fails rather than waits if the client is sending
+     * moves faster than the session ticks.
+     *
+     * @param move move to queue
+     *
+     * @return true if the move was queued
+     */
+    public boolean submitMove(TetrisModel.MoveType move) {
+        return !closed && inputs.offer(move);
+    }
+
+    /**
+     * Stop scheduling this session
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Getter for closed state
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Run one tick: apply queued moves, then let gravity move the piece down.
+     * Called by a worker that has set inFlight.
+     *
+     * @param due when the tick was due, from System.nanoTime()
+     */
+    void tick(long due) {
+        try {
+            TetrisModel.MoveType move;
+            while ((move = inputs.poll()) != null) {
+                model.modelTick(move);
+            }
+            model.modelTick(TetrisModel.MoveType.DOWN);
+            if (!model.isGameOn()) {
+                if (autoRestart) model.newGame();
+                else closed = true;
+            }
+            if (publishing && snapshotRead) {
+                snapshotRead = false;
+                snapshot = new BoardSnapshot(model, ticks + 1);
+            }
+        } finally {
+            long latency = System.nanoTime() - due;
+            ticks = ticks + 1;
+            totalLatencyNanos = totalLatencyNanos + latency;
+            if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+            lastLatencyNanos = latency;
+            inFlight.set(false);
+        }
+    }
+
+    /**
+     * Count ticks that were due but could not be run
+     *
+     * @param count number of ticks skipped
+     */
+    void skip(long count) {
+        skipped = skipped + count;
+    }
+
+    /**
+     * Getter for ticks run
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Getter for ticks skipped because of backpressure
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Getter for mean tick latency, from when the tick was due to when it finished
+     */
+    public long getMeanLatencyNanos() {
+        long n = ticks;
+        return n == 0 ? 0 : totalLatencyNanos / n;
+    }
+
+    /**
+     * Getter for worst tick latency
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * Getter for latency of the most recent tick
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * Getter for the score, as of the last tick
+     */
+    public int getScore() {
+        return model.getScore();
+    }
+}
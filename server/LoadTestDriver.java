@@ -0,0 +1,98 @@
+package server;
+
+import model.GameMetrics;
+import model.TetrisModel;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/** A stand-in for remote clients, used to load test a SessionHost.
+ *
+ * Opens a number of autopilot sessions with gravity speeds spread over the range of the
+ * view's speed slider, has a client thread send random moves to random sessions, and prints
+ * throughput and tick-latency figures once a second. Given a metrics port, it also serves
+ * GameMetrics there (see MetricsExporter) with the timers on.
+ *
+ * Usage: java server.LoadTestDriver [sessions] [seconds] [workers] [timers] [movesPerSecond] [metricsPort]
+ */
+public class LoadTestDriver {
+
+    /**
+     * Main method
+     *
+     * @param args sessions, seconds, worker threads, timer threads, client moves per second and metrics port, all optional
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int timers = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int movesPerSecond = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+        MetricsExporter exporter = null;
+        if (args.length > 5) {
+            GameMetrics.setTiming(true);
+            exporter = new MetricsExporter(GameMetrics.REGISTRY, Integer.parseInt(args[5]));
+            System.out.println("Metrics at http://localhost:" + exporter.getPort() + MetricsExporter.PATH);
+        }
+
+        Random random = new Random(207);
+        List<GameSession> open = new ArrayList<>(sessions);
+        try (SessionHost host = new SessionHost(workers, timers, sessions, sessions)) {
+            for (int i = 0; i < sessions; i++) {
+                TetrisModel model = new TetrisModel();
+                model.startGame();
+                model.setAutoPilotMode();
+                GameSession session = host.open(model, 0.1 + 2.9 * random.nextDouble()); //slider range is 0-3x
+                session.setAutoRestart(true);
+                open.add(session);
+            }
+
+            Thread client = new Thread(() -> sendMoves(open, movesPerSecond), "load-test-client");
+            client.setDaemon(true);
+            client.start();
+
+            long lastTicks = 0;
+            for (int s = 1; s <= seconds; s++) {
+                Thread.sleep(1000);
+                long ticks = 0, skipped = 0, totalMean = 0, max = 0;
+                for (GameSession session : open) {
+                    ticks += session.getTicks();
+                    skipped += session.getSkipped();
+                    totalMean += session.getMeanLatencyNanos();
+                    max = Math.max(max, session.getMaxLatencyNanos());
+                }
+                System.out.printf("%3ds  sessions %d  ticks/s %d  skipped %d (rejected %d)  queued %d  mean latency %.3fms  max %.3fms%n",
+                        s, host.getSessionCount(), ticks - lastTicks, skipped, host.getRejectedTicks(),
+                        host.getQueuedTicks(), totalMean / (double) open.size() / 1e6, max / 1e6);
+                lastTicks = ticks;
+            }
+        } finally {
+            if (exporter != null) exporter.close();
+        }
+    }
+
+    /**
+     * Send random moves to random sessions at a steady rate, forever
+     *
+     * @param sessions sessions to send to
+     * @param movesPerSecond moves to send each second
+     */
+    private static void sendMoves(List<GameSession> sessions, int movesPerSecond) {
+        if (movesPerSecond <= 0) return;
+        Random random = new Random(7);
+        TetrisModel.MoveType[] moves = TetrisModel.MoveType.values();
+        long interval = 1_000_000_000L / movesPerSecond;
+        long next = System.nanoTime();
+        while (true) {
+            GameSession session = sessions.get(random.nextInt(sessions.size()));
+            session.submitMove(moves[random.nextInt(moves.length - 1)]); //anything but DOWN, which gravity does
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+        }
+    }
+}
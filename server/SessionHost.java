@@ -0,0 +1,198 @@
+package server;
+
+import model.TetrisModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** Hosts many GameSessions in one JVM.
+ *
+ * Sessions are spread over a few timer shards. Each shard has its own thread and TimingWheel
+ * (1ms per wheel tick); when a session comes due, the shard hands its tick to a shared,
+ * fixed-size worker pool and schedules the next one. Ticks run at a fixed rate, so a slow tick
+ * does not push later ones back.
+ *
+ * Backpressure: a session whose previous tick is still running, or whose tick finds the
+ * worker queue full, skips that tick instead of queueing it, and the skip is counted.
+ * The host also refuses new sessions beyond its capacity.
+ */
+public class SessionHost implements AutoCloseable {
+
+    private static final long WHEEL_TICK_NANOS = 1_000_000L;
+
+    private final Shard[] shards;
+    private final ThreadPoolExecutor workers;
+    private final int maxSessions;
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong(); //ticks skipped because the worker queue was full
+    private final long start = System.nanoTime();
+    private volatile boolean running = true;
+
+    /**
+     * Constructor
+     *
+     * @param workerThreads threads that run session ticks
+     * @param timerThreads number of timer shards
+     * @param queueCapacity ticks that can wait for a worker before new ones are skipped
+     * @param maxSessions most sessions the host will accept
+     */
+    public SessionHost(int workerThreads, int timerThreads, int queueCapacity, int maxSessions) {
+        this.maxSessions = maxSessions;
+        AtomicInteger workerNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "session-worker-" + workerNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.shards = new Shard[timerThreads];
+        for (int i = 0; i < timerThreads; i++) {
+            shards[i] = new Shard();
+            Thread t = new Thread(shards[i], "session-timer-" + i);
+            t.setDaemon(true);
+            shards[i].thread = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Start hosting a model. Its first tick is due one interval from now.
+     *
+     * @param model model to host; should already be started
+     * @param rate gravity speed as a multiple of the default
+     *
+     * @return the new session
+     *
+     * @throws IllegalStateException if the host is full or shut down
+     */
+    public GameSession open(TetrisModel model, double rate) {
+        if (!running) throw new IllegalStateException("Host is shut down");
+        if (sessionCount.incrementAndGet() > maxSessions) {
+            sessionCount.decrementAndGet();
+            throw new IllegalStateException("Host is full: " + maxSessions + " sessions");
+        }
+        GameSession session = new GameSession(nextId.getAndIncrement(), model, rate);
+        session.dueNanos = System.nanoTime() + session.getIntervalNanos();
+        Shard shard = shards[(int) (session.getId() % shards.length)];
+        shard.pending.add(session);
+        return session;
+    }
+
+    /**
+     * Getter for number of open sessions
+     */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Getter for ticks skipped because every worker was busy and the queue was full
+     */
+    public long getRejectedTicks() {
+        return rejected.get();
+    }
+
+    /**
+     * Getter for ticks waiting for a worker
+     */
+    public int getQueuedTicks() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Stop all timers and workers. Sessions are left as they are.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wheel tick that a System.nanoTime() value falls in
+     */
+    private long wheelTick(long nanos) {
+        return (nanos - start) / WHEEL_TICK_NANOS;
+    }
+
+    /** A timer thread with its own timing wheel */
+    private class Shard implements Runnable {
+
+        final ConcurrentLinkedQueue<GameSession> pending = new ConcurrentLinkedQueue<>(); //newly opened sessions
+        final TimingWheel<GameSession> wheel = new TimingWheel<>();
+        final List<GameSession> due = new ArrayList<>();
+        Thread thread;
+
+        @Override
+        public void run() {
+            while (running) {
+                GameSession session;
+                while ((session = pending.poll()) != null) {
+                    wheel.schedule(session, wheelTick(session.dueNanos));
+                }
+
+                wheel.advance(wheelTick(System.nanoTime()), due::add);
+                for (int i = 0; i < due.size(); i++) {
+                    dispatch(due.get(i));
+                }
+                due.clear();
+
+                long nextTick = start + (wheel.getNow() + 1) * WHEEL_TICK_NANOS;
+                long wait = nextTick - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(this, wait);
+            }
+        }
+
+        /**
+         * Hand a due session to the workers, or skip its tick if it can't run now,
+         * then schedule its next tick. Ticks already missed by then are skipped, not run late.
+         *
+         * @param session session that is due
+         */
+        private void dispatch(GameSession session) {
+            if (session.isClosed()) {
+                sessionCount.decrementAndGet();
+                return;
+            }
+            long due = session.dueNanos;
+            if (session.inFlight.compareAndSet(false, true)) {
+                try {
+                    workers.execute(() -> session.tick(due));
+                } catch (RejectedExecutionException e) {
+                    session.inFlight.set(false);
+                    session.skip(1);
+                    rejected.incrementAndGet();
+                }
+            } else {
+                session.skip(1);
+            }
+            long interval = session.getIntervalNanos();
+            long next = due + interval;
+            long now = System.nanoTime();
+            if (next - now <= 0) { //fell behind (the shard stalled), so drop the ticks missed instead of firing each one late
+                long missed = (now - due) / interval;
+                session.skip(missed);
+                next = now + interval;
+            }
+            session.dueNanos = next;
+            wheel.schedule(session, wheelTick(session.dueNanos));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package server;
+
+import java.util.function.Consumer;
+
+/** A hierarchical timing wheel, used to decide which GameSessions are due for a tick.
+ *
+ * There are LEVELS wheels of SLOTS slots each. Level 0 holds sessions due within the current
+ * 64-tick window, one slot per tick; level k holds sessions due within the current 64^(k+1)-tick
+ * window, one slot per 64^k ticks. When the clock enters a new window, the matching slot of the
+ * level above is emptied into the level below. Scheduling and expiry are O(1) no matter how many
+ * sessions there are. Entries are chained through their own fields (see Entry), so nothing is
+ * allocated either.
+ *
+ * Not thread safe: a wheel belongs to one timer thread.
+ *
+ * @param <T> what the wheel holds
+ */
+public class TimingWheel<T extends TimingWheel.Entry> {
+
+    static final int BITS = 6;
+    static final int SLOTS = 1 << BITS;
+    static final int LEVELS = 4; //64^4 ticks, or about 4.6 hours at 1ms per tick
+    private static final long MAX_DELAY = (1L << (BITS * LEVELS)) - 1;
+
+    /** Something a wheel can hold, with the links the wheel keeps it in */
+    public static class Entry {
+        Entry wheelNext; //next entry in the same slot
+        long wheelDeadline; //tick to expire at
+    }
+
+    private final Entry[][] slots = new Entry[LEVELS][SLOTS];
+    private long now; //current tick
+    private int size;
+
+    /**
+     * Getter for the current tick
+     */
+    public long getNow() {
+        return now;
+    }
+
+    /**
+     * Getter for number of sessions in the wheel
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedule an entry to expire at a given tick. Ticks in the past expire on the next tick,
+     * and ticks too far in the future are brought forward to the furthest tick the wheel can hold.
+     *
+     * @param entry entry to schedule; must not already be in a wheel
+     * @param deadline tick to expire at
+     */
+    public void schedule(T entry, long deadline) {
+        if (deadline <= now) deadline = now + 1;
+        if (deadline - now > MAX_DELAY) deadline = now + MAX_DELAY;
+        entry.wheelDeadline = deadline;
+        insert(entry);
+        size++;
+    }
+
+    /**
+     * Advance the clock, one tick at a time, up to the given tick,
+     * handing every entry that expires on the way to the consumer.
+     *
+     * @param target tick to advance to
+     * @param expired called for each expired entry; it may reschedule the entry
+     *
+     * @return number of entries that expired
+     */
+    @SuppressWarnings("unchecked") //only Ts are ever scheduled
+    public int advance(long target, Consumer<? super T> expired) {
+        int fired = 0;
+        while (now < target) {
+            now++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((now & ((1L << (BITS * level)) - 1)) == 0) cascade(level);
+            }
+            int slot = (int) (now & (SLOTS - 1));
+            Entry entry = slots[0][slot];
+            slots[0][slot] = null;
+            while (entry != null) {
+                Entry next = entry.wheelNext;
+                entry.wheelNext = null;
+                size--;
+                fired++;
+                expired.accept((T) entry);
+                entry = next;
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Put an entry in the slot that matches its deadline: the level is picked by the
+     * highest group of bits in which the deadline differs from the current tick.
+     *
+     * @param entry entry to insert
+     */
+    private void insert(Entry entry) {
+        long deadline = entry.wheelDeadline;
+        long diff = deadline ^ now;
+        int level = diff == 0 ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+        if (level >= LEVELS) level = LEVELS - 1;
+        int slot = (int) ((deadline >>> (BITS * level)) & (SLOTS - 1));
+        entry.wheelNext = slots[level][slot];
+        slots[level][slot] = entry;
+    }
+
+    /**
+     * Move the entries in the current slot of a level down to the levels below it
+     *
+     * @param level level to cascade
+     */
+    private void cascade(int level) {
+        int slot = (int) ((now >>> (BITS * level)) & (SLOTS - 1));
+        Entry entry = slots[level][slot];
+        slots[level][slot] = null;
+        while (entry != null) {
+            Entry next = entry.wheelNext;
+            insert(entry);
+            entry = next;
+        }
+    }
+}
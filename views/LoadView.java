@@ -1,24 +1,32 @@
 package views;
 
+import model.SaveCatalog;
 import model.TetrisModel;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 
 import java.io.*;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Load File View
@@ -32,6 +40,17 @@ public class LoadView {
     private Button selectBoardButton;
     private ListView<String> boardsList;
 
+    static final int PAGE_SIZE = 50; //saves listed at a time
+    private final SaveCatalog catalog = new SaveCatalog(Paths.get("boards"));
+    private final Map<String, SaveCatalog.Entry> listed = new HashMap<>(); //catalog entries on the current page
+    private TextField filterTextField = new TextField("");
+    private ChoiceBox<String> sortChoice = new ChoiceBox<>();
+    private Button previousButton = new Button("<");
+    private Button nextButton = new Button(">");
+    private Label pageLabel = new Label("");
+    private Label detailsLabel = new Label("");
+    private Canvas thumbnail = new Canvas(80, 120);
+    private int page;
 
     /**
      * Constructor
@@ -39,7 +58,7 @@ public class LoadView {
      * @param tetrisView master view
      */
     public LoadView (TetrisView tetrisView) {
-        tetrisView.paused = true;
+        tetrisView.setPaused(true);
         this.tetrisView = tetrisView;
         selectBoardLabel = new Label(String.format("Currently playing: Default Board"));
         boardsList = new ListView<>(); //list of tetris.boards
@@ -56,6 +75,17 @@ public class LoadView {
         boardsList.setId("BoardsList");  // DO NOT MODIFY ID
         boardsList.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
 
+        filterTextField.setId("FilterTextField");
+        filterTextField.setPromptText("Filter by name");
+        filterTextField.textProperty().addListener((observable, oldVal, newVal) -> showPage(0));
+        sortChoice.setId("SortChoice");
+        sortChoice.getItems().addAll("Newest", "Best score", "Name");
+        sortChoice.setValue("Newest");
+        sortChoice.setOnAction(e -> showPage(0));
+        previousButton.setOnAction(e -> showPage(page - 1));
+        nextButton.setOnAction(e -> showPage(page + 1));
+        boardsList.getSelectionModel().selectedItemProperty().addListener((observable, oldVal, newVal) -> showDetails(newVal));
+
         getFiles(boardsList); //get files for file selector
 
         selectBoardButton = new Button("Change board");
@@ -70,13 +100,19 @@ public class LoadView {
             }
         });
 
-        VBox selectBoardBox = new VBox(10, selectBoardLabel, boardsList, selectBoardButton);
+        HBox searchBox = new HBox(10, filterTextField, sortChoice);
+        HBox pageBox = new HBox(10, previousButton, pageLabel, nextButton);
+        pageBox.setAlignment(Pos.CENTER);
+        HBox detailsBox = new HBox(10, thumbnail, detailsLabel);
+        VBox selectBoardBox = new VBox(10, selectBoardLabel, searchBox, boardsList, pageBox, detailsBox, selectBoardButton);
 
         // Default styles which can be modified
         boardsList.setPrefHeight(100);
 
         selectBoardLabel.setStyle("-fx-text-fill: #e8e6e3");
         selectBoardLabel.setFont(new Font(16));
+        pageLabel.setStyle("-fx-text-fill: #e8e6e3");
+        detailsLabel.setStyle("-fx-text-fill: #e8e6e3");
 
         selectBoardButton.setStyle("-fx-background-color: #17871b; -fx-text-fill: white;");
         selectBoardButton.setPrefSize(200, 50);
@@ -85,36 +121,90 @@ public class LoadView {
         selectBoardBox.setAlignment(Pos.CENTER);
 
         dialogVbox.getChildren().add(selectBoardBox);
-        Scene dialogScene = new Scene(dialogVbox, 400, 400);
+        Scene dialogScene = new Scene(dialogVbox, 400, 600);
         dialog.setScene(dialogScene);
         dialog.show();
         dialog.setOnCloseRequest(event -> {
-            tetrisView.paused = false;
+            tetrisView.setPaused(false);
         });
     }
 
     /**
-     * Populate the listView with all the .SER files in the boards directory
+     * Populate the listView with the first page of saves in the boards directory.
+     * Saves are listed from the catalog, which indexes the directory the first time it is read.
      *
      * @param listView ListView to update
-     * @return the index in the listView of Stater.ser
      */
     private void getFiles(ListView<String> listView) {
-        Path path = Paths.get("boards");
+        showPage(0);
+    }
+
+    /**
+     * List one page of the catalog, with the current filter and sort order
+     *
+     * @param newPage page to show, from 0
+     */
+    private void showPage(int newPage) {
+        String filter = filterTextField.getText().toLowerCase();
+        Comparator<SaveCatalog.Entry> order = SaveCatalog.NEWEST_FIRST;
+        if ("Best score".equals(sortChoice.getValue())) order = SaveCatalog.BEST_SCORE_FIRST;
+        else if ("Name".equals(sortChoice.getValue())) order = SaveCatalog.BY_NAME;
+
+        SaveCatalog.Page listing;
         try {
-            DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.ser");
-            try {
-                for (Iterator<Path> iterator = stream.iterator(); iterator.hasNext(); ) {
-                    Path file = iterator.next();
-                    listView.getItems().add(file.getFileName().toString());
-                }
-            } finally {
-                stream.close();
-            }
+            listing = catalog.list(entry -> entry.getName().toLowerCase().contains(filter), order,
+                    Math.max(0, newPage), PAGE_SIZE);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // throw new UnsupportedOperationException(); //replace this!
+        if (listing.getPage() >= listing.getPageCount() && listing.getPage() > 0) {
+            showPage(listing.getPageCount() - 1);
+            return;
+        }
+
+        page = listing.getPage();
+        listed.clear();
+        boardsList.getItems().clear();
+        for (SaveCatalog.Entry entry : listing.getEntries()) {
+            listed.put(entry.getName(), entry);
+            boardsList.getItems().add(entry.getName());
+        }
+        pageLabel.setText(String.format("Page %d of %d (%d saves)", page + 1, listing.getPageCount(), listing.getTotal()));
+        previousButton.setDisable(page == 0);
+        nextButton.setDisable(page + 1 >= listing.getPageCount());
+    }
+
+    /**
+     * Show what the catalog knows about the selected save, without opening it
+     *
+     * @param name name of the selected save
+     */
+    private void showDetails(String name) {
+        GraphicsContext gc = thumbnail.getGraphicsContext2D();
+        gc.setFill(Color.web("#121212"));
+        gc.fillRect(0, 0, thumbnail.getWidth(), thumbnail.getHeight());
+        SaveCatalog.Entry entry = name == null ? null : listed.get(name);
+        if (entry == null) {
+            detailsLabel.setText("");
+            return;
+        }
+        detailsLabel.setText(String.format("Saved %s\nScore: %d\nPieces placed: %d\nStack height: %d",
+                new SimpleDateFormat("yyyy.MM.dd HH:mm:ss").format(new Date(entry.getTimestamp())),
+                entry.getScore(), entry.getCount(), entry.getMaxHeight()));
+
+        double cellWidth = thumbnail.getWidth() / entry.getThumbWidth();
+        double cellHeight = thumbnail.getHeight() / entry.getThumbHeight();
+        gc.setFill(Color.GREEN);
+        gc.fillRect(0, 0, thumbnail.getWidth(), thumbnail.getHeight());
+        gc.setFill(Color.RED);
+        for (int y = 0; y < entry.getThumbHeight(); y++) {
+            for (int x = 0; x < entry.getThumbWidth(); x++) {
+                if (entry.getThumbCell(x, y)) {
+                    gc.fillRect(thumbnail.getWidth() - (x + 1) * cellWidth, thumbnail.getHeight() - (y + 1) * cellHeight,
+                            cellWidth, cellHeight);
+                }
+            }
+        }
     }
 
     /**
@@ -130,7 +220,7 @@ public class LoadView {
             return;
         }
         selectBoardLabel.setText(String.format("Currently playing: %s", selectedBoard));
-        tetrisView.model = loadBoard("boards/"+selectedBoard);
+        tetrisView.setModel(loadBoard("boards/"+selectedBoard));
 
         //throw new UnsupportedOperationException(); //replace this!
     }
@@ -144,22 +234,6 @@ public class LoadView {
     public TetrisModel loadBoard(String boardFile) throws IOException {
         System.out.println("boardFile: " + boardFile);
 
-        // Reading the object from a file
-        FileInputStream file = null;
-        ObjectInputStream in = null;
-        try {
-            file = new FileInputStream(boardFile);
-            in = new ObjectInputStream(file);
-            return (TetrisModel) in.readObject();
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
-        } finally {
-            in.close();
-            file.close();
-        }
+        return TetrisModel.loadModel(new File(boardFile));
     }
 }
@@ -0,0 +1,123 @@
+package views;
+
+import model.LatencyHistogram;
+import model.LatencyRecorder;
+import model.PerformanceProbes;
+
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.text.Font;
+
+/** An overlay with live performance figures: frame rate and frame time, and the latency of
+ * modelTick, the pilot's bestMove and clearRows, each as p50/p99/max over the last second.
+ *
+ * The figures come from the PerformanceProbes, which are on while the overlay is shown.
+ * Every WINDOW_NANOS the recorders are swapped into the oldest of WINDOWS histograms, and
+ * the text shows their sum, so the display rolls smoothly rather than jumping every second.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class PerformanceHud {
+
+    static final long WINDOW_NANOS = 250_000_000L; //how often the figures are updated
+    static final int WINDOWS = 4; //windows shown at once
+
+    private static final String[] NAMES = {"frame", "tick", "bestMove", "clearRows"};
+
+    private final Label label = new Label("");
+    private final LatencyRecorder frames = new LatencyRecorder(); //time between frames, FX thread only
+    private final LatencyRecorder[] recorders = {frames, PerformanceProbes.MODEL_TICK,
+            PerformanceProbes.BEST_MOVE, PerformanceProbes.CLEAR_ROWS};
+    private final LatencyHistogram[][] windows = new LatencyHistogram[NAMES.length][WINDOWS];
+    private final LatencyHistogram total = new LatencyHistogram();
+    private int window; //the window filled last
+    private long lastFrame; //time of the last frame, or 0
+    private long windowStart; //when the current window started
+    private boolean visible;
+
+    /**
+     * Constructor. The overlay starts hidden.
+     */
+    public PerformanceHud() {
+        for (LatencyHistogram[] series : windows) {
+            for (int w = 0; w < WINDOWS; w++) {
+                series[w] = new LatencyHistogram();
+            }
+        }
+        label.setFont(Font.font("Monospaced", 13));
+        label.setStyle("-fx-text-fill: #e8e6e3; -fx-background-color: rgba(0, 0, 0, 0.6); -fx-padding: 6;");
+        label.setMouseTransparent(true);
+        label.setVisible(false);
+    }
+
+    /**
+     * Getter for the node to put over the board
+     */
+    public Node getNode() {
+        return label;
+    }
+
+    /**
+     * Show or hide the overlay. The probes only record while it is shown.
+     *
+     * @param show true to show
+     */
+    public void setVisible(boolean show) {
+        visible = show;
+        label.setVisible(show);
+        PerformanceProbes.setEnabled(show);
+        lastFrame = 0;
+        windowStart = 0;
+        for (int s = 0; s < NAMES.length; s++) {
+            recorders[s].swap(total); //throw away anything recorded while hidden
+            for (LatencyHistogram histogram : windows[s]) {
+                histogram.reset();
+            }
+        }
+        label.setText("");
+    }
+
+    /**
+     * Count a frame, and update the figures if a window has passed. Call once per frame
+     * from the AnimationTimer.
+     *
+     * @param now time of the frame, from the AnimationTimer
+     */
+    public void frame(long now) {
+        if (!visible) return;
+        if (lastFrame != 0) frames.record(now - lastFrame);
+        lastFrame = now;
+        if (windowStart == 0) windowStart = now;
+        if (now - windowStart < WINDOW_NANOS) return;
+        windowStart = now;
+
+        window = (window + 1) % WINDOWS;
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < NAMES.length; s++) {
+            recorders[s].swap(windows[s][window]);
+            total.reset();
+            for (LatencyHistogram histogram : windows[s]) {
+                total.add(histogram);
+            }
+            if (s == 0) {
+                double fps = total.getMean() > 0 ? 1e9 / total.getMean() : 0;
+                text.append(String.format("%-10s%6.1f%n", "fps", fps));
+            }
+            text.append(String.format("%-10sp50 %8s  p99 %8s  max %8s%n", NAMES[s],
+                    format(total.getValueAtPercentile(50)), format(total.getValueAtPercentile(99)), format(total.getMax())));
+        }
+        label.setText(text.toString().trim());
+    }
+
+    /**
+     * Format a duration for display
+     *
+     * @param nanos duration in nanoseconds
+     */
+    static String format(long nanos) {
+        if (nanos < 1_000) return nanos + "ns";
+        if (nanos < 1_000_000) return String.format("%.1fus", nanos / 1e3);
+        if (nanos < 1_000_000_000) return String.format("%.1fms", nanos / 1e6);
+        return String.format("%.2fs", nanos / 1e9);
+    }
+}
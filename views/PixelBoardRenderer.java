@@ -0,0 +1,217 @@
+package views;
+
+import model.BoardSnapshot;
+import model.TetrisModel;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/** Draws boards straight into pixels, for boards too big or too many for a Canvas.
+ *
+ * Drawing a block on a Canvas takes a fill colour and a rectangle, each queued as a command
+ * and replayed by the renderer. Here, each cell is instead copied from a pre-rendered sprite
+ * into an int buffer, one sprite line at a time, and the image is handed to the scene graph
+ * once per frame with a single PixelBuffer.updateBuffer(), naming only the rows that changed.
+ * The picture is the same as TetrisView.paintBoard(): red blocks with a one pixel gap around
+ * them on green, x increasing to the left, and a black line under the buffer zone.
+ *
+ * The cell size is chosen per board so the image fits in the size given to the constructor;
+ * show it in an ImageView to scale it from there.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class PixelBoardRenderer {
+
+    public static final int BACKGROUND = 0xFF008000; //Color.GREEN, as ARGB
+    public static final int BLOCK = 0xFFFF0000; //Color.RED
+    public static final int SPACER = 0xFF000000; //Color.BLACK
+    public static final int MIN_CELL = 3; //a block one pixel across, with its gap
+
+    private final int maxWidth, maxHeight; //largest image to make, in pixels
+    private final int maxCell; //largest cell to use, in pixels
+
+    private int cell; //size of a cell (block and gap), in pixels
+    private int[] blockSprite = new int[0]; //one cell, line by line
+    private int[] emptySprite = new int[0];
+
+    private PixelBuffer<IntBuffer> pixelBuffer; //the pixels behind image
+    private WritableImage image;
+    private BoardSnapshot painted; //snapshot the image currently shows
+
+    /**
+     * Constructor
+     *
+     * @param maxWidth largest image to draw, in pixels
+     * @param maxHeight largest image to draw, in pixels
+     * @param maxCell largest cell (block and gap) to draw, in pixels
+     */
+    public PixelBoardRenderer(int maxWidth, int maxHeight, int maxCell) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.maxCell = Math.max(MIN_CELL, maxCell);
+    }
+
+    /**
+     * Getter for the cell size of the board drawn last, in pixels
+     */
+    public int getCellSize() {
+        return cell;
+    }
+
+    /**
+     * Cell size to draw a board at, so it fits in the given size
+     *
+     * @param boardWidth board width, in blocks
+     * @param boardHeight board height, in blocks
+     * @param maxWidth room available, in pixels
+     * @param maxHeight room available, in pixels
+     * @param maxCell largest cell to use
+     */
+    public static int cellSize(int boardWidth, int boardHeight, int maxWidth, int maxHeight, int maxCell) {
+        int fit = Math.min((maxWidth - 2) / boardWidth, (maxHeight - 2) / boardHeight);
+        return Math.max(MIN_CELL, Math.min(maxCell, fit));
+    }
+
+    /**
+     * Width of the picture of a board, in pixels
+     */
+    public static int imageWidth(int boardWidth, int cell) {
+        return boardWidth * cell + 2;
+    }
+
+    /**
+     * Height of the picture of a board, in pixels
+     */
+    public static int imageHeight(int boardHeight, int cell) {
+        return boardHeight * cell + 2;
+    }
+
+    /**
+     * Bring the image up to date with a snapshot. Only the rows that changed since the last
+     * snapshot rendered are drawn, unless the board was replaced or changed size.
+     * Must be called on the JavaFX application thread.
+     *
+     * @param snapshot snapshot to draw
+     *
+     * @return the image; a new one if the board changed size
+     */
+    public WritableImage render(BoardSnapshot snapshot) {
+        int size = cellSize(snapshot.getWidth(), snapshot.getHeight(), maxWidth, maxHeight, maxCell);
+        int width = imageWidth(snapshot.getWidth(), size);
+        int height = imageHeight(snapshot.getHeight(), size);
+        if (image == null || size != cell || pixelBuffer.getWidth() != width || pixelBuffer.getHeight() != height) {
+            setCellSize(size);
+            IntBuffer pixels = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            pixelBuffer = new PixelBuffer<>(width, height, pixels, PixelFormat.getIntArgbPreInstance());
+            image = new WritableImage(pixelBuffer);
+            painted = null;
+        }
+
+        //rows to draw, from the lowest to the highest
+        boolean full = !snapshot.isSameBoard(painted);
+        int low = snapshot.getHeight(), high = -1;
+        for (int y = 0; y < snapshot.getHeight(); y++) {
+            if (full || snapshot.rowChanged(painted, y)) {
+                low = Math.min(low, y);
+                high = y;
+            }
+        }
+        painted = snapshot;
+        if (high < 0) return image;
+
+        final int first = low, last = high;
+        pixelBuffer.updateBuffer(buffer -> {
+            IntBuffer pixels = buffer.getBuffer();
+            if (full) {
+                drawBackground(pixels, width, 0, 0, width, height);
+            }
+            for (int y = first; y <= last; y++) {
+                drawRow(snapshot, y, pixels, width, 0, 0);
+            }
+            if (full) return null; //all of it
+            int top = rowTop(snapshot.getHeight(), last);
+            return new Rectangle2D(0, top, width, (last - first + 1) * cell);
+        });
+        return image;
+    }
+
+    /**
+     * Use a new cell size, and draw the sprites for it
+     *
+     * @param size cell size, in pixels, at least MIN_CELL
+     */
+    void setCellSize(int size) {
+        if (size == cell) return;
+        cell = size;
+        blockSprite = new int[size * size];
+        emptySprite = new int[size * size];
+        Arrays.fill(emptySprite, BACKGROUND);
+        for (int line = 0; line < size; line++) {
+            for (int i = 0; i < size; i++) {
+                boolean gap = line == 0 || line == size - 1 || i == 0 || i == size - 1;
+                blockSprite[line * size + i] = gap ? BACKGROUND : BLOCK;
+            }
+        }
+    }
+
+    /**
+     * Fill a rectangle of a buffer with the background colour
+     *
+     * @param pixels buffer to draw in
+     * @param stride pixels from one line of the buffer to the next
+     * @param left left edge of the rectangle
+     * @param top top edge of the rectangle
+     * @param width width of the rectangle
+     * @param height height of the rectangle
+     */
+    static void drawBackground(IntBuffer pixels, int stride, int left, int top, int width, int height) {
+        for (int line = top; line < top + height; line++) {
+            int at = line * stride + left;
+            for (int i = 0; i < width; i++) {
+                pixels.put(at + i, BACKGROUND);
+            }
+        }
+    }
+
+    /**
+     * Draw one row of a board, at the current cell size
+     *
+     * @param snapshot board to draw
+     * @param y grid row, y
+     * @param pixels buffer to draw in
+     * @param stride pixels from one line of the buffer to the next
+     * @param left left edge of the picture of the board in the buffer
+     * @param top top edge of the picture of the board in the buffer
+     */
+    void drawRow(BoardSnapshot snapshot, int y, IntBuffer pixels, int stride, int left, int top) {
+        int boardWidth = snapshot.getWidth();
+        int rowTop = top + rowTop(snapshot.getHeight(), y);
+        for (int x = 0; x < boardWidth; x++) {
+            int[] sprite = snapshot.getGrid(x, y) ? blockSprite : emptySprite;
+            int at = rowTop * stride + left + 1 + (boardWidth - 1 - x) * cell;
+            for (int line = 0; line < cell; line++) {
+                pixels.put(at + line * stride, sprite, line * cell, cell);
+            }
+        }
+        if (y == snapshot.getHeight() - TetrisModel.BUFFERZONE - 1) { //the line under the buffer zone
+            int at = rowTop * stride + left;
+            for (int i = 0; i < imageWidth(boardWidth, cell); i++) {
+                pixels.put(at + i, SPACER);
+            }
+        }
+    }
+
+    /**
+     * Top pixel line of a row of cells, in the picture of a board
+     */
+    private int rowTop(int boardHeight, int y) {
+        return 1 + (boardHeight - 1 - y) * cell;
+    }
+}
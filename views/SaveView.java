@@ -1,5 +1,9 @@
 package views;
 
+import model.SaveCatalog;
+import model.SaveWriter;
+
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
@@ -11,6 +15,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -25,6 +30,9 @@ public class SaveView {
     static String saveFileSuccess = "Saved board!!";
     static String saveFileExistsError = "Error: File already exists";
     static String saveFileNotSerError = "Error: File must end with .ser";
+    static String saveFileNameLengthError = "Error: File name is too long";
+    static String saveFileSaving = "Saving...";
+    static String saveFileWriteError = "Error: Could not save board (%s)";
     private Label saveFileErrorLabel = new Label("");
     private Label saveBoardLabel = new Label(String.format("Enter name of file to save"));
     private TextField saveFileNameTextField = new TextField("");
@@ -39,7 +47,7 @@ public class SaveView {
     public SaveView(TetrisView tetrisView) {
         this.tetrisView = tetrisView;
 
-        tetrisView.paused = true;
+        tetrisView.setPaused(true);
         final Stage dialog = new Stage();
         dialog.initModality(Modality.APPLICATION_MODAL);
         dialog.initOwner(tetrisView.stage);
@@ -74,23 +82,40 @@ public class SaveView {
         dialog.setScene(dialogScene);
         dialog.show();
         dialog.setOnCloseRequest(event -> {
-            tetrisView.paused = false;
+            tetrisView.setPaused(false);
         });
 
     }
 
     /**
-     * Save the board to a file
+     * Save the board to a file. The game is copied on the simulation thread and written in
+     * the background; the labels are updated when the save is on disk.
      */
     public void saveBoard() {
         String f = saveFileNameTextField.getText();
         File file = new File(f);
         if (f.length() >= 5 && f.endsWith(".ser")) {
-            if (!file.exists()) {
+            if (!SaveCatalog.isValidName(f)) {
+                saveFileErrorLabel.setText(saveFileNameLengthError);
+            } else if (!file.exists()) {
                 File temp;
                 temp = new File("boards/" + f);
-                tetrisView.model.saveModel(temp);
-                saveBoardLabel.setText(saveFileSuccess);
+                saveBoardLabel.setText(saveFileSaving);
+                saveFileErrorLabel.setText("");
+                tetrisView.simulation.execute(model -> tetrisView.saveWriter.save(model, temp, new SaveWriter.Listener() {
+                    @Override
+                    public void saved(File file) {
+                        Platform.runLater(() -> saveBoardLabel.setText(saveFileSuccess));
+                    }
+
+                    @Override
+                    public void failed(File file, IOException e) {
+                        Platform.runLater(() -> {
+                            saveBoardLabel.setText(String.format("Enter name of file to save"));
+                            saveFileErrorLabel.setText(String.format(saveFileWriteError, e.getMessage()));
+                        });
+                    }
+                }));
             } else {
                 saveFileErrorLabel.setText(saveFileExistsError);
             }
@@ -0,0 +1,268 @@
+package views;
+
+import model.BoardSnapshot;
+import server.GameSession;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.text.Font;
+import javafx.stage.Stage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/** Watches many hosted games at once, each as a small tile in a grid.
+ *
+ * All the tiles share one pixel buffer, drawn with a PixelBoardRenderer's sprites. At most
+ * maxFps times a second the latest snapshot of every game on the current page is read, and
+ * the tiles whose snapshot is new are redrawn, only in the rows that changed, in a single
+ * PixelBuffer.updateBuffer(). Games on other pages don't publish snapshots at all, so
+ * spectating costs the simulations nothing beyond the games being shown.
+ *
+ * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ */
+public class SpectatorView {
+
+    public static final int MOSAIC_WIDTH = 1200; //size of the mosaic, in pixels
+    public static final int MOSAIC_HEIGHT = 800;
+    static final int GAP = 4; //pixels between tiles
+    static final int MAX_CELL = 12; //largest cell in a tile, in pixels
+    static final int WINDOW_COLOUR = 0xFF121212; //between and around the tiles, as ARGB
+
+    private final Stage stage;
+    private final List<GameSession> sessions;
+    private final long frameNanos; //shortest time between frames
+    private final PixelBoardRenderer sprites; //draws the tiles; the sprites are shared by all of them
+
+    private final int tileWidth, tileHeight; //size of a tile, in pixels
+    private final int columns, rows; //tiles across and down
+    private final int pageSize;
+    private int page; //page shown
+
+    private final PixelBuffer<IntBuffer> pixelBuffer;
+    private final BoardSnapshot[] painted; //snapshot each tile on the page shows
+    private final BoardSnapshot[] latest; //snapshot each tile is to show, gathered before drawing
+    private boolean cleared; //has the page changed since the last frame?
+
+    private final Label statusLabel = new Label("");
+    private AnimationTimer timer;
+    private long lastFrame; //when the last frame was drawn
+
+    /**
+     * Constructor. Opens the view on the stage.
+     *
+     * @param stage stage to show the mosaic on
+     * @param sessions games to watch
+     * @param boardWidth width of their boards, in blocks
+     * @param boardHeight height of their boards, in blocks
+     * @param maxFps most frames to draw per second
+     */
+    public SpectatorView(Stage stage, List<GameSession> sessions, int boardWidth, int boardHeight, int maxFps) {
+        this.stage = stage;
+        this.sessions = sessions;
+        this.frameNanos = 1_000_000_000L / Math.max(1, maxFps);
+
+        //the biggest cell at which every game fits on one page, or else the smallest cell
+        int cell = MAX_CELL;
+        while (cell > PixelBoardRenderer.MIN_CELL && tilesFit(boardWidth, boardHeight, cell) < sessions.size()) {
+            cell--;
+        }
+        this.sprites = new PixelBoardRenderer(MOSAIC_WIDTH, MOSAIC_HEIGHT, cell);
+        this.sprites.setCellSize(cell);
+        this.tileWidth = PixelBoardRenderer.imageWidth(boardWidth, cell);
+        this.tileHeight = PixelBoardRenderer.imageHeight(boardHeight, cell);
+        this.columns = Math.max(1, (MOSAIC_WIDTH + GAP) / (tileWidth + GAP));
+        this.rows = Math.max(1, (MOSAIC_HEIGHT + GAP) / (tileHeight + GAP));
+        this.pageSize = columns * rows;
+        this.painted = new BoardSnapshot[pageSize];
+        this.latest = new BoardSnapshot[pageSize];
+
+        IntBuffer pixels = ByteBuffer.allocateDirect(MOSAIC_WIDTH * MOSAIC_HEIGHT * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        this.pixelBuffer = new PixelBuffer<>(MOSAIC_WIDTH, MOSAIC_HEIGHT, pixels, PixelFormat.getIntArgbPreInstance());
+        initUI(new WritableImage(pixelBuffer));
+        showPage(0);
+    }
+
+    /**
+     * Number of tiles that fit in the mosaic at a cell size
+     */
+    private static int tilesFit(int boardWidth, int boardHeight, int cell) {
+        int across = (MOSAIC_WIDTH + GAP) / (PixelBoardRenderer.imageWidth(boardWidth, cell) + GAP);
+        int down = (MOSAIC_HEIGHT + GAP) / (PixelBoardRenderer.imageHeight(boardHeight, cell) + GAP);
+        return across * down;
+    }
+
+    /**
+     * Initialize interface
+     *
+     * @param image the mosaic
+     */
+    private void initUI(WritableImage image) {
+        stage.setTitle("CSC207 Tetris - Spectator");
+
+        BorderPane borderPane = new BorderPane();
+        borderPane.setStyle("-fx-background-color: #121212;");
+
+        ImageView mosaic = new ImageView(image);
+        mosaic.setSmooth(false);
+
+        Button previousButton = new Button("Previous");
+        previousButton.setPrefSize(150, 50);
+        previousButton.setFont(new Font(12));
+        previousButton.setStyle("-fx-background-color: #17871b; -fx-text-fill: white;");
+        previousButton.setOnAction(e -> showPage(page - 1));
+
+        Button nextButton = new Button("Next");
+        nextButton.setPrefSize(150, 50);
+        nextButton.setFont(new Font(12));
+        nextButton.setStyle("-fx-background-color: #17871b; -fx-text-fill: white;");
+        nextButton.setOnAction(e -> showPage(page + 1));
+
+        statusLabel.setFont(new Font(16));
+        statusLabel.setStyle("-fx-text-fill: #e8e6e3");
+
+        HBox controls = new HBox(20, previousButton, nextButton, statusLabel);
+        controls.setPadding(new Insets(20, 20, 20, 20));
+        controls.setAlignment(Pos.CENTER);
+
+        borderPane.setCenter(mosaic);
+        borderPane.setBottom(controls);
+
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (now - lastFrame < frameNanos) return; //capped frame rate
+                lastFrame = now;
+                drawFrame();
+            }
+        };
+        timer.start();
+
+        stage.setScene(new Scene(borderPane, MOSAIC_WIDTH + 40, MOSAIC_HEIGHT + 120));
+        stage.setOnCloseRequest(e -> {
+            timer.stop();
+            setPublishing(page, false);
+        });
+        stage.show();
+    }
+
+    /**
+     * Show a page of games. Only the games on it publish snapshots.
+     *
+     * @param newPage page, from 0; wraps around
+     */
+    void showPage(int newPage) {
+        int pages = Math.max(1, (sessions.size() + pageSize - 1) / pageSize);
+        newPage = Math.floorMod(newPage, pages);
+        setPublishing(page, false);
+        page = newPage;
+        setPublishing(page, true);
+        for (int t = 0; t < pageSize; t++) {
+            painted[t] = null;
+        }
+        cleared = true;
+    }
+
+    /**
+     * Turn snapshot publishing on or off for the games on a page
+     */
+    private void setPublishing(int onPage, boolean publishing) {
+        int first = onPage * pageSize;
+        for (int i = first; i < Math.min(first + pageSize, sessions.size()); i++) {
+            sessions.get(i).setPublishing(publishing);
+        }
+    }
+
+    /**
+     * Redraw the tiles whose games have moved on since the last frame
+     */
+    private void drawFrame() {
+        int first = page * pageSize;
+        int changed = 0;
+        int top = MOSAIC_HEIGHT, bottom = 0; //lines of the mosaic that change
+        for (int t = 0; t < pageSize; t++) {
+            BoardSnapshot snapshot = first + t < sessions.size() ? sessions.get(first + t).getSnapshot() : null;
+            latest[t] = snapshot;
+            if (snapshot != null && snapshot != painted[t]) {
+                changed++;
+                int tileTop = (t / columns) * (tileHeight + GAP);
+                top = Math.min(top, tileTop);
+                bottom = Math.max(bottom, tileTop + tileHeight);
+            }
+        }
+        if (changed == 0 && !cleared) {
+            updateStatus(0);
+            return;
+        }
+
+        final boolean clear = cleared;
+        final int dirtyTop = top, dirtyBottom = bottom;
+        pixelBuffer.updateBuffer(buffer -> {
+            IntBuffer pixels = buffer.getBuffer();
+            if (clear) clearMosaic(pixels);
+            for (int t = 0; t < pageSize; t++) {
+                if (latest[t] != null && latest[t] != painted[t]) {
+                    drawTile(pixels, t, latest[t], painted[t]);
+                    painted[t] = latest[t];
+                }
+            }
+            if (clear) return null; //all of it
+            return new Rectangle2D(0, dirtyTop, MOSAIC_WIDTH, dirtyBottom - dirtyTop);
+        });
+        cleared = false;
+        updateStatus(changed);
+    }
+
+    /**
+     * Draw one tile, only in the rows that changed if it shows the same board as before
+     *
+     * @param pixels the mosaic
+     * @param tile tile on the page
+     * @param snapshot snapshot to draw
+     * @param earlier snapshot the tile shows now, or null
+     */
+    private void drawTile(IntBuffer pixels, int tile, BoardSnapshot snapshot, BoardSnapshot earlier) {
+        int left = (tile % columns) * (tileWidth + GAP);
+        int top = (tile / columns) * (tileHeight + GAP);
+        boolean full = !snapshot.isSameBoard(earlier);
+        if (full) PixelBoardRenderer.drawBackground(pixels, MOSAIC_WIDTH, left, top, tileWidth, tileHeight);
+        for (int y = 0; y < snapshot.getHeight(); y++) {
+            if (full || snapshot.rowChanged(earlier, y)) {
+                sprites.drawRow(snapshot, y, pixels, MOSAIC_WIDTH, left, top);
+            }
+        }
+    }
+
+    /**
+     * Paint the whole mosaic the colour of the window
+     */
+    private void clearMosaic(IntBuffer pixels) {
+        for (int i = 0; i < MOSAIC_WIDTH * MOSAIC_HEIGHT; i++) {
+            pixels.put(i, WINDOW_COLOUR);
+        }
+    }
+
+    /**
+     * Show which page this is and how much was redrawn
+     *
+     * @param changed tiles redrawn this frame
+     */
+    private void updateStatus(int changed) {
+        int pages = Math.max(1, (sessions.size() + pageSize - 1) / pageSize);
+        statusLabel.setText(String.format("%d games, page %d of %d (%d per page), %d tiles redrawn",
+                sessions.size(), page + 1, pages, pageSize, changed));
+    }
+}
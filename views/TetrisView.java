@@ -1,9 +1,12 @@
 package views;
 
+import model.BoardSnapshot;
+import model.CheckpointLog;
+import model.SaveWriter;
 import model.TetrisModel;
+import model.TetrisSimulation;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -11,15 +14,19 @@ import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
-import javafx.util.Duration;
+
+import java.io.IOException;
 
 
 /**
@@ -35,13 +42,30 @@ public class TetrisView {
     Button startButton, stopButton, loadButton, saveButton, newButton; //buttons for functions
     Label scoreLabel = new Label("");
     Label gameModeLabel = new Label("");
+    Label rateLabel = new Label(""); //ticks and pieces per second, in turbo mode
 
     BorderPane borderPane;
     Canvas canvas;
     GraphicsContext gc; //the graphics context will be linked to the canvas
 
     Boolean paused;
-    Timeline timeline;
+    TetrisSimulation simulation; //runs the model on its own thread
+    SaveWriter saveWriter = new SaveWriter(); //writes saves in the background
+    CheckpointLog autosave; //autosave checkpoints, if enabled
+    AnimationTimer renderer; //paints the latest snapshot once per frame
+    BoardSnapshot rendered; //last snapshot shown (board and score)
+    BoardSnapshot painted; //snapshot the canvas currently shows; rows that changed since are repainted
+    private double paintedWidth, paintedHeight; //canvas size when it was last painted in full
+    PixelBoardRenderer pixelRenderer; //draws the board into pixels instead of on the canvas, if chosen
+    ImageView boardImage; //shows what the pixel renderer draws
+    StackPane boardPane; //the board, with the performance overlay on top
+    PerformanceHud hud = new PerformanceHud(); //live latency figures, if shown
+
+    static final long AUTOSAVE_NANOS = 5_000_000_000L; //time between autosave checkpoints
+    static final long RATE_NANOS = 500_000_000L; //time between updates of the rate label
+    static final String TURBO_MAX = "Max"; //turbo choice for as fast as possible
+
+    private long rateTime, rateTicks, ratePieces; //when the rates were last worked out, and the counts then
 
     int pieceWidth = 20; //width of block on display
     private double width; //height and width of canvas
@@ -57,7 +81,9 @@ public class TetrisView {
     public TetrisView(TetrisModel model, Stage stage) {
         this.model = model;
         this.stage = stage;
+        this.simulation = new TetrisSimulation(model);
         initUI();
+        this.simulation.start();
     }
 
     /**
@@ -146,7 +172,35 @@ public class TetrisView {
 
         slider.setValue(100/3);
 
-        VBox vBox = new VBox(20, slider);
+        CheckBox pixelBox = new CheckBox("Pixel renderer");
+        pixelBox.setFont(new Font(16));
+        pixelBox.setStyle("-fx-text-fill: #e8e6e3");
+
+        boardImage = new ImageView(null);
+        boardImage.setSmooth(false);
+        boardImage.setPreserveRatio(true);
+        boardImage.setFitWidth(this.width);
+        boardImage.setFitHeight(this.height);
+
+        //turbo mode: the computer plays as fast as it can, or at a set number of ticks per second
+        CheckBox turboBox = new CheckBox("Turbo");
+        turboBox.setFont(new Font(16));
+        turboBox.setStyle("-fx-text-fill: #e8e6e3");
+        ChoiceBox<String> turboChoice = new ChoiceBox<>();
+        turboChoice.getItems().addAll(TURBO_MAX, "100000", "10000", "1000", "100");
+        turboChoice.setValue(TURBO_MAX);
+
+        rateLabel.setFont(new Font(16));
+        rateLabel.setStyle("-fx-text-fill: #e8e6e3");
+
+        CheckBox hudBox = new CheckBox("Performance");
+        hudBox.setFont(new Font(16));
+        hudBox.setStyle("-fx-text-fill: #e8e6e3");
+
+        HBox turboControls = new HBox(20, pixelBox, hudBox, turboBox, turboChoice, rateLabel);
+        turboControls.setAlignment(Pos.CENTER);
+
+        VBox vBox = new VBox(20, slider, turboControls);
         vBox.setPadding(new Insets(20, 20, 20, 20));
         vBox.setAlignment(Pos.TOP_CENTER);
 
@@ -156,18 +210,24 @@ public class TetrisView {
 
         toggleGroup.selectedToggleProperty().addListener((observable, oldVal, newVal) -> swapPilot(newVal));
 
-        //timeline structures the animation, and speed between application "ticks"
-        timeline = new Timeline(new KeyFrame(Duration.seconds(0.25), e -> updateBoard()));
-        timeline.setCycleCount(Timeline.INDEFINITE);
-        timeline.play();
+        //the simulation sets the speed between model "ticks"; the view just paints what it publishes
+        renderer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                updateBoard();
+                updateRates(now);
+                hud.frame(now);
+            }
+        };
+        renderer.start();
 
         //configure this such that you start a new game when the user hits the newButton
         //Make sure to return the focus to the borderPane once you're done!
         newButton.setOnAction(e -> {
             //TO DO!
 
-            model.newGame();
-            paused = false;
+            simulation.execute(TetrisModel::newGame);
+            setPaused(false);
             startButton.setDisable(true);
             stopButton.setDisable(false);
             borderPane.requestFocus();
@@ -179,7 +239,7 @@ public class TetrisView {
         startButton.setOnAction(e -> {
             //TO DO!
 
-            paused = false;
+            setPaused(false);
             startButton.setDisable(true);
             stopButton.setDisable(false);
             borderPane.requestFocus();
@@ -192,7 +252,7 @@ public class TetrisView {
 
             startButton.setDisable(false);
             stopButton.setDisable(true);
-            paused = true;
+            setPaused(true);
             borderPane.requestFocus();
         });
 
@@ -219,7 +279,28 @@ public class TetrisView {
         //focus to the borderPane once you're done!
         slider.setOnMouseReleased(e -> {
             //TO DO
-            timeline.setRate(slider.getValue()/(100/3));
+            simulation.setRate(slider.getValue()/(100/3));
+            borderPane.requestFocus();
+        });
+
+        //draw the board into a pixel buffer rather than on the canvas
+        pixelBox.setOnAction(e -> {
+            setPixelRendering(pixelBox.isSelected());
+            borderPane.requestFocus();
+        });
+
+        //show frame and latency figures over the board
+        hudBox.setOnAction(e -> {
+            hud.setVisible(hudBox.isSelected());
+            borderPane.requestFocus();
+        });
+
+        turboBox.setOnAction(e -> {
+            setTurbo(turboBox.isSelected(), turboChoice.getValue());
+            borderPane.requestFocus();
+        });
+        turboChoice.setOnAction(e -> {
+            setTurbo(turboBox.isSelected(), turboChoice.getValue());
             borderPane.requestFocus();
         });
 
@@ -235,19 +316,19 @@ public class TetrisView {
                 //TO DO
 
                 if (k.getCode() == KeyCode.UP) {
-                    model.modelTick(TetrisModel.MoveType.ROTATE);
+                    simulation.submitMove(TetrisModel.MoveType.ROTATE);
                     // keep the focus on the borderPane
                     borderPane.requestFocus();
                 } else if (k.getCode() == KeyCode.DOWN) {
-                    model.modelTick(TetrisModel.MoveType.DROP);
+                    simulation.submitMove(TetrisModel.MoveType.DROP);
                     // keep the focus on the borderPane
                     borderPane.requestFocus();
                 } else if (k.getCode() == KeyCode.LEFT) {
-                    model.modelTick(TetrisModel.MoveType.RIGHT);
+                    simulation.submitMove(TetrisModel.MoveType.RIGHT);
                     // keep the focus on the borderPane
                     borderPane.requestFocus();
                 } else if (k.getCode() == KeyCode.RIGHT) {
-                    model.modelTick(TetrisModel.MoveType.LEFT);
+                    simulation.submitMove(TetrisModel.MoveType.LEFT);
                     // keep the focus on the borderPane
                     borderPane.requestFocus();
                 }
@@ -256,14 +337,111 @@ public class TetrisView {
 
         borderPane.setTop(controls);
         borderPane.setRight(scoreBox);
-        borderPane.setCenter(canvas);
+        boardPane = new StackPane(canvas, hud.getNode());
+        StackPane.setAlignment(hud.getNode(), Pos.TOP_LEFT);
+        borderPane.setCenter(boardPane);
         borderPane.setBottom(vBox);
 
         var scene = new Scene(borderPane, 800, 800);
         this.stage.setScene(scene);
+        this.stage.setOnCloseRequest(e -> {
+            renderer.stop();
+            hud.setVisible(false);
+            simulation.stop();
+            saveWriter.shutdown(5000); //let saves in progress reach the disk
+            if (autosave != null) {
+                try {
+                    autosave.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
         this.stage.show();
     }
 
+    /**
+     * Pause or resume the game
+     *
+     * @param paused true to pause
+     */
+    void setPaused(boolean paused) {
+        this.paused = paused;
+        simulation.setPaused(paused);
+    }
+
+    /**
+     * Turn turbo mode on or off
+     *
+     * @param on true for turbo mode
+     * @param target ticks per second, or TURBO_MAX
+     */
+    void setTurbo(boolean on, String target) {
+        if (!on) {
+            simulation.setTurbo(0);
+        } else if (TURBO_MAX.equals(target)) {
+            simulation.setTurbo(TetrisSimulation.UNLIMITED);
+        } else {
+            simulation.setTurbo(Double.parseDouble(target));
+        }
+        rateLabel.setText("");
+    }
+
+    /**
+     * Show the simulation's ticks and pieces per second, every RATE_NANOS, while in turbo mode
+     *
+     * @param now time of the current frame
+     */
+    private void updateRates(long now) {
+        if (now - rateTime < RATE_NANOS) return;
+        long ticks = simulation.getTicks();
+        long pieces = simulation.getPieces();
+        if (simulation.getTurbo() > 0 && rateTime != 0) {
+            double seconds = (now - rateTime) / 1e9;
+            rateLabel.setText(String.format("%,.0f ticks/s  %,.0f pieces/s",
+                    (ticks - rateTicks) / seconds, (pieces - ratePieces) / seconds));
+        }
+        rateTime = now;
+        rateTicks = ticks;
+        ratePieces = pieces;
+    }
+
+    /**
+     * Choose how the board is drawn: with a pixel buffer, or on the canvas
+     *
+     * @param pixels true to use a PixelBoardRenderer
+     */
+    void setPixelRendering(boolean pixels) {
+        if (pixels) {
+            pixelRenderer = new PixelBoardRenderer((int) this.width, (int) this.height, pieceWidth);
+            boardPane.getChildren().set(0, boardImage);
+        } else {
+            pixelRenderer = null;
+            boardPane.getChildren().set(0, canvas);
+        }
+        paintBoard();
+    }
+
+    /**
+     * Autosave the game every few seconds while it is being played
+     *
+     * @param log log to write the checkpoints to
+     */
+    public void setAutosave(CheckpointLog log) {
+        this.autosave = log;
+        simulation.setCheckpointLog(log, AUTOSAVE_NANOS);
+    }
+
+    /**
+     * Replace the model being played (e.g. after loading a board)
+     *
+     * @param model new model
+     */
+    void setModel(TetrisModel model) {
+        this.model = model;
+        simulation.setModel(model);
+    }
+
     /**
      * Get user selection of "autopilot" or human player
      *
@@ -273,86 +451,122 @@ public class TetrisView {
         RadioButton chk = (RadioButton)value.getToggleGroup().getSelectedToggle();
         String strVal = chk.getText();
         if (strVal.equals("Computer (Default)")){
-            this.model.setAutoPilotMode();
+            simulation.execute(TetrisModel::setAutoPilotMode);
             gameModeLabel.setText("Player is: Computer (Default)");
         } else if (strVal.equals("Human")) {
-            this.model.setHumanPilotMode();
+            simulation.execute(TetrisModel::setHumanPilotMode);
             gameModeLabel.setText("Player is: Human");
         }
         borderPane.requestFocus(); //give the focus back to the pane with the blocks.
     }
 
     /**
-     * Update board (paint pieces and score info)
+     * Update board (paint pieces and score info), if the simulation has published something new
      */
     private void updateBoard() {
-        if (this.paused != true) {
-            paintBoard();
-            this.model.modelTick(TetrisModel.MoveType.DOWN);
-            updateScore();
+        BoardSnapshot snapshot = simulation.getSnapshot();
+        if (snapshot != rendered) {
+            drawBoard(snapshot);
+            updateScore(snapshot);
+            rendered = snapshot;
         }
     }
 
     /**
      * Update score on UI
+     *
+     * @param snapshot snapshot to take the score from
      */
-    private void updateScore() {
+    private void updateScore(BoardSnapshot snapshot) {
         if (this.paused != true) {
-            scoreLabel.setText("Score is: " + model.getScore() + "\nPieces placed:" + model.getCount());
+            scoreLabel.setText("Score is: " + snapshot.getScore() + "\nPieces placed:" + snapshot.getCount());
         }
     }
 
     /**
      * Methods to calibrate sizes of pixels relative to board size
      */
-    private final int yPixel(int y) {
-        return (int) Math.round(this.height -1 - (y+1)*dY());
+    private final int yPixel(BoardSnapshot snapshot, int y) {
+        return (int) Math.round(this.height -1 - (y+1)*dY(snapshot));
     }
-    private final int xPixel(int x) {
-        return (int) Math.round(this.width -1 - (x+1)*dX());
+    private final int xPixel(BoardSnapshot snapshot, int x) {
+        return (int) Math.round(this.width -1 - (x+1)*dX(snapshot));
     }
-    private final float dX() {
-        return( ((float)(this.width-2)) / this.model.getBoard().getWidth() );
+    private final float dX(BoardSnapshot snapshot) {
+        return( ((float)(this.width-2)) / snapshot.getWidth() );
     }
-    private final float dY() {
-        return( ((float)(this.height-2)) / this.model.getBoard().getHeight() );
+    private final float dY(BoardSnapshot snapshot) {
+        return( ((float)(this.height-2)) / snapshot.getHeight() );
     }
 
     /**
-     * Draw the board
+     * Draw the latest board published by the simulation, in full
      */
     public void paintBoard() {
+        painted = null;
+        if (pixelRenderer != null) {
+            pixelRenderer = new PixelBoardRenderer((int) this.width, (int) this.height, pieceWidth);
+        }
+        drawBoard(simulation.getSnapshot());
+    }
 
-        // Draw a rectangle around the whole screen
-        gc.setStroke(Color.GREEN);
-        gc.setFill(Color.GREEN);
-        gc.fillRect(0, 0, this.width-1, this.height-1);
+    /**
+     * Draw the board with whichever renderer is in use
+     *
+     * @param snapshot snapshot of the board to draw
+     */
+    private void drawBoard(BoardSnapshot snapshot) {
+        if (pixelRenderer != null) {
+            Image image = pixelRenderer.render(snapshot);
+            if (boardImage.getImage() != image) boardImage.setImage(image);
+        } else {
+            paintBoard(snapshot);
+        }
+    }
 
-        // Draw the line separating the top area on the screen
-        gc.setStroke(Color.BLACK);
-        int spacerY = yPixel(this.model.getBoard().getHeight() - this.model.BUFFERZONE - 1);
-        gc.strokeLine(0, spacerY, this.width-1, spacerY);
+    /**
+     * Draw the board. Only the rows that changed since the last snapshot drawn are redrawn,
+     * unless the board itself was replaced (load, new board size) or the canvas was resized.
+     *
+     * @param snapshot snapshot of the board to draw
+     */
+    private void paintBoard(BoardSnapshot snapshot) {
+        boolean full = !snapshot.isSameBoard(painted) || paintedWidth != this.width || paintedHeight != this.height;
+        if (full) {
+            // Draw a rectangle around the whole screen
+            gc.setStroke(Color.GREEN);
+            gc.setFill(Color.GREEN);
+            gc.fillRect(0, 0, this.width-1, this.height-1);
+
+            // Draw the line separating the top area on the screen
+            gc.setStroke(Color.BLACK);
+            int spacerY = yPixel(snapshot, snapshot.getHeight() - TetrisModel.BUFFERZONE - 1);
+            gc.strokeLine(0, spacerY, this.width-1, spacerY);
+            paintedWidth = this.width;
+            paintedHeight = this.height;
+        }
 
         // Factor a few things out to help the optimizer
-        final int dx = Math.round(dX()-2);
-        final int dy = Math.round(dY()-2);
-        final int bWidth = this.model.getBoard().getWidth();
-
-        int x, y;
-        // Loop through and draw all the blocks; sizes of blocks are calibrated relative to screen size
-        for (x=0; x<bWidth; x++) {
-            int left = xPixel(x);	// the left pixel
-            // draw from 0 up to the col height
-            final int yHeight = this.model.getBoard().getColumnHeight(x);
-            for (y=0; y<yHeight; y++) {
-                if (this.model.getBoard().getGrid(x, y)) {
-                    gc.setFill(Color.RED);
-                    gc.fillRect(left+1, yPixel(y)+1, dx, dy);
-                    gc.setFill(Color.GREEN);
+        final int dx = Math.round(dX(snapshot)-2);
+        final int dy = Math.round(dY(snapshot)-2);
+        final int bWidth = snapshot.getWidth();
+
+        // Redraw the rows that changed; sizes of blocks are calibrated relative to screen size
+        for (int y = 0; y < snapshot.getHeight(); y++) {
+            if (!full && !snapshot.rowChanged(painted, y)) continue;
+            final int top = yPixel(snapshot, y)+1; // the top pixel
+            if (!full) {
+                gc.setFill(Color.GREEN);
+                gc.fillRect(0, top, this.width-1, dy); //the blocks only; the gaps and the spacer line stay
+            }
+            gc.setFill(Color.RED);
+            for (int x = 0; x < bWidth; x++) {
+                if (y < snapshot.getColumnHeight(x) && snapshot.getGrid(x, y)) {
+                    gc.fillRect(xPixel(snapshot, x)+1, top, dx, dy);
                 }
             }
         }
-
+        painted = snapshot;
     }
 
     /**